@@ -0,0 +1,103 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.plastic.InstanceContext;
+import org.apache.tapestry5.plastic.MethodInvocation;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * A minimal {@link MethodInvocation} for driving advice outside of Plastic.
+ * <p/>
+ * The "method" either returns or fails with the configured exception. Runtime exceptions are thrown from
+ * {@link #proceed()}, checked exceptions are reported the way Plastic reports them. {@link #rethrow()} does nothing
+ * so that advised and unadvised benchmarks pay the same (zero) cost for the throw itself.
+ */
+class BenchmarkInvocation implements MethodInvocation {
+    private final Method method;
+    private final Exception exception;
+    private Exception checkedException;
+    private Object returnValue;
+
+    BenchmarkInvocation(Method method, Exception exception) {
+        this.method = method;
+        this.exception = exception;
+    }
+
+    public MethodInvocation proceed() {
+        if (exception instanceof RuntimeException) {
+            throw (RuntimeException) exception;
+        }
+        checkedException = exception;
+        returnValue = this;
+        return this;
+    }
+
+    public boolean didThrowCheckedException() {
+        return checkedException != null;
+    }
+
+    public <T extends Throwable> T getCheckedException(Class<T> exceptionType) {
+        return exceptionType.isInstance(checkedException) ? exceptionType.cast(checkedException) : null;
+    }
+
+    public void rethrow() {
+    }
+
+    public Object getReturnValue() {
+        return returnValue;
+    }
+
+    public MethodInvocation setReturnValue(Object returnValue) {
+        this.returnValue = returnValue;
+        return this;
+    }
+
+    public MethodInvocation setCheckedException(Exception exception) {
+        checkedException = exception;
+        returnValue = null;
+        return this;
+    }
+
+    public Object getInstance() {
+        return null;
+    }
+
+    public InstanceContext getInstanceContext() {
+        return null;
+    }
+
+    public Object getParameter(int index) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    public MethodInvocation setParameter(int index, Object value) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public <T extends Annotation> boolean hasAnnotation(Class<T> annotationType) {
+        return method.isAnnotationPresent(annotationType);
+    }
+
+    public <T extends Annotation> T getAnnotation(Class<T> annotationType) {
+        return method.getAnnotation(annotationType);
+    }
+}
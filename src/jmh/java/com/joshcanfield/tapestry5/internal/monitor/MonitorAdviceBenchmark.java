@@ -0,0 +1,264 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter;
+import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter.Strategy.Segregate;
+
+/**
+ * Measures what {@link MonitorAdvice#advise(org.apache.tapestry5.plastic.MethodInvocation)} adds to a call.
+ * <p/>
+ * Every advised benchmark has an unadvised twin that runs the same invocation without the advice; the difference
+ * between the two is the cost of monitoring. Run with "gradle benchmark", which runs each benchmark with 1, 4 and 16
+ * threads and the GC profiler so that gc.alloc.rate.norm reports the bytes allocated per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MonitorAdviceBenchmark {
+
+    static final int[] THREADS = {1, 4, 16};
+
+    /**
+     * The recorder to benchmark, "simon" or "striped", set with -Dtapestry.monitor.recorder
+     */
+    static final String RECORDER = System.getProperty("tapestry.monitor.recorder", "simon");
+
+    /**
+     * Per-thread buffering, off unless set with -Dtapestry.monitor.buffer-size. Without requests ending the buffers
+     * are only flushed as they fill.
+     */
+    static final int BUFFER_SIZE = Integer.getInteger("tapestry.monitor.buffer-size", 0);
+
+    /**
+     * The clock, "precise" or "coarse", set with -Dtapestry.monitor.clock
+     */
+    static final String CLOCK = System.getProperty("tapestry.monitor.clock", "precise");
+
+    /**
+     * The rolling windows, none as by default, set with -Dtapestry.monitor.windows such as "1m,5m,15m"
+     */
+    static final String WINDOWS = System.getProperty("tapestry.monitor.windows", "");
+
+    static final CoarseClock COARSE_CLOCK = new CoarseClock(TimeUnit.MILLISECONDS.toNanos(1));
+
+    /**
+     * The monitored methods, one per @Monitor configuration being measured.
+     */
+    interface Monitored {
+
+        @Monitor
+        void defaultFilters();
+
+        @Monitor(exceptions = {
+                @ExceptionFilter(strategy = Segregate, name = "checked", value = BenchmarkCheckedException.class),
+                @ExceptionFilter(Exception.class)
+        })
+        void segregated();
+    }
+
+    /**
+     * Exceptions are shared and have no stack trace so the benchmarks measure the advice rather than the throw.
+     */
+    static class BenchmarkException extends RuntimeException {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    static class BenchmarkCheckedException extends Exception {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    static final BenchmarkException RUNTIME_EXCEPTION = new BenchmarkException();
+
+    static final BenchmarkCheckedException CHECKED_EXCEPTION = new BenchmarkCheckedException();
+
+    /**
+     * Invocations carry per-call state so each thread gets its own.
+     */
+    @State(Scope.Thread)
+    public static class Invocations {
+        final BenchmarkInvocation returns = new BenchmarkInvocation(null, null);
+        final BenchmarkInvocation throwsRuntime = new BenchmarkInvocation(null, RUNTIME_EXCEPTION);
+        final BenchmarkInvocation throwsChecked = new BenchmarkInvocation(null, CHECKED_EXCEPTION);
+    }
+
+    private MonitorAdvice defaultFilters;
+    private MonitorAdvice segregated;
+
+    @Setup
+    public void createAdvice() throws NoSuchMethodException {
+        defaultFilters = advice("defaultFilters");
+        segregated = advice("segregated");
+    }
+
+    @Benchmark
+    public Object unadvised(Invocations invocations) {
+        return invocations.returns.proceed();
+    }
+
+    @Benchmark
+    public Object unadvised_runtime_exception(Invocations invocations) {
+        try {
+            return invocations.throwsRuntime.proceed();
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object unadvised_checked_exception(Invocations invocations) {
+        return invocations.throwsChecked.proceed();
+    }
+
+    @Benchmark
+    public Object default_filters(Invocations invocations) {
+        defaultFilters.advise(invocations.returns);
+        return invocations.returns;
+    }
+
+    @Benchmark
+    public Object default_filters_runtime_exception(Invocations invocations) {
+        try {
+            defaultFilters.advise(invocations.throwsRuntime);
+            return invocations.throwsRuntime;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object default_filters_checked_exception(Invocations invocations) {
+        defaultFilters.advise(invocations.throwsChecked);
+        return invocations.throwsChecked;
+    }
+
+    @Benchmark
+    public Object segregated(Invocations invocations) {
+        segregated.advise(invocations.returns);
+        return invocations.returns;
+    }
+
+    @Benchmark
+    public Object segregated_runtime_exception(Invocations invocations) {
+        try {
+            segregated.advise(invocations.throwsRuntime);
+            return invocations.throwsRuntime;
+        } catch (RuntimeException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public Object segregated_checked_exception(Invocations invocations) {
+        segregated.advise(invocations.throwsChecked);
+        return invocations.throwsChecked;
+    }
+
+    /**
+     * Builds the advice the same way MonitorAdviserImpl does, without registering MBeans.
+     */
+    private static MonitorAdvice advice(String methodName) throws NoSuchMethodException {
+        final Method method = Monitored.class.getMethod(methodName);
+        final Monitor monitor = method.getAnnotation(Monitor.class);
+        final String name = "benchmark." + methodName;
+
+        final MonitorClock clock;
+        if ("coarse".equals(CLOCK)) {
+            COARSE_CLOCK.start();
+            clock = COARSE_CLOCK;
+        } else {
+            clock = new PreciseClock();
+        }
+
+        final MonitorStatsSourceImpl.Settings settings = new MonitorStatsSourceImpl.Settings()
+                .recorder(RECORDER)
+                .percentiles("50,99")
+                .bufferSize(BUFFER_SIZE)
+                .windows(WINDOWS);
+        final MonitorStatsSource source = new MonitorStatsSourceImpl(settings,
+                new PerthreadManagerImpl(LoggerFactory.getLogger(MonitorAdviceBenchmark.class)),
+                new MonitorClockSource() {
+                    public MonitorClock getClock(Monitor.Clock ignored) {
+                        return clock;
+                    }
+                });
+
+        Map<String, MonitorStats> exceptionToStatsMap = new HashMap<String, MonitorStats>();
+        for (ExceptionFilter filter : monitor.exceptions()) {
+            exceptionToStatsMap.put(filter.name(), source.getExceptionStats(name + "." + filter.name()));
+        }
+
+        return new MonitorAdvice(source.getStats(name), clock, monitor, exceptionToStatsMap,
+                new MonitorAdvice.Options().slowLog(source.getSlowInvocationLog(), source.getSlowThreshold()));
+    }
+
+    /**
+     * Runs the benchmarks matching the first argument (all of them by default) once for each thread count.
+     */
+    public static void main(String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : MonitorAdviceBenchmark.class.getSimpleName();
+
+        for (int threads : THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threads)
+                    .jvmArgsAppend("-Dtapestry.monitor.recorder=" + RECORDER,
+                            "-Dtapestry.monitor.buffer-size=" + BUFFER_SIZE,
+                            "-Dtapestry.monitor.clock=" + CLOCK,
+                            "-Dtapestry.monitor.windows=" + WINDOWS)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+}
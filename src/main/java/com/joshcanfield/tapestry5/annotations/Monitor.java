@@ -102,4 +102,49 @@ public @interface Monitor {
             )
     };
 
+    /**
+     * Time one in every sampleRate invocations. The other invocations run without reading the clock or recording
+     * anything. Counts and totals reported for the monitor are scaled back up by the rate, means and percentiles
+     * come from the sampled invocations.
+     * <p/>
+     * Meant for very hot, very fast methods where timing every call costs more than the call. Under concurrent use
+     * the sampling is approximate. Defaults to 1, every invocation is timed.
+     */
+    int sampleRate() default 1;
+
+    /**
+     * Invocations taking longer than this, such as "250 ms", are captured in the slow invocation log with their
+     * thread, time and, when configured, arguments and stack. Defaults to "", which uses the
+     * tapestry.monitor.slow-threshold symbol.
+     */
+    String slowThreshold() default "";
+
+    /**
+     * The clock the invocations are timed with.
+     */
+    enum Clock {
+
+        /**
+         * Use the clock configured by the tapestry.monitor.clock symbol
+         */
+        Default,
+
+        /**
+         * Read System.nanoTime() before and after each invocation
+         */
+        Precise,
+
+        /**
+         * Read a tick that a background thread keeps up to date. Much cheaper than System.nanoTime() on some hosts
+         * but only as precise as the tapestry.monitor.clock-resolution, so short invocations are mostly recorded
+         * as taking no time and occasionally as taking a whole tick. Totals and means even out over many calls.
+         */
+        Coarse
+    }
+
+    /**
+     * Defaults to {@link Clock#Default}, the clock chosen in the application's configuration.
+     */
+    Clock clock() default Clock.Default;
+
 }
@@ -0,0 +1,65 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.ExceptionBreakdown;
+import com.joshcanfield.tapestry5.monitor.Histogram;
+import com.joshcanfield.tapestry5.monitor.MonitorIntervals;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.RollingWindow;
+import org.javasimon.Stopwatch;
+
+/**
+ * Stats that are recorded into the current thread's buffer and reach the stopwatch and histogram when the buffer
+ * is flushed. Until then the recorded invocations aren't visible through JMX, and they land in the window's bucket
+ * and the {@link MonitorIntervals interval} for the time they were flushed, and they aren't counted by
+ * {@link #getInvocationCount()} until then. Exceptions are rare enough to go straight to the
+ * {@link ExceptionBreakdown}, as do {@link #recordFuture(long, long) futures}, which were counted when they were
+ * handed back.
+ */
+public class BufferedMonitorStats extends MonitorStats {
+    private final RecordingBuffers buffers;
+
+    public BufferedMonitorStats(Stopwatch stopwatch, Histogram histogram, RollingWindow window,
+                                ExceptionBreakdown exceptions, MonitorIntervals intervals, double[] percentiles,
+                                boolean active, RecordingBuffers buffers) {
+        super(stopwatch, histogram, window, exceptions, intervals, percentiles, active);
+        this.buffers = buffers;
+    }
+
+    @Override
+    public void record(long ns) {
+        buffers.record(this, ns);
+    }
+
+    @Override
+    public void record(long ns, long now) {
+        buffers.record(this, ns);
+    }
+
+    /**
+     * Records this monitor's invocations from a flushed buffer and clears their slots. The javasimon stopwatch
+     * locks itself on every addTime, holding the lock across the batch means it changes hands once per flush.
+     */
+    void flush(BufferedMonitorStats[] stats, long[] times, int from, int size) {
+        synchronized (getStopwatch()) {
+            for (int i = from; i < size; i++) {
+                if (stats[i] != this) continue;
+                super.record(times[i]);
+                stats[i] = null;
+            }
+        }
+    }
+}
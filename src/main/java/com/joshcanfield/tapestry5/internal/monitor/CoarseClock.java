@@ -0,0 +1,66 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock that returns a tick kept up to date by a daemon thread, so reading it is a single volatile read.
+ * <p/>
+ * The tick only moves once per resolution; an invocation shorter than that is timed as zero, or as a whole tick
+ * when the tick moves while it runs.
+ */
+public class CoarseClock implements MonitorClock, Runnable {
+    private final long resolutionNanos;
+    private volatile long tick = System.nanoTime();
+    private volatile boolean running;
+
+    /**
+     * @param resolutionNanos how often the tick is updated
+     */
+    public CoarseClock(long resolutionNanos) {
+        if (resolutionNanos < 1) throw new IllegalArgumentException("resolution must be positive: " + resolutionNanos);
+        this.resolutionNanos = resolutionNanos;
+    }
+
+    public long nanoTime() {
+        return tick;
+    }
+
+    /**
+     * Starts the thread that updates the tick.
+     */
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+
+        final Thread thread = new Thread(this, "MonitorCoarseClock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    public void run() {
+        while (running) {
+            tick = System.nanoTime();
+            LockSupport.parkNanos(resolutionNanos);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.ioc.ObjectCreator;
+import org.apache.tapestry5.plastic.MethodAdvice;
+import org.apache.tapestry5.plastic.MethodInvocation;
+
+/**
+ * Advice that waits for the first invocation before creating the real advice, so a monitored method that is never
+ * called doesn't cost any stats or MBeans.
+ */
+public class LazyMonitorAdvice implements MethodAdvice {
+    private final ObjectCreator<? extends MethodAdvice> creator;
+    private volatile MethodAdvice advice;
+
+    public LazyMonitorAdvice(ObjectCreator<? extends MethodAdvice> creator) {
+        this.creator = creator;
+    }
+
+    public void advise(MethodInvocation invocation) {
+        MethodAdvice advice = this.advice;
+        if (advice == null) advice = create();
+
+        advice.advise(invocation);
+    }
+
+    private synchronized MethodAdvice create() {
+        if (advice == null) advice = creator.createObject();
+        return advice;
+    }
+}
@@ -15,41 +15,139 @@
 package com.joshcanfield.tapestry5.internal.monitor;
 
 import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.CallTree;
+import com.joshcanfield.tapestry5.monitor.CallTreeRecorder;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import com.joshcanfield.tapestry5.monitor.SlowInvocationLog;
 import org.apache.tapestry5.plastic.MethodAdvice;
 import org.apache.tapestry5.plastic.MethodInvocation;
-import org.javasimon.Stopwatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Method;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+
+import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter.Strategy;
 
 /**
  * MonitorAdvice is used to advise both Service and Component methods. A MonitorAdvice instance is created
  * for each method being monitored.
+ * <p/>
+ * The exception filters of the {@link Monitor} are read once when the advice is built. The first time an exception
+ * type is seen it is matched against the filters and the resulting stats are cached, so each later throw costs a
+ * single map lookup no matter how many filters are configured.
+ * Whatever the filters do with them, timed invocations that throw are also broken down by exception class in the
+ * stats' {@link com.joshcanfield.tapestry5.monitor.ExceptionBreakdown}.
+ * <p/>
+ * With a {@link Monitor#sampleRate()} above one, unsampled invocations go straight to the method. The countdown
+ * that picks them is deliberately not thread safe, losing the odd decrement is cheaper than contending for it.
+ * Every invocation, sampled or not, is counted as an error if it throws and, with the active count on, in flight
+ * while it runs, see {@link MonitorSymbols#ACTIVE}.
+ * <p/>
+ * With a {@link CallTreeRecorder} each timed invocation made during a request is also added to the request's
+ * {@link CallTree}.
+ * <p/>
+ * An async advice is for methods returning a {@link Future}. A timed invocation that returns a future is counted
+ * when the future is handed back but timed until the future is seen to complete, see {@link MonitoredFuture}. A
+ * failed future's cause goes through the exception filters like any other exception.
+ * <p/>
+ * Timed invocations slower than the slow threshold are added to the {@link SlowInvocationLog}; the others pay for
+ * one comparison.
  */
 public class MonitorAdvice implements MethodAdvice {
-    private Stopwatch stopwatch;
-    private Monitor monitor;
-    private Map<String, Stopwatch> exceptionToStopwatchMap;
-    private Logger log = LoggerFactory.getLogger(Monitor.class);
+    private final MonitorStats stats;
+    private final MonitorClock clock;
+    private final CallTreeRecorder callTrees;
+    private final SlowInvocationLog slowLog;
+    private final long slowThreshold;
+    private final boolean async;
+    private final boolean active;
+    private final FilterRule[] rules;
+    private final int sampleRate;
+    private int countdown;
+    private final ConcurrentMap<Class, Route> routes = new ConcurrentHashMap<Class, Route>();
+    private final Logger log = LoggerFactory.getLogger(Monitor.class);
+
+    /**
+     * @param stats               the monitor records into
+     * @param clock               times the invocations
+     * @param monitor             the sample rate and exception filters
+     * @param exceptionToStatsMap the stats of each segregating filter, keyed by the filter's name
+     * @param options             the optional features, read once here
+     */
+    public MonitorAdvice(MonitorStats stats, MonitorClock clock, Monitor monitor,
+                         Map<String, MonitorStats> exceptionToStatsMap, Options options) {
+        this.stats = stats;
+        this.clock = clock;
+        this.callTrees = options.callTrees;
+        this.slowLog = options.slowLog;
+        this.slowThreshold = options.slowLog == null ? Long.MAX_VALUE : options.slowThreshold;
+        this.async = options.async;
+        this.active = options.active;
 
+        sampleRate = monitor.sampleRate();
+        if (sampleRate < 1) throw new IllegalArgumentException("sampleRate must be at least 1: " + sampleRate);
+        countdown = sampleRate;
 
-    public MonitorAdvice(Stopwatch stopwatch, Monitor monitor, Map<String, Stopwatch> exceptionToStopwatchMap) {
-        this.stopwatch = stopwatch;
+        final Monitor.ExceptionFilter[] filters = monitor.exceptions();
+        rules = new FilterRule[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            final Monitor.ExceptionFilter filter = filters[i];
+            final Strategy strategy = filter.strategy();
 
-        this.monitor = monitor;
-        this.exceptionToStopwatchMap = exceptionToStopwatchMap;
+            MonitorStats target = null;
+            if (strategy == Strategy.Segregate) {
+                target = exceptionToStatsMap.get(filter.name());
+                if (target == null) throw new RuntimeException("Unable to determine stopwatch!");
+            } else if (strategy == Strategy.Include) {
+                target = stats;
+            }
+            rules[i] = new FilterRule(filter.value(), target);
+        }
     }
 
     public void advise(MethodInvocation invocation) {
-        final long nanoTime = System.nanoTime();
+        if (active) stats.enter();
+        try {
+            adviseActive(invocation);
+        } catch (RuntimeException e) {
+            // checked exceptions reach here wrapped by rethrow()
+            stats.error();
+            throw e;
+        } finally {
+            if (active) stats.exit();
+        }
+    }
+
+    private void adviseActive(MethodInvocation invocation) {
+        if (sampleRate > 1 && --countdown > 0) {
+            invocation.proceed();
+            if (invocation.didThrowCheckedException()) invocation.rethrow();
+            return;
+        }
+        countdown = sampleRate;
+
+        final CallTree tree = callTrees == null ? null : callTrees.current();
+        final int node = tree == null ? CallTree.NONE : tree.enter(stats);
+
+        final long nanoTime = clock.nanoTime();
         Exception exception = null;
+        long end;
         try {
             invocation.proceed();
         } catch (RuntimeException e) {
             exception = e;
+        } finally {
+            // an Error goes straight through, the tree must still be left at the parent
+            end = clock.nanoTime();
+            if (tree != null) tree.exit(node, end - nanoTime);
         }
-        long ns = System.nanoTime() - nanoTime;
+        final long ns = end - nanoTime;
 
         boolean threwCheckedException = invocation.didThrowCheckedException();
         if (exception == null && threwCheckedException) {
@@ -57,50 +155,182 @@ public class MonitorAdvice implements MethodAdvice {
             exception = invocation.getCheckedException(Exception.class);
         }
 
+        if (exception == null && async) {
+            @SuppressWarnings("unchecked")
+            final Future<Object> future = (Future<Object>) invocation.getReturnValue();
+            if (future != null) {
+                stats.futureHandedBack();
+                invocation.setReturnValue(new MonitoredFuture<Object>(future, this, invocation, nanoTime));
+                return;
+            }
+        }
+
+        record(invocation, ns, end, exception, false);
+        if (exception == null) return;
+
+        if (threwCheckedException) {
+            invocation.rethrow();
+        } else {
+            throw (RuntimeException) exception;
+        }
+    }
+
+    /**
+     * Records a timed invocation, routing a failure through the exception filters.
+     *
+     * @param future true when the invocation handed back a future that has completed, it was counted then
+     */
+    private void record(MethodInvocation invocation, long ns, long end, Exception exception, boolean future) {
+        if (ns > slowThreshold) addSlow(invocation, ns);
+
         if (exception == null) {
-            stopwatch.addTime(ns);
+            if (future) stats.recordFuture(ns, end);
+            else stats.record(ns, end);
             return;
         }
-        Class<? extends Exception> exceptionClass = exception.getClass();
 
-        Filters:
-        for (Monitor.ExceptionFilter filter : monitor.exceptions()) {
+        stats.recordException(exception.getClass(), ns);
+
+        final MonitorStats exceptionStats = route(exception.getClass()).stats;
+        if (exceptionStats == null) return;
+
+        // a future routed to other stats was only counted by these ones
+        if (future && exceptionStats == stats) stats.recordFuture(ns, end);
+        else exceptionStats.record(ns, end);
+    }
+
+    /**
+     * Records an async invocation whose future has completed.
+     *
+     * @param invocation that returned the future
+     * @param start      the clock's time when the invocation started
+     * @param failure    the future's failure, null if it succeeded
+     */
+    void complete(MethodInvocation invocation, long start, Exception failure) {
+        final long end = clock.nanoTime();
+        if (failure != null) stats.error();
+        record(invocation, end - start, end, failure, true);
+    }
+
+    private void addSlow(MethodInvocation invocation, long ns) {
+        final Method method = invocation.getMethod();
+
+        Object[] arguments = null;
+        if (slowLog.isCaptureArguments()) {
+            arguments = new Object[method.getParameterTypes().length];
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = invocation.getParameter(i);
+            }
+        }
+        slowLog.add(stats.getName(), method, ns, arguments);
+    }
+
+    private Route route(Class<? extends Exception> exceptionClass) {
+        Route route = routes.get(exceptionClass);
+        if (route == null) {
+            // Racing threads resolve the same route, last one in wins.
+            route = resolve(exceptionClass);
+            routes.put(exceptionClass, route);
+        }
+        return route;
+    }
 
-            final Class<? extends Exception>[] classes = filter.value();
-            for (Class<? extends Exception> aClass : classes) {
+    /**
+     * Items in the list are evaluated in order and the first match is the only filter applied.
+     */
+    private Route resolve(Class<? extends Exception> exceptionClass) {
+        for (FilterRule rule : rules) {
+            for (Class<? extends Exception> aClass : rule.classes) {
                 if (!aClass.isAssignableFrom(exceptionClass)) {
                     continue;
                 }
 
-                switch (filter.strategy()) {
-                    case Ignore:
-                        log.trace("Ignoring exception: '{}' for stopwatch '{}'",
-                                exceptionClass.getName(), stopwatch.getName()
-                        );
-                        break;
-                    case Include:
-                        log.trace("Including Exception: '{}' in stopwatch '{}'",
-                                exceptionClass.getName(), stopwatch.getName()
-                        );
-                        stopwatch.addTime(ns);
-                        break;
-                    case Segregate:
-                        Stopwatch sw = exceptionToStopwatchMap.get(filter.name());
-                        if (sw == null) throw new RuntimeException("Unable to determine stopwatch!");
-                        sw.addTime(ns);
-                        log.trace("Including Exception: '{}' in stopwatch '{}'",
-                                exceptionClass.getName(), sw.getName()
-                        );
-
-                        break Filters;
+                if (rule.stats == null) {
+                    log.trace("Ignoring exception: '{}' for stopwatch '{}'",
+                            exceptionClass.getName(), stats.getName()
+                    );
+                } else {
+                    log.trace("Including Exception: '{}' in stopwatch '{}'",
+                            exceptionClass.getName(), rule.stats.getName()
+                    );
                 }
+                return new Route(rule.stats);
             }
         }
+        log.trace("No filter matches exception: '{}' for stopwatch '{}'", exceptionClass.getName(), stats.getName());
+        return Route.IGNORE;
+    }
 
-        if (threwCheckedException) {
-            invocation.rethrow();
-        } else {
-            throw (RuntimeException) exception;
+    /**
+     * The features an advice may use beyond timing the invocations. By default there is no call tree, no slow
+     * invocation log, the method is timed until it returns and invocations are counted while they run.
+     */
+    public static final class Options {
+        private CallTreeRecorder callTrees;
+        private SlowInvocationLog slowLog;
+        private long slowThreshold = Long.MAX_VALUE;
+        private boolean async;
+        private boolean active = true;
+
+        /**
+         * @param callTrees records the invocation in its request's tree, null when call trees are off
+         */
+        public Options callTrees(CallTreeRecorder callTrees) {
+            this.callTrees = callTrees;
+            return this;
+        }
+
+        /**
+         * @param slowLog       captures slow invocations, null when none are captured
+         * @param slowThreshold nanoseconds an invocation must take to be captured
+         */
+        public Options slowLog(SlowInvocationLog slowLog, long slowThreshold) {
+            this.slowLog = slowLog;
+            this.slowThreshold = slowThreshold;
+            return this;
+        }
+
+        /**
+         * @param async true when the method returns a {@link Future} and is timed until it completes
+         */
+        public Options async(boolean async) {
+            this.async = async;
+            return this;
+        }
+
+        /**
+         * @param active true when invocations are counted while they run
+         */
+        public Options active(boolean active) {
+            this.active = active;
+            return this;
+        }
+    }
+
+    /**
+     * An {@link Monitor.ExceptionFilter} with its stats resolved. Null stats mean the exception is ignored.
+     */
+    private static final class FilterRule {
+        private final Class<? extends Exception>[] classes;
+        private final MonitorStats stats;
+
+        private FilterRule(Class<? extends Exception>[] classes, MonitorStats stats) {
+            this.classes = classes;
+            this.stats = stats;
+        }
+    }
+
+    /**
+     * Where an exception type is recorded. ConcurrentHashMap doesn't take null values so ignored exceptions
+     * share a route without stats.
+     */
+    private static final class Route {
+        private static final Route IGNORE = new Route(null);
+
+        private final MonitorStats stats;
+
+        private Route(MonitorStats stats) {
+            this.stats = stats;
         }
     }
 }
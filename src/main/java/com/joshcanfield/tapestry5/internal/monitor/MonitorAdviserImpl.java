@@ -16,49 +16,123 @@ package com.joshcanfield.tapestry5.internal.monitor;
 
 import com.joshcanfield.tapestry5.annotations.Monitor;
 import com.joshcanfield.tapestry5.monitor.MonitorAdviser;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
 import com.joshcanfield.tapestry5.monitor.MonitorNameGenerator;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import com.joshcanfield.tapestry5.monitor.RenderMonitorNameGenerator;
 import org.javasimon.jmx.StopwatchMXBeanFactory;
+import org.apache.tapestry5.annotations.AfterRender;
+import org.apache.tapestry5.annotations.AfterRenderBody;
+import org.apache.tapestry5.annotations.AfterRenderTemplate;
+import org.apache.tapestry5.annotations.BeforeRenderBody;
+import org.apache.tapestry5.annotations.BeforeRenderTemplate;
+import org.apache.tapestry5.annotations.BeginRender;
+import org.apache.tapestry5.annotations.CleanupRender;
+import org.apache.tapestry5.annotations.SetupRender;
 import org.apache.tapestry5.ioc.MethodAdviceReceiver;
+import org.apache.tapestry5.ioc.ObjectCreator;
 import org.apache.tapestry5.ioc.internal.util.InheritanceSearch;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
 import org.apache.tapestry5.jmx.MBeanSupport;
-import org.apache.tapestry5.plastic.MethodParameter;
+import org.apache.tapestry5.model.ComponentModel;
+import org.apache.tapestry5.model.MutableComponentModel;
+import org.apache.tapestry5.plastic.MethodAdvice;
+import org.apache.tapestry5.plastic.MethodDescription;
+import org.apache.tapestry5.plastic.MethodInvocation;
 import org.apache.tapestry5.plastic.PlasticClass;
 import org.apache.tapestry5.plastic.PlasticMethod;
-import org.javasimon.SimonManager;
-import org.javasimon.Stopwatch;
+import org.apache.tapestry5.services.TransformConstants;
 import org.slf4j.Logger;
 
 import javax.inject.Named;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 
 /**
- *
+ * Render phases are timed in components from {@link MonitorSymbols#RENDER_PACKAGES}. Each phase the component
+ * handles becomes a monitor named after the phase's annotation, such as "BeginRender", that times the component's
+ * own phase methods; "Render" times the whole render from SetupRender to CleanupRender, see {@link RenderTimer}.
+ * The monitors belong to the class of the component rendering, see {@link RenderStats}, so a page extending a
+ * monitored base class is timed as itself. Only the phases a subclass adds are advised on the subclass, the parent's
+ * advice already wraps the rest through the super calls. Monitors are named by the
+ * {@link RenderMonitorNameGenerator} and created when their class first renders, whatever
+ * {@link MonitorSymbols#LAZY_REGISTRATION} says.
  */
 public class MonitorAdviserImpl implements MonitorAdviser {
+
+    /**
+     * Render phase monitors are configured like a plain @Monitor.
+     */
+    private interface RenderPhase {
+        @Monitor
+        void phase();
+    }
+
+    private static final Map<Class<? extends Annotation>, MethodDescription> RENDER_PHASES =
+            new LinkedHashMap<Class<? extends Annotation>, MethodDescription>();
+
+    static {
+        RENDER_PHASES.put(SetupRender.class, TransformConstants.SETUP_RENDER_DESCRIPTION);
+        RENDER_PHASES.put(BeginRender.class, TransformConstants.BEGIN_RENDER_DESCRIPTION);
+        RENDER_PHASES.put(BeforeRenderTemplate.class, TransformConstants.BEFORE_RENDER_TEMPLATE_DESCRIPTION);
+        RENDER_PHASES.put(BeforeRenderBody.class, TransformConstants.BEFORE_RENDER_BODY_DESCRIPTION);
+        RENDER_PHASES.put(AfterRenderBody.class, TransformConstants.AFTER_RENDER_BODY_DESCRIPTION);
+        RENDER_PHASES.put(AfterRenderTemplate.class, TransformConstants.AFTER_RENDER_TEMPLATE_DESCRIPTION);
+        RENDER_PHASES.put(AfterRender.class, TransformConstants.AFTER_RENDER_DESCRIPTION);
+        RENDER_PHASES.put(CleanupRender.class, TransformConstants.CLEANUP_RENDER_DESCRIPTION);
+    }
+
     private final Logger logger;
     private final MonitorNameGenerator monitorNameGenerator;
+    private final RenderMonitorNameGenerator renderMonitorNameGenerator;
     // TODO : Refactor into local interface
     private final MBeanSupport mBeanSupport;
+    private final MonitorStatsSource monitorStatsSource;
+    private final MonitorClockSource monitorClockSource;
+    private final MonitorAdviserSettings settings;
+    private final MonitorIndex index;
+    private final RenderTimer renderTimer;
 
     public MonitorAdviserImpl(
             Logger logger,
             @Named("MonitorNameGenerator") MonitorNameGenerator monitorNameGenerator,
-            @Named("MBeanSupport") MBeanSupport mBeanSupport) {
+            @Named("RenderMonitorNameGenerator") RenderMonitorNameGenerator renderMonitorNameGenerator,
+            @Named("MBeanSupport") MBeanSupport mBeanSupport,
+            @Named("MonitorStatsSource") MonitorStatsSource monitorStatsSource,
+            @Named("MonitorClockSource") MonitorClockSource monitorClockSource,
+            @Named("MonitorAdviserSettings") MonitorAdviserSettings settings,
+            @Named("PerthreadManager") PerthreadManager perthreadManager) {
         this.logger = logger;
         this.monitorNameGenerator = monitorNameGenerator;
+        this.renderMonitorNameGenerator = renderMonitorNameGenerator;
         this.mBeanSupport = mBeanSupport;
+        this.monitorStatsSource = monitorStatsSource;
+        this.monitorClockSource = monitorClockSource;
+        this.settings = settings;
+        this.index = loadIndex(logger);
+        this.renderTimer = new RenderTimer(perthreadManager, monitorClockSource);
     }
 
     /**
      * Locate and advise the monitored methods of this service.
      * <p/>
-     * This will search the interface hierarchy for methods that have the @Monitor annotation.
+     * This will search the interface hierarchy for methods that have the @Monitor annotation. When a
+     * {@link MonitorIndex} was built only the indexed methods of the types it {@link MonitorIndex#covers covers}
+     * are checked and covered types without any, such as an interface no indexed class monitors, are skipped.
      *
      * @param receiver of the advice
      */
@@ -66,8 +140,14 @@ public class MonitorAdviserImpl implements MonitorAdviser {
         final Class owningClass = receiver.getInterface();
         for (Class o : new InheritanceSearch(owningClass)) {
             if (o.equals(Object.class)) continue;
+
+            final boolean indexed = index != null && index.covers(owningClass, o);
+            if (indexed && !index.isMonitored(o)) continue;
+
             final Method[] methods = o.getDeclaredMethods();
             for (Method method : methods) {
+                if (indexed && !index.isMonitored(o, method)) continue;
+
                 final Monitor monitor = receiver.getMethodAnnotation(method, Monitor.class);
                 if (monitor == null) continue;
                 logger.trace("Monitoring method: {}.{}", owningClass.getSimpleName(), method.getName());
@@ -84,63 +164,183 @@ public class MonitorAdviserImpl implements MonitorAdviser {
      */
     public void monitor(PlasticClass transformation) {
         final List<PlasticMethod> methods = transformation.getMethodsWithAnnotation(Monitor.class);
+        if (methods.isEmpty()) return;
+
+        final Class<?> aClass = componentClass(transformation);
+
+        final Map<String, Method> declared = new HashMap<String, Method>();
+        for (Method m : aClass.getDeclaredMethods()) {
+            declared.put(MonitorIndex.signature(m.getName(), m.getParameterTypes()), m);
+        }
 
         for (PlasticMethod monitoredMethod : methods) {
-            final Class<?> aClass;
-            try {
-                aClass = Class.forName(transformation.getClassName());
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException("Class should be available.", e);
+            final Method method = declared.get(signature(monitoredMethod.getDescription()));
+
+            if (method != null) {
+                logger.trace("Monitoring method: {}.{}", aClass.getSimpleName(), method.getName());
+
+                advise(method.getAnnotation(Monitor.class), aClass, method, monitoredMethod);
             }
-            Method method = null;
+        }
+    }
+
+    public void monitorRender(PlasticClass transformation, MutableComponentModel model) {
+        if (!settings.isRenderMonitored(transformation.getClassName())) return;
+
+        // the phases handled before SetupRender and CleanupRender are added for the whole render
+        final Set<Class> handled = new HashSet<Class>(model.getHandledRenderPhases());
+        // a monitored parent already times its phases and, from its SetupRender to CleanupRender, the whole render,
+        // in the stats of whichever class is rendering
+        final ComponentModel parent = renderMonitoredParent(model);
+        if (parent != null) handled.removeAll(parent.getHandledRenderPhases());
 
-            METHODS:
-            for (Method m : aClass.getDeclaredMethods()) {
-                if (!m.getName().equals(monitoredMethod.getDescription().methodName))
-                    continue; // move on to the next possible match
+        for (Map.Entry<Class<? extends Annotation>, MethodDescription> phase : RENDER_PHASES.entrySet()) {
+            if (!handled.contains(phase.getKey())) continue;
 
-                final Class<?>[] types = m.getParameterTypes();
-                final List<MethodParameter> typeNames = monitoredMethod.getParameters();
+            final RenderStats stats = renderStats(phase.getKey().getSimpleName());
+            transformation.introduceMethod(phase.getValue()).addAdvice(createPhaseAdvice(stats));
+        }
+        if (parent != null) return;
+
+        final RenderStats stats = renderStats("Render");
+        model.addRenderPhase(SetupRender.class);
+        model.addRenderPhase(CleanupRender.class);
+        transformation.introduceMethod(TransformConstants.SETUP_RENDER_DESCRIPTION)
+                .addAdvice(renderTimer.setup(stats));
+        transformation.introduceMethod(TransformConstants.CLEANUP_RENDER_DESCRIPTION)
+                .addAdvice(renderTimer.cleanup(stats));
+    }
+
+    /**
+     * The closest ancestor whose render is timed, null if there isn't one.
+     */
+    private ComponentModel renderMonitoredParent(ComponentModel model) {
+        for (ComponentModel parent = model.getParentModel(); parent != null; parent = parent.getParentModel()) {
+            if (settings.isRenderMonitored(parent.getComponentClassName())) return parent;
+        }
+        return null;
+    }
 
-                if (types.length != typeNames.size()) continue; // move on to the next possible match
+    private static Class<?> componentClass(PlasticClass transformation) {
+        try {
+            return Class.forName(transformation.getClassName());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Class should be available.", e);
+        }
+    }
 
-                for (int i = 0, typeNamesLength = typeNames.size(); i < typeNamesLength; i++) {
-                    if (!types[i].getName().equals(typeNames.get(i).getType()))
-                        continue METHODS; // move on to the next possible match
+    /**
+     * Advises the phase with a {@link MonitorAdvice} for each class of component rendering it.
+     */
+    private MethodAdvice createPhaseAdvice(final RenderStats renderStats) {
+        return new MethodAdvice() {
+            private final ConcurrentMap<MonitorStats, MethodAdvice> advice =
+                    new ConcurrentHashMap<MonitorStats, MethodAdvice>();
+
+            public void advise(MethodInvocation invocation) {
+                final MonitorStats stats = renderStats.get(invocation.getInstance());
+                MethodAdvice statsAdvice = advice.get(stats);
+                if (statsAdvice == null) {
+                    // racing threads build the same advice over the same stats, last one in wins
+                    statsAdvice = createPhaseAdvice(stats);
+                    advice.put(stats, statsAdvice);
                 }
-                // we have our method!
-                method = m;
-                break;
+                statsAdvice.advise(invocation);
             }
+        };
+    }
 
-            if (method != null) {
-                logger.trace("Monitoring method: {}.{}", aClass.getSimpleName(), method.getName());
+    private MethodAdvice createPhaseAdvice(MonitorStats stats) {
+        final Monitor monitor;
+        try {
+            monitor = RenderPhase.class.getMethod("phase").getAnnotation(Monitor.class);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+        return new MonitorAdvice(stats, monitorClockSource.getClock(Monitor.Clock.Default), monitor,
+                Collections.<String, MonitorStats>emptyMap(), new MonitorAdvice.Options()
+                .callTrees(monitorStatsSource.getCallTreeRecorder())
+                .slowLog(monitorStatsSource.getSlowInvocationLog(), monitorStatsSource.getSlowThreshold())
+                .active(settings.isActive()));
+    }
 
-                advise(method.getAnnotation(Monitor.class), aClass, method, monitoredMethod);
+    private RenderStats renderStats(final String phase) {
+        return new RenderStats() {
+            protected MonitorStats createStats(Class<?> componentClass) {
+                final MonitorStats stats = monitorStatsSource.getStats(
+                        renderMonitorNameGenerator.getRenderMonitorName(componentClass, phase));
+                register(stats, renderMonitorNameGenerator.getRenderJmxObjectName(componentClass, phase));
+                return stats;
             }
+        };
+    }
+
+    private static String signature(MethodDescription description) {
+        final StringBuilder builder = new StringBuilder(description.methodName).append('(');
+        for (int i = 0; i < description.argumentTypes.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(description.argumentTypes[i]);
         }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * The index is read when the adviser is built, as the first service is advised.
+     *
+     * @return the index, null if there isn't one
+     */
+    private static MonitorIndex loadIndex(Logger logger) {
+        // SymbolSource is advised too, so the switch can only be a system property
+        if ("false".equals(System.getProperty(MonitorSymbols.INDEX))) {
+            logger.info("{} is false, searching every service for monitored methods", MonitorSymbols.INDEX);
+            return null;
+        }
+
+        final MonitorIndex index = MonitorIndex.load(Thread.currentThread().getContextClassLoader());
+        if (index.isAvailable()) {
+            logger.info("Finding monitored methods with the {} in {} locations, classes from elsewhere "
+                    + "are searched", MonitorIndex.RESOURCE, index.getLocationCount());
+            return index;
+        }
+        logger.debug("No {} found, searching every service for monitored methods", MonitorIndex.RESOURCE);
+        return null;
     }
 
     private void advise(Monitor monitor, Class<?> owningClass, Method method, MethodAdviceReceiver receiver) {
-        MonitorAdvice advice = createAdvice(monitor, owningClass, method);
+        MethodAdvice advice = createAdvice(monitor, owningClass, method);
 
         receiver.adviseMethod(method, advice);
     }
 
     private void advise(Monitor monitor, Class<?> owningClass, Method method, PlasticMethod monitoredMethod) {
-        MonitorAdvice advice = createAdvice(monitor, owningClass, method);
+        MethodAdvice advice = createAdvice(monitor, owningClass, method);
 
         monitoredMethod.addAdvice(advice);
     }
 
-    private MonitorAdvice createAdvice(Monitor monitor, Class<?> owningClass, Method method) {
+    /**
+     * With {@link MonitorSymbols#LAZY_REGISTRATION} the stats and MBeans are created by the first invocation.
+     */
+    private MethodAdvice createAdvice(final Monitor monitor, final Class<?> owningClass, final Method method) {
+        if (!settings.isLazyRegistration()) return createMonitorAdvice(monitor, owningClass, method);
+
+        return new LazyMonitorAdvice(new ObjectCreator<MethodAdvice>() {
+            public MethodAdvice createObject() {
+                return createMonitorAdvice(monitor, owningClass, method);
+            }
+        });
+    }
+
+
+    private MonitorAdvice createMonitorAdvice(Monitor monitor, Class<?> owningClass, Method method) {
 
         final String name = monitorNameGenerator.getMonitorName(monitor, owningClass, method);
-        final Stopwatch stopwatch = SimonManager.getStopwatch(name);
+        final MonitorStats stats = monitorStatsSource.getStats(name);
+        setSampleRate(stats, monitor.sampleRate());
 
-        // TODO: Consider making JMX optional, add JSON endpoint
+        // TODO: Consider making JMX optional
         final ObjectName objectName = monitorNameGenerator.getJmxObjectName(monitor, owningClass, method);
-        mBeanSupport.register(StopwatchMXBeanFactory.create(stopwatch), objectName);
+        register(stats, objectName);
 
         // Add exception stopwatch/mxbeans
 
@@ -152,24 +352,69 @@ public class MonitorAdviserImpl implements MonitorAdviser {
             names.add(suffix);
         }
 
-        Map<String, Stopwatch> exceptionToStopwatchMap = new HashMap<String, Stopwatch>();
+        Map<String, MonitorStats> exceptionToStatsMap = new HashMap<String, MonitorStats>();
         for (String exceptionName : names) {
 
-            Stopwatch exceptionStopwatch = SimonManager.getStopwatch(name + "." + exceptionName);
-            mBeanSupport.register(StopwatchMXBeanFactory.create(stopwatch), getExceptionObjectName(objectName, exceptionName));
+            MonitorStats exceptionStats = monitorStatsSource.getExceptionStats(name + "." + exceptionName);
+            setSampleRate(exceptionStats, monitor.sampleRate());
+            registerMonitor(exceptionStats, getObjectName(objectName, "exception", exceptionName));
 
-            exceptionToStopwatchMap.put(exceptionName, exceptionStopwatch);
+            exceptionToStatsMap.put(exceptionName, exceptionStats);
         }
 
-        MonitorAdvice advice = new MonitorAdvice(stopwatch, monitor, exceptionToStopwatchMap);
+        final long slowThreshold = monitor.slowThreshold().length() > 0
+                ? MonitorStatsSourceImpl.parseSlowThreshold(monitor.slowThreshold())
+                : monitorStatsSource.getSlowThreshold();
+
+        // methods handing back a Future are timed until it completes
+        final boolean async = Future.class.equals(method.getReturnType());
+        if (!async && Future.class.isAssignableFrom(method.getReturnType())) {
+            logger.debug("Monitor '{}' returns a {} rather than a Future, it is timed until it returns",
+                    name, method.getReturnType().getName());
+        }
 
+        MonitorAdvice advice = new MonitorAdvice(stats, monitorClockSource.getClock(monitor.clock()), monitor,
+                exceptionToStatsMap, new MonitorAdvice.Options()
+                .callTrees(monitorStatsSource.getCallTreeRecorder())
+                .slowLog(monitorStatsSource.getSlowInvocationLog(), slowThreshold)
+                .async(async)
+                .active(settings.isActive()));
 
         return advice;
     }
 
-    private ObjectName getExceptionObjectName(ObjectName objectName, String s) {
+    /**
+     * Monitors sharing a name share stats, the counts can only be scaled correctly if they sample at the same rate.
+     */
+    private void setSampleRate(MonitorStats stats, int sampleRate) {
+        if (stats.getSampleRate() != 1 && stats.getSampleRate() != sampleRate) {
+            logger.warn("Monitor '{}' is shared by methods with different sample rates, counts will be scaled by {}",
+                    stats.getName(), sampleRate);
+        }
+        stats.setSampleRate(sampleRate);
+    }
+
+    /**
+     * Registers the monitor's MBean and one for each of its windows, named with a "window" key.
+     */
+    private void register(MonitorStats stats, ObjectName objectName) {
+        registerMonitor(stats, objectName);
+        if (stats.getWindow() == null) return;
+
+        for (Map.Entry<String, Integer> window : monitorStatsSource.getWindows().entrySet()) {
+            mBeanSupport.register(new MonitorWindowMXBeanImpl(stats, window.getValue()),
+                    getObjectName(objectName, "window", window.getKey()));
+        }
+    }
+
+    private void registerMonitor(MonitorStats stats, ObjectName objectName) {
+        stats.setObjectName(objectName);
+        mBeanSupport.register(StopwatchMXBeanFactory.create(stats), objectName);
+    }
+
+    private ObjectName getObjectName(ObjectName objectName, String key, String value) {
         try {
-            return new ObjectName(objectName.getCanonicalName() + ",exception=" + s);
+            return new ObjectName(objectName.getCanonicalName() + "," + key + "=" + value);
         } catch (MalformedObjectNameException e) {
             throw new RuntimeException(e);
         }
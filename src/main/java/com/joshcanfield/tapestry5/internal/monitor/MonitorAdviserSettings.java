@@ -0,0 +1,41 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+/**
+ * The symbols {@link MonitorAdviserImpl} reads. They are a service of their own because the adviser is built while
+ * the SymbolSource is, the SymbolSource being advised too, and the symbols are only read once something is
+ * monitored.
+ */
+public interface MonitorAdviserSettings {
+
+    /**
+     * @return true to create the stats and MBeans of a monitor when it is first invoked
+     * @see com.joshcanfield.tapestry5.monitor.MonitorSymbols#LAZY_REGISTRATION
+     */
+    boolean isLazyRegistration();
+
+    /**
+     * @return true to count invocations while they run
+     * @see com.joshcanfield.tapestry5.monitor.MonitorSymbols#ACTIVE
+     */
+    boolean isActive();
+
+    /**
+     * @return true if the component class's render phases are timed
+     * @see com.joshcanfield.tapestry5.monitor.MonitorSymbols#RENDER_PACKAGES
+     */
+    boolean isRenderMonitored(String className);
+}
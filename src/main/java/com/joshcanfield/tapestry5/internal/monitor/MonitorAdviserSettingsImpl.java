@@ -0,0 +1,59 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MonitorAdviserSettingsImpl implements MonitorAdviserSettings {
+    private final boolean lazyRegistration;
+    private final boolean active;
+    private final String[] renderPackages;
+
+    public MonitorAdviserSettingsImpl(
+            @Symbol(MonitorSymbols.LAZY_REGISTRATION) boolean lazyRegistration,
+            @Symbol(MonitorSymbols.ACTIVE) boolean active,
+            @Symbol(MonitorSymbols.RENDER_PACKAGES) String renderPackages) {
+        this.lazyRegistration = lazyRegistration;
+        this.active = active;
+
+        final List<String> packages = new ArrayList<String>();
+        for (String name : renderPackages.split(",")) {
+            if (name.trim().length() > 0) packages.add(name.trim());
+        }
+        this.renderPackages = packages.toArray(new String[packages.size()]);
+    }
+
+    public boolean isLazyRegistration() {
+        return lazyRegistration;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * "*" matches every class, otherwise the class must be in one of the packages or below it.
+     */
+    public boolean isRenderMonitored(String className) {
+        for (String renderPackage : renderPackages) {
+            if (renderPackage.equals("*") || className.startsWith(renderPackage + ".")) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,124 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.CallTree;
+import com.joshcanfield.tapestry5.monitor.CallTreeListener;
+import com.joshcanfield.tapestry5.monitor.CallTreeRecorder;
+import org.apache.tapestry5.services.HttpServletRequestFilter;
+import org.apache.tapestry5.services.HttpServletRequestHandler;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Records the {@link CallTree} of each request and hands it to the {@link CallTreeListener} when the request is
+ * complete.
+ * <p/>
+ * With a header name the tree is also sent as a response header. Headers can't be added once the response is
+ * committed, so the header holds the tree as it was when the response started to be written; invocations made
+ * while the response is written, and the request's own total, aren't in it.
+ */
+public class MonitorCallTreeFilter implements HttpServletRequestFilter {
+    private final CallTreeRecorder recorder;
+    private final String header;
+    private final CallTreeListener listener;
+
+    /**
+     * @param recorder of the trees
+     * @param header   name of the response header, "" for none
+     * @param listener told about every tree
+     */
+    public MonitorCallTreeFilter(CallTreeRecorder recorder, String header, CallTreeListener listener) {
+        this.recorder = recorder;
+        this.header = header;
+        this.listener = listener;
+    }
+
+    public boolean service(HttpServletRequest request, HttpServletResponse response, HttpServletRequestHandler handler)
+            throws IOException {
+        final String pathInfo = request.getPathInfo();
+        final CallTree tree = recorder.begin(pathInfo == null ? request.getServletPath()
+                : request.getServletPath() + pathInfo);
+        // already recording, this is a forward or include
+        if (tree == null) return handler.service(request, response);
+
+        try {
+            return handler.service(request, header.length() == 0 ? response : new TreeHeaderResponse(response, tree));
+        } finally {
+            recorder.end();
+            listener.requestComplete(tree);
+        }
+    }
+
+    /**
+     * Adds the header just before anything that would commit the response.
+     */
+    private final class TreeHeaderResponse extends HttpServletResponseWrapper {
+        private final CallTree tree;
+        private boolean added;
+
+        private TreeHeaderResponse(HttpServletResponse response, CallTree tree) {
+            super(response);
+            this.tree = tree;
+        }
+
+        private void addTreeHeader() {
+            if (added) return;
+            added = true;
+            if (!isCommitted()) setHeader(header, tree.toString());
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTreeHeader();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTreeHeader();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTreeHeader();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addTreeHeader();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addTreeHeader();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addTreeHeader();
+            super.sendError(sc, msg);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.apache.tapestry5.ioc.util.TimeInterval;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out a shared {@link PreciseClock} or {@link CoarseClock}. The coarse clock's thread is only started once a
+ * monitor asks for it and is stopped when the registry shuts down.
+ */
+public class MonitorClockSourceImpl implements MonitorClockSource {
+    private final MonitorClock precise = new PreciseClock();
+    private final CoarseClock coarse;
+    private final Monitor.Clock defaultClock;
+
+    public MonitorClockSourceImpl(
+            @Symbol(MonitorSymbols.CLOCK) String clock,
+            @Symbol(MonitorSymbols.CLOCK_RESOLUTION) String resolution,
+            RegistryShutdownHub shutdownHub) {
+        if (MonitorSymbols.CLOCK_PRECISE.equals(clock)) {
+            defaultClock = Monitor.Clock.Precise;
+        } else if (MonitorSymbols.CLOCK_COARSE.equals(clock)) {
+            defaultClock = Monitor.Clock.Coarse;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown %s '%s', expected '%s' or '%s'",
+                    MonitorSymbols.CLOCK, clock, MonitorSymbols.CLOCK_PRECISE, MonitorSymbols.CLOCK_COARSE));
+        }
+
+        coarse = new CoarseClock(TimeUnit.MILLISECONDS.toNanos(new TimeInterval(resolution).milliseconds()));
+        shutdownHub.addRegistryShutdownListener(new Runnable() {
+            public void run() {
+                coarse.stop();
+            }
+        });
+    }
+
+    public MonitorClock getClock(Monitor.Clock clock) {
+        if (clock == Monitor.Clock.Default) clock = defaultClock;
+
+        if (clock == Monitor.Clock.Coarse) {
+            coarse.start();
+            return coarse;
+        }
+        return precise;
+    }
+}
@@ -0,0 +1,56 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.services.HttpServletRequestFilter;
+import org.apache.tapestry5.services.HttpServletRequestHandler;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * A filter that answers requests for a single path and passes everything else on.
+ */
+public abstract class MonitorEndpointFilter implements HttpServletRequestFilter {
+    private final String path;
+
+    protected MonitorEndpointFilter(String path) {
+        this.path = path;
+    }
+
+    public boolean service(HttpServletRequest request, HttpServletResponse response, HttpServletRequestHandler handler)
+            throws IOException {
+        if (!isEndpointPath(request)) return handler.service(request, response);
+
+        response.setHeader("Cache-Control", "no-cache");
+        write(request, response);
+        return true;
+    }
+
+    /**
+     * Writes the response for the endpoint.
+     */
+    protected abstract void write(HttpServletRequest request, HttpServletResponse response) throws IOException;
+
+    private boolean isEndpointPath(HttpServletRequest request) {
+        final String servletPath = request.getServletPath();
+        final String pathInfo = request.getPathInfo();
+        if (pathInfo == null) return path.equals(servletPath);
+
+        return path.length() == servletPath.length() + pathInfo.length()
+                && path.startsWith(servletPath) && path.endsWith(pathInfo);
+    }
+}
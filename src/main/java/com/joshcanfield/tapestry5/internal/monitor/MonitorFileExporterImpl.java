@@ -0,0 +1,234 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorFile;
+import com.joshcanfield.tapestry5.monitor.MonitorFileExporter;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import org.apache.tapestry5.ioc.annotations.Local;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.javasimon.Stopwatch;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.joshcanfield.tapestry5.monitor.MonitorFile.*;
+
+/**
+ * Copies each monitor's stats into its entry in the mapped file. Monitors get entries in the order they are first
+ * written and keep them; monitors past the file's capacity are left out.
+ * <p/>
+ * The stats are copied from the monitors' own counters on the PeriodicExecutor's thread rather than recorded into
+ * the file by each invocation. Memory-mapped buffers have no atomic updates, so request threads writing into them
+ * directly would lose counts to each other. Between copies the file is up to one
+ * {@link MonitorSymbols#FILE_INTERVAL} behind. Invocations still in the recording buffers are flushed into the stats
+ * before each copy. The file is flushed to disk when the registry shuts down.
+ */
+public class MonitorFileExporterImpl implements MonitorFileExporter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Logger logger;
+    private final File file;
+    private final int capacity;
+    private final MonitorStatsSource monitorStatsSource;
+
+    // the rest is only touched while holding the lock on this
+    private final Map<MonitorStats, Integer> entries = new HashMap<MonitorStats, Integer>();
+    private final long[] percentiles = new long[MAX_PERCENTILES];
+    private MappedByteBuffer buffer;
+    private long sequence;
+    private boolean failing;
+    private boolean full;
+
+    // written then read back by barrier(), see there
+    private volatile long fence;
+
+    public MonitorFileExporterImpl(
+            Logger logger,
+            @Symbol(MonitorSymbols.FILE_PATH) String path,
+            @Symbol(MonitorSymbols.FILE_CAPACITY) int capacity,
+            @Local MonitorStatsSource monitorStatsSource,
+            RegistryShutdownHub shutdownHub) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive: %d",
+                    MonitorSymbols.FILE_CAPACITY, capacity));
+        }
+        this.logger = logger;
+        this.file = new File(path);
+        this.capacity = capacity;
+        this.monitorStatsSource = monitorStatsSource;
+
+        shutdownHub.addRegistryShutdownListener(new Runnable() {
+            public void run() {
+                synchronized (MonitorFileExporterImpl.this) {
+                    if (buffer == null) return;
+                    write();
+                    buffer.force();
+                }
+            }
+        });
+    }
+
+    public synchronized void write() {
+        if (!open()) return;
+        monitorStatsSource.flush();
+
+        buffer.putLong(SEQUENCE, ++sequence);
+        barrier();
+
+        for (MonitorStats stats : monitorStatsSource.getAllStats()) {
+            final int base = entry(stats);
+            if (base >= 0) write(base, stats);
+        }
+        buffer.putLong(UPDATED, System.currentTimeMillis());
+
+        barrier();
+        buffer.putLong(SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Keeps the buffer stores before it from being reordered with those after it, so a reader never sees the values
+     * change while the sequence is even. A volatile write on its own only keeps earlier stores above it, later ones
+     * can still move up past it. Reading the volatile back keeps the later stores below the read, and the write and
+     * read of the same volatile stay in order, which together make a full fence between the two sides.
+     */
+    private void barrier() {
+        fence = sequence;
+        sequence = fence;
+    }
+
+    private void write(int base, MonitorStats stats) {
+        final Stopwatch stopwatch = stats.getStopwatch();
+        final long count = stopwatch.getCounter();
+
+        buffer.putLong(base + COUNT, count);
+        buffer.putLong(base + TOTAL, stopwatch.getTotal());
+        buffer.putLong(base + MIN, count == 0 ? 0 : stopwatch.getMin());
+        buffer.putLong(base + MAX, stopwatch.getMax());
+        buffer.putLong(base + INVOCATION_COUNT, stats.getInvocationCount());
+        buffer.putLong(base + INVOCATION_TOTAL, stats.getInvocationTotal());
+        buffer.putLong(base + ACTIVE, stats.getActive());
+        buffer.putLong(base + MAX_ACTIVE, stats.getMaxActive());
+        buffer.putLong(base + ERRORS, stats.getErrorCount());
+
+        final long[] values = stats.getPercentileCount() > MAX_PERCENTILES
+                ? new long[stats.getPercentileCount()] : percentiles;
+        stats.getPercentileValues(values);
+        for (int i = 0; i < Math.min(stats.getPercentileCount(), MAX_PERCENTILES); i++) {
+            buffer.putLong(base + PERCENTILE_VALUES + i * 8, values[i]);
+        }
+    }
+
+    /**
+     * The offset of the monitor's entry, assigning the next free one the first time. -1 when the file is full.
+     */
+    private int entry(MonitorStats stats) {
+        final Integer existing = entries.get(stats);
+        if (existing != null) return existing;
+
+        if (entries.size() == capacity) {
+            if (!full) {
+                logger.warn("{} has room for {} monitors, '{}' and any others are left out. Raise {} to include them.",
+                        new Object[]{file, capacity, stats.getName(), MonitorSymbols.FILE_CAPACITY});
+                full = true;
+            }
+            return -1;
+        }
+
+        if (entries.isEmpty()) writePercentiles(stats);
+
+        final int base = HEADER_SIZE + entries.size() * ENTRY_SIZE;
+        byte[] name = stats.getName().getBytes(UTF8);
+        if (name.length > NAME_SIZE - 2) name = truncate(stats.getName());
+        buffer.putShort(base, (short) name.length);
+        for (int i = 0; i < name.length; i++) {
+            buffer.put(base + 2 + i, name[i]);
+        }
+
+        entries.put(stats, base);
+        buffer.putInt(SIZE, entries.size());
+        return base;
+    }
+
+    /**
+     * Every monitor reports the same percentiles, the first one's are written to the header.
+     */
+    private void writePercentiles(MonitorStats stats) {
+        final int count = Math.min(stats.getPercentileCount(), MAX_PERCENTILES);
+        buffer.putInt(PERCENTILE_COUNT, count);
+        for (int i = 0; i < count; i++) {
+            buffer.putDouble(PERCENTILES + i * 8, Double.parseDouble(stats.getPercentileName(i).substring(1)));
+        }
+    }
+
+    /**
+     * Cuts a long name down on a character boundary so it still decodes.
+     */
+    private static byte[] truncate(String name) {
+        int length = name.length();
+        byte[] bytes;
+        do {
+            bytes = name.substring(0, --length).getBytes(UTF8);
+        } while (bytes.length > NAME_SIZE - 2);
+        return bytes;
+    }
+
+    /**
+     * Maps the file the first time it's written, starting it empty. A file that can't be mapped is tried again on
+     * the next write, the failure is logged once.
+     */
+    private boolean open() {
+        if (buffer != null) return true;
+
+        try {
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create " + parent);
+            }
+
+            final int size = MonitorFile.fileSize(capacity);
+            final RandomAccessFile access = new RandomAccessFile(file, "rw");
+            try {
+                access.setLength(0);
+                access.setLength(size);
+                buffer = access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } finally {
+                // the mapping stays valid once the file is closed
+                access.close();
+            }
+        } catch (IOException e) {
+            if (!failing) logger.warn("Unable to map monitor file " + file, e);
+            failing = true;
+            return false;
+        }
+
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(CAPACITY, capacity);
+        failing = false;
+        logger.info("Writing monitors to {}", file);
+        return true;
+    }
+}
@@ -0,0 +1,186 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The monitored methods listed by {@link MonitorProcessor} when the application was compiled.
+ * <p/>
+ * Each line of an index names a class, one of its @Monitor methods and the types the class extends or implements,
+ * separated by tabs. A method is indexed against its own class and every supertype, so a service interface finds
+ * the methods its implementation monitors. Every index on the classpath is read.
+ * <p/>
+ * An index only speaks for the classes compiled alongside it. Classes from a jar or directory without an index of
+ * its own, such as a library or classes compiled with -proc:none, are {@link #isIndexed(Class) not indexed} and
+ * have to be searched, see {@link #covers(Class, Class)}.
+ */
+public class MonitorIndex {
+
+    public static final String RESOURCE = "META-INF/tapestry-monitoring/monitored-methods";
+
+    private final Map<String, Set<String>> signatures = new HashMap<String, Set<String>>();
+    private final Set<String> locations = new HashSet<String>();
+    private final boolean available;
+
+    /**
+     * @param loader to read the indexes from
+     * @return the combined index, {@link #isAvailable() unavailable} if no index was found
+     */
+    public static MonitorIndex load(ClassLoader loader) {
+        try {
+            final MonitorIndex index = new MonitorIndex(loader.getResources(RESOURCE).hasMoreElements());
+            for (Enumeration<URL> resources = loader.getResources(RESOURCE); resources.hasMoreElements(); ) {
+                final URL url = resources.nextElement();
+                index.locations.add(location(url));
+                index.read(url);
+            }
+            return index;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read " + RESOURCE, e);
+        }
+    }
+
+    public MonitorIndex(boolean available) {
+        this.available = available;
+    }
+
+    private void read(URL url) throws IOException {
+        final InputStream stream = url.openStream();
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                add(line);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    void add(String line) {
+        if (line.length() == 0 || line.startsWith("#")) return;
+
+        final String[] fields = line.split("\t");
+        for (int i = 0; i < fields.length; i++) {
+            if (i == 1) continue;
+
+            Set<String> methods = signatures.get(fields[i]);
+            if (methods == null) {
+                methods = new HashSet<String>();
+                signatures.put(fields[i], methods);
+            }
+            methods.add(fields[1]);
+        }
+    }
+
+    /**
+     * @return false when no index was found and every class has to be searched
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * @return the number of jars and directories with an index
+     */
+    public int getLocationCount() {
+        return locations.size();
+    }
+
+    /**
+     * @return true if the type was loaded from a jar or directory with an index, so that the index knows whether
+     *         it declares monitors
+     */
+    public boolean isIndexed(Class type) {
+        final CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+        return codeSource != null && codeSource.getLocation() != null
+                && locations.contains(codeSource.getLocation().toExternalForm());
+    }
+
+    /**
+     * Whether the index knows every monitor of a service declared on one of its types. An indexed implementation
+     * with @Monitor methods names the interfaces it implements, so an interface loaded from a jar or directory with
+     * an index is covered and, when no implementation names it, skipped. An interface without an index of its own is
+     * searched, as is every type the index doesn't cover. An implementation compiled without the processor against
+     * an indexed interface isn't seen, {@link com.joshcanfield.tapestry5.monitor.MonitorSymbols#INDEX} turns the
+     * index off for it.
+     *
+     * @param service the interface, or class, the service is advised through
+     * @param type    the service or one of its supertypes
+     * @return true if a type the index doesn't name can be skipped
+     */
+    public boolean covers(Class service, Class type) {
+        return isIndexed(type) && (!service.isInterface() || isIndexed(service));
+    }
+
+    /**
+     * The jar or directory an index was read from, written the way a class's code source location is:
+     * "jar:file:/app.jar!/META-INF/..." is "file:/app.jar" and "file:/classes/META-INF/..." is "file:/classes/".
+     */
+    static String location(URL url) {
+        String location = url.toExternalForm();
+        location = location.substring(0, location.length() - RESOURCE.length());
+        if (location.startsWith("jar:") && location.endsWith("!/")) {
+            location = location.substring("jar:".length(), location.length() - "!/".length());
+        }
+        return location;
+    }
+
+    /**
+     * @return true if the type, its subclasses or its implementations monitor any methods
+     */
+    public boolean isMonitored(Class type) {
+        return signatures.containsKey(type.getName());
+    }
+
+    /**
+     * @return true if the method may be monitored on the type or one of its subclasses or implementations
+     */
+    public boolean isMonitored(Class type, Method method) {
+        final Set<String> methods = signatures.get(type.getName());
+        return methods != null && methods.contains(signature(method.getName(), method.getParameterTypes()));
+    }
+
+    /**
+     * The method's name and parameter types as {@link MonitorProcessor} writes them: "name(int,java.lang.String[])".
+     */
+    public static String signature(String name, Class<?>[] parameterTypes) {
+        final StringBuilder builder = new StringBuilder(name).append('(');
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) builder.append(',');
+            builder.append(typeName(parameterTypes[i]));
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * Class names as they are written in Java source except that nested classes keep their binary name.
+     */
+    static String typeName(Class<?> type) {
+        return type.isArray() ? typeName(type.getComponentType()) + "[]" : type.getName();
+    }
+}
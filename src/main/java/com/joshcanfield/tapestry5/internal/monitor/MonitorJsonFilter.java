@@ -0,0 +1,91 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import org.javasimon.Stopwatch;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves every monitor's stats as JSON, for scrapers that poll too often for JMX.
+ * <p/>
+ * The stats are written straight to the response as they are read, there is no intermediate object tree. A request
+ * allocates the same small buffers no matter how many monitors there are. The "prefix" parameter limits the response
+ * to the monitors whose names start with it.
+ * <pre>
+ * {"com.example.Service.method()":{"count":10,"total":5230,"min":120,"max":2010,"mean":523,"sampleRate":1,
+ *   "invocationCount":10,"invocationTotal":5230,"percentiles":{"p50":303,"p99":2015}}}
+ * </pre>
+ * Times are in nanoseconds.
+ */
+public class MonitorJsonFilter extends MonitorEndpointFilter {
+    private final MonitorStatsSource monitorStatsSource;
+
+    public MonitorJsonFilter(String path, MonitorStatsSource monitorStatsSource) {
+        super(path);
+        this.monitorStatsSource = monitorStatsSource;
+    }
+
+    @Override
+    protected void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+
+        final String prefix = request.getParameter("prefix");
+        final TextOutput out = new TextOutput(response.getWriter());
+        final long[] percentiles = new long[32];
+
+        out.write('{');
+        boolean first = true;
+        for (MonitorStats stats : monitorStatsSource.getAllStats()) {
+            final String name = stats.getName();
+            if (prefix != null && !name.startsWith(prefix)) continue;
+
+            if (!first) out.write(',');
+            first = false;
+
+            out.string(name);
+            out.write(':');
+            write(out, stats, stats.getPercentileCount() > percentiles.length
+                    ? new long[stats.getPercentileCount()] : percentiles);
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    private static void write(TextOutput out, MonitorStats stats, long[] percentiles) throws IOException {
+        final Stopwatch stopwatch = stats.getStopwatch();
+        final long count = stopwatch.getCounter();
+
+        out.field("count", count, true);
+        out.field("total", stopwatch.getTotal(), false);
+        out.field("min", count == 0 ? 0 : stopwatch.getMin(), false);
+        out.field("max", stopwatch.getMax(), false);
+        out.field("mean", Math.round(stopwatch.getMean()), false);
+        out.field("sampleRate", stats.getSampleRate(), false);
+        out.field("invocationCount", stats.getInvocationCount(), false);
+        out.field("invocationTotal", stats.getInvocationTotal(), false);
+
+        out.write(",\"percentiles\":");
+        stats.getPercentileValues(percentiles);
+        for (int i = 0; i < stats.getPercentileCount(); i++) {
+            out.field(stats.getPercentileName(i), percentiles[i], i == 0);
+        }
+        out.write(stats.getPercentileCount() == 0 ? "{}}" : "}}");
+    }
+}
@@ -0,0 +1,190 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Writes the {@link MonitorIndex} of the @Monitor methods in the classes being compiled, so that
+ * {@link MonitorAdviserImpl} can skip the reflective search of services that don't monitor anything.
+ * <p/>
+ * The processor is found through META-INF/services by any build that compiles against tapestry-monitoring. When
+ * only some classes are recompiled their lines are replaced and the rest of the existing index is kept.
+ */
+@SupportedAnnotationTypes("*")
+public class MonitorProcessor extends AbstractProcessor {
+
+    private static final String MONITOR = "com.joshcanfield.tapestry5.annotations.Monitor";
+
+    private final Set<String> compiled = new HashSet<String>();
+    private final Set<String> lines = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            write();
+            return false;
+        }
+
+        for (TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collect(type);
+        }
+
+        final TypeElement monitor = processingEnv.getElementUtils().getTypeElement(MONITOR);
+        if (monitor == null) return false;
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(monitor)) {
+            if (element.getKind() != ElementKind.METHOD) continue;
+
+            final ExecutableElement method = (ExecutableElement) element;
+            final TypeElement type = (TypeElement) method.getEnclosingElement();
+
+            final StringBuilder line = new StringBuilder(binaryName(type)).append('\t').append(signature(method));
+            for (String supertype : supertypes(type)) {
+                line.append('\t').append(supertype);
+            }
+            lines.add(line.toString());
+        }
+
+        // the annotation is left for other processors
+        return false;
+    }
+
+    /**
+     * Remembers the types being compiled, their lines in an existing index are out of date.
+     */
+    private void collect(TypeElement type) {
+        compiled.add(binaryName(type));
+        for (TypeElement nested : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(nested);
+        }
+    }
+
+    private void write() {
+        final Set<String> index = new TreeSet<String>(lines);
+        for (String line : readExisting()) {
+            if (!compiled.contains(line.substring(0, line.indexOf('\t')))) index.add(line);
+        }
+
+        try {
+            final FileObject resource = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", MonitorIndex.RESOURCE);
+            final Writer writer = new OutputStreamWriter(resource.openOutputStream(), "UTF-8");
+            try {
+                writer.write("# @Monitor methods: class, method and the types the class extends or implements\n");
+                for (String line : index) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write " + MonitorIndex.RESOURCE + ": " + e.getMessage());
+        }
+    }
+
+    private Set<String> readExisting() {
+        final Set<String> existing = new LinkedHashSet<String>();
+        try {
+            final FileObject resource = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", MonitorIndex.RESOURCE);
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(resource.openInputStream(), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.length() > 0 && !line.startsWith("#")) existing.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // no index from an earlier build
+        }
+        return existing;
+    }
+
+    private String binaryName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private String signature(ExecutableElement method) {
+        final StringBuilder builder = new StringBuilder(method.getSimpleName()).append('(');
+        final List<? extends VariableElement> parameters = method.getParameters();
+        for (int i = 0; i < parameters.size(); i++) {
+            if (i > 0) builder.append(',');
+            builder.append(typeName(processingEnv.getTypeUtils().erasure(parameters.get(i).asType())));
+        }
+        return builder.append(')').toString();
+    }
+
+    /**
+     * The same names as {@link MonitorIndex#typeName(Class)}.
+     */
+    private String typeName(TypeMirror type) {
+        if (type.getKind() == TypeKind.ARRAY) return typeName(((ArrayType) type).getComponentType()) + "[]";
+        if (type.getKind() == TypeKind.DECLARED) return binaryName((TypeElement) ((DeclaredType) type).asElement());
+        return type.toString();
+    }
+
+    private Set<String> supertypes(TypeElement type) {
+        final Set<String> supertypes = new TreeSet<String>();
+        addSupertypes(type.asType(), supertypes);
+        supertypes.remove(Object.class.getName());
+        return supertypes;
+    }
+
+    private void addSupertypes(TypeMirror type, Set<String> supertypes) {
+        for (TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type)) {
+            if (supertype.getKind() != TypeKind.DECLARED) continue;
+            if (supertypes.add(binaryName((TypeElement) ((DeclaredType) supertype).asElement()))) {
+                addSupertypes(supertype, supertypes);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Serves every monitor in the Prometheus text exposition format.
+ * <p/>
+ * Each monitor is a tapestry_monitor_seconds summary, with its percentiles as quantiles, and a
+ * tapestry_monitor_max_seconds gauge. The labels come from the JMX name given by the
+ * {@link com.joshcanfield.tapestry5.monitor.MonitorNameGenerator}: the domain, the package, the class (the "name"
+ * key), the method (the "monitor" key), the exception for segregated exceptions and any other keys the generator
+ * adds. The monitor's own name is the "monitor" label.
+ * <p/>
+ * The metric name and labels of every line are rendered the first time a monitor is scraped, later scrapes only
+ * write the numbers.
+ */
+public class MonitorPrometheusFilter extends MonitorEndpointFilter {
+    static final String SUMMARY = "tapestry_monitor_seconds";
+    static final String MAX = "tapestry_monitor_max_seconds";
+
+    private final MonitorStatsSource monitorStatsSource;
+    private final ConcurrentMap<MonitorStats, Series> series = new ConcurrentHashMap<MonitorStats, Series>();
+
+    public MonitorPrometheusFilter(String path, MonitorStatsSource monitorStatsSource) {
+        super(path);
+        this.monitorStatsSource = monitorStatsSource;
+    }
+
+    @Override
+    protected void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+
+        final TextOutput out = new TextOutput(response.getWriter());
+        long[] percentiles = new long[32];
+
+        out.write("# HELP " + SUMMARY + " Time spent in monitored methods.\n");
+        out.write("# TYPE " + SUMMARY + " summary\n");
+        for (MonitorStats stats : monitorStatsSource.getAllStats()) {
+            final Series lines = series(stats);
+            if (percentiles.length < lines.quantiles.length) percentiles = new long[lines.quantiles.length];
+
+            stats.getPercentileValues(percentiles);
+            for (int i = 0; i < lines.quantiles.length; i++) {
+                out.write(lines.quantiles[i]);
+                out.seconds(percentiles[i]);
+                out.write('\n');
+            }
+            out.write(lines.sum);
+            out.seconds(stats.getInvocationTotal());
+            out.write('\n');
+            out.write(lines.count);
+            out.number(stats.getInvocationCount());
+            out.write('\n');
+        }
+
+        out.write("# HELP " + MAX + " The longest invocation since the monitor was reset.\n");
+        out.write("# TYPE " + MAX + " gauge\n");
+        for (MonitorStats stats : monitorStatsSource.getAllStats()) {
+            out.write(series(stats).max);
+            out.seconds(stats.getStopwatch().getMax());
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    /**
+     * The rendered lines, redone if the monitor has been registered since it was last rendered.
+     */
+    private Series series(MonitorStats stats) {
+        Series lines = series.get(stats);
+        if (lines == null || lines.objectName != stats.getObjectName()) {
+            lines = new Series(stats);
+            series.put(stats, lines);
+        }
+        return lines;
+    }
+
+    /**
+     * The start of each line written for a monitor, up to the value.
+     */
+    private static final class Series {
+        private final ObjectName objectName;
+        private final String[] quantiles;
+        private final String sum;
+        private final String count;
+        private final String max;
+
+        private Series(MonitorStats stats) {
+            objectName = stats.getObjectName();
+            final String labels = labels(stats.getName(), objectName);
+
+            quantiles = new String[stats.getPercentileCount()];
+            for (int i = 0; i < quantiles.length; i++) {
+                quantiles[i] = SUMMARY + "{" + labels + ",quantile=\"" + quantile(stats.getPercentileName(i)) + "\"} ";
+            }
+            sum = SUMMARY + "_sum{" + labels + "} ";
+            count = SUMMARY + "_count{" + labels + "} ";
+            max = MAX + "{" + labels + "} ";
+        }
+    }
+
+    static String labels(String monitorName, ObjectName objectName) {
+        final StringBuilder builder = new StringBuilder();
+        label(builder, "monitor", monitorName);
+        if (objectName == null) return builder.toString();
+
+        label(builder, "domain", objectName.getDomain());
+
+        final Map<String, String> properties = new TreeMap<String, String>(objectName.getKeyPropertyList());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            final String key = property.getKey();
+            if (key.equals("type")) continue;
+
+            final String name = key.equals("name") ? "class" : key.equals("monitor") ? "method" : labelName(key);
+            final String value = property.getValue();
+            label(builder, name, value.startsWith("\"") ? ObjectName.unquote(value) : value);
+        }
+        return builder.toString();
+    }
+
+    private static void label(StringBuilder builder, String name, String value) {
+        if (builder.length() > 0) builder.append(',');
+        builder.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\').append(c);
+            } else if (c == '\n') {
+                builder.append("\\n");
+            } else {
+                builder.append(c);
+            }
+        }
+        builder.append('"');
+    }
+
+    private static String labelName(String key) {
+        final StringBuilder builder = new StringBuilder(key.length() + 1);
+        if (Character.isDigit(key.charAt(0))) builder.append('_');
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            builder.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_') ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * "p99.9" to "0.999"
+     */
+    static String quantile(String percentileName) {
+        return new BigDecimal(percentileName.substring(1)).movePointLeft(2).stripTrailingZeros().toPlainString();
+    }
+}
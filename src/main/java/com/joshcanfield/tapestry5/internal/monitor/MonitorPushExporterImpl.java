@@ -0,0 +1,331 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorPushExporter;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import org.apache.tapestry5.ioc.annotations.Local;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes each monitor as a set of metrics named prefix.monitor-name.metric: "count", then "mean", "max" and one per
+ * percentile ("p99_9" for 99.9) in milliseconds.
+ * <ul>
+ * <li>"statsd" sends UDP datagrams. The count is a counter of the invocations since the last push, the times are
+ * gauges. A datagram the socket can't buffer is dropped.</li>
+ * <li>"graphite" sends the plaintext protocol over TCP with the cumulative count. What the socket doesn't accept is
+ * kept for the next packet, packets that arrive while it is still waiting are dropped.</li>
+ * </ul>
+ * Lines are packed into packets of {@link MonitorSymbols#PUSH_PACKET_SIZE} bytes and never split across them. The
+ * channels are non-blocking and only used from {@link #push()}, which runs on the PeriodicExecutor's thread, so a
+ * slow or missing collector costs request threads nothing. Failed channels are reopened on the next push.
+ */
+public class MonitorPushExporterImpl implements MonitorPushExporter {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int STATSD_PORT = 8125;
+    private static final int GRAPHITE_PORT = 2003;
+
+    private final Logger logger;
+    private final MonitorStatsSource monitorStatsSource;
+    private final boolean graphite;
+    private final String host;
+    private final int port;
+    private final String prefix;
+
+    // the rest is only touched while holding the lock on this
+    private final Map<MonitorStats, Metrics> metrics = new HashMap<MonitorStats, Metrics>();
+    private final ByteBuffer packet;
+    private final ByteBuffer line;
+    private final ByteBuffer pending;
+    private long[] percentiles = new long[8];
+    private int packetLines;
+    private long timestamp;
+    private long dropped;
+    private boolean failing;
+
+    private DatagramChannel datagramChannel;
+    private SocketChannel socketChannel;
+
+    public MonitorPushExporterImpl(
+            Logger logger,
+            @Symbol(MonitorSymbols.PUSH_HOST) String host,
+            @Symbol(MonitorSymbols.PUSH_PORT) int port,
+            @Symbol(MonitorSymbols.PUSH_FORMAT) String format,
+            @Symbol(MonitorSymbols.PUSH_PREFIX) String prefix,
+            @Symbol(MonitorSymbols.PUSH_PACKET_SIZE) int packetSize,
+            @Local MonitorStatsSource monitorStatsSource,
+            RegistryShutdownHub shutdownHub) {
+        if (MonitorSymbols.PUSH_FORMAT_STATSD.equals(format)) {
+            graphite = false;
+        } else if (MonitorSymbols.PUSH_FORMAT_GRAPHITE.equals(format)) {
+            graphite = true;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown %s '%s', expected '%s' or '%s'",
+                    MonitorSymbols.PUSH_FORMAT, format, MonitorSymbols.PUSH_FORMAT_STATSD,
+                    MonitorSymbols.PUSH_FORMAT_GRAPHITE));
+        }
+        if (packetSize <= 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive: %d",
+                    MonitorSymbols.PUSH_PACKET_SIZE, packetSize));
+        }
+
+        this.logger = logger;
+        this.host = host;
+        this.port = port > 0 ? port : graphite ? GRAPHITE_PORT : STATSD_PORT;
+        this.prefix = prefix.length() == 0 || prefix.endsWith(".") ? prefix : prefix + ".";
+        this.monitorStatsSource = monitorStatsSource;
+
+        packet = ByteBuffer.allocate(packetSize);
+        line = ByteBuffer.allocate(packetSize);
+        pending = ByteBuffer.allocate(packetSize);
+        pending.limit(0);
+
+        shutdownHub.addRegistryShutdownListener(new Runnable() {
+            public void run() {
+                synchronized (MonitorPushExporterImpl.this) {
+                    close();
+                }
+            }
+        });
+    }
+
+    public synchronized void push() {
+        try {
+            if (!open()) return;
+
+            timestamp = System.currentTimeMillis() / 1000;
+            packet.clear();
+            packetLines = 0;
+            for (MonitorStats stats : monitorStatsSource.getAllStats()) {
+                write(stats);
+            }
+            send();
+
+            if (dropped > 0) {
+                logger.debug("Dropped {} monitor metrics that {}:{} couldn't take", new Object[]{dropped, host, port});
+                dropped = 0;
+            }
+            failing = false;
+        } catch (IOException e) {
+            if (!failing) logger.warn(String.format("Pushing monitor stats to %s:%d failed", host, port), e);
+            failing = true;
+            close();
+        }
+    }
+
+    private void write(MonitorStats stats) throws IOException {
+        Metrics names = metrics.get(stats);
+        if (names == null) {
+            names = new Metrics(stats);
+            metrics.put(stats, names);
+        }
+
+        final long count = stats.getInvocationCount();
+        if (graphite) {
+            add(names.count, count, false);
+        } else {
+            // a count lower than the last one means the monitor was reset
+            final long delta = count >= names.lastCount ? count - names.lastCount : count;
+            names.lastCount = count;
+            add(names.count, delta, false);
+        }
+        add(names.mean, count == 0 ? 0 : stats.getInvocationTotal() / count, true);
+        add(names.max, stats.getStopwatch().getMax(), true);
+
+        if (percentiles.length < names.percentiles.length) percentiles = new long[names.percentiles.length];
+        stats.getPercentileValues(percentiles);
+        for (int i = 0; i < names.percentiles.length; i++) {
+            add(names.percentiles[i], percentiles[i], true);
+        }
+    }
+
+    /**
+     * Formats a line and adds it to the packet, sending the packet first if the line doesn't fit.
+     */
+    private void add(byte[] name, long value, boolean millis) throws IOException {
+        line.clear();
+        try {
+            line.put(name);
+            if (millis) {
+                putMillis(value);
+            } else {
+                putNumber(value);
+            }
+            if (graphite) {
+                line.put((byte) ' ');
+                putNumber(timestamp);
+            } else {
+                line.put((byte) '|').put((byte) (millis ? 'g' : 'c'));
+            }
+            line.put((byte) '\n');
+        } catch (BufferOverflowException e) {
+            // the name alone is too long for a packet
+            dropped++;
+            return;
+        }
+
+        line.flip();
+        if (line.remaining() > packet.remaining()) send();
+        packet.put(line);
+        packetLines++;
+    }
+
+    private void putNumber(long value) {
+        if (value < 0) {
+            line.put((byte) '-');
+            value = -value;
+        }
+        long digit = 1;
+        while (digit <= value / 10) digit *= 10;
+        for (; digit > 0; digit /= 10) {
+            line.put((byte) ('0' + value / digit % 10));
+        }
+    }
+
+    /**
+     * Nanoseconds as milliseconds with three decimal places.
+     */
+    private void putMillis(long ns) {
+        if (ns < 0) ns = 0;
+        putNumber(ns / 1000000L);
+        line.put((byte) '.');
+        final long micros = ns / 1000L % 1000L;
+        line.put((byte) ('0' + micros / 100)).put((byte) ('0' + micros / 10 % 10)).put((byte) ('0' + micros % 10));
+    }
+
+    private void send() throws IOException {
+        packet.flip();
+        if (packet.hasRemaining()) {
+            if (graphite) {
+                sendStream();
+            } else if (datagramChannel.write(packet) == 0) {
+                dropped += packetLines;
+            }
+        }
+        packet.clear();
+        packetLines = 0;
+    }
+
+    /**
+     * The stream has to stay whole lines, so the part of a packet the socket doesn't take is held back and written
+     * ahead of the next one.
+     */
+    private void sendStream() throws IOException {
+        if (pending.hasRemaining()) socketChannel.write(pending);
+        if (pending.hasRemaining()) {
+            dropped += packetLines;
+            return;
+        }
+
+        socketChannel.write(packet);
+        pending.clear();
+        pending.put(packet);
+        pending.flip();
+    }
+
+    /**
+     * Opens the channel if needed.
+     *
+     * @return false while a TCP connection is still being made
+     */
+    private boolean open() throws IOException {
+        if (graphite) {
+            if (socketChannel == null) {
+                socketChannel = SocketChannel.open();
+                socketChannel.configureBlocking(false);
+                socketChannel.connect(new InetSocketAddress(host, port));
+            }
+            return socketChannel.isConnected() || socketChannel.finishConnect();
+        }
+
+        if (datagramChannel == null) {
+            datagramChannel = DatagramChannel.open();
+            datagramChannel.configureBlocking(false);
+            datagramChannel.connect(new InetSocketAddress(host, port));
+        }
+        return true;
+    }
+
+    private void close() {
+        close(datagramChannel);
+        close(socketChannel);
+        datagramChannel = null;
+        socketChannel = null;
+        pending.clear();
+        pending.limit(0);
+    }
+
+    private void close(Channel channel) {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.debug("Closing monitor push channel failed", e);
+        }
+    }
+
+    /**
+     * The encoded start of each line written for a monitor, up to the value, and the count at the last push.
+     */
+    private final class Metrics {
+        private final byte[] count;
+        private final byte[] mean;
+        private final byte[] max;
+        private final byte[][] percentiles;
+        private long lastCount;
+
+        private Metrics(MonitorStats stats) {
+            final String base = prefix + sanitize(stats.getName()) + ".";
+            count = name(base + "count");
+            mean = name(base + "mean");
+            max = name(base + "max");
+            percentiles = new byte[stats.getPercentileCount()][];
+            for (int i = 0; i < percentiles.length; i++) {
+                percentiles[i] = name(base + sanitize(stats.getPercentileName(i)).replace('.', '_'));
+            }
+        }
+
+        private byte[] name(String metric) {
+            return (metric + (graphite ? ' ' : ':')).getBytes(ASCII);
+        }
+    }
+
+    /**
+     * Keeps letters, digits, '.', '_' and '-', which both protocols take as they are.
+     */
+    static String sanitize(String name) {
+        final StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            builder.append(c < 128 && (Character.isLetterOrDigit(c) || c == '.' || c == '_' || c == '-') ? c : '_');
+        }
+        return builder.toString();
+    }
+}
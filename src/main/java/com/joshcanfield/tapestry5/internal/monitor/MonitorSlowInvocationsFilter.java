@@ -0,0 +1,79 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.SlowInvocation;
+import com.joshcanfield.tapestry5.monitor.SlowInvocationLog;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Serves the captured slow invocations as a JSON array, newest first.
+ * <pre>
+ * [{"monitor":"com.example.Service.method()","method":"com.example.Service.method","duration":812000000,
+ *   "thread":"http-8080-1","timestamp":1339012345678,"arguments":["42"],"stack":["..."]}]
+ * </pre>
+ * The duration is in nanoseconds, the timestamp in milliseconds. Arguments and stack are only written when captured.
+ */
+public class MonitorSlowInvocationsFilter extends MonitorEndpointFilter {
+    private final SlowInvocationLog slowInvocationLog;
+
+    public MonitorSlowInvocationsFilter(String path, SlowInvocationLog slowInvocationLog) {
+        super(path);
+        this.slowInvocationLog = slowInvocationLog;
+    }
+
+    @Override
+    protected void write(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType("application/json;charset=UTF-8");
+
+        final TextOutput out = new TextOutput(response.getWriter());
+        out.write('[');
+        boolean first = true;
+        for (SlowInvocation invocation : slowInvocationLog.getInvocations()) {
+            if (!first) out.write(',');
+            first = false;
+
+            out.write("{\"monitor\":");
+            out.string(invocation.getMonitor());
+            out.write(",\"method\":");
+            out.string(invocation.getMethod());
+            out.field("duration", invocation.getDuration(), false);
+            out.write(",\"thread\":");
+            out.string(invocation.getThread());
+            out.field("timestamp", invocation.getTimestamp(), false);
+            array(out, "arguments", invocation.getArguments());
+            array(out, "stack", invocation.getStack());
+            out.write('}');
+        }
+        out.write(']');
+        out.flush();
+    }
+
+    private static void array(TextOutput out, String name, String[] values) throws IOException {
+        if (values == null) return;
+
+        out.write(',');
+        out.string(name);
+        out.write(":[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) out.write(',');
+            out.string(values[i]);
+        }
+        out.write(']');
+    }
+}
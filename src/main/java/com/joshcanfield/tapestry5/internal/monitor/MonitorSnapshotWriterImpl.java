@@ -0,0 +1,205 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorSnapshotFile;
+import com.joshcanfield.tapestry5.monitor.MonitorSnapshotWriter;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import com.joshcanfield.tapestry5.monitor.StatsSnapshot;
+import org.apache.tapestry5.ioc.annotations.Local;
+import org.apache.tapestry5.ioc.annotations.Symbol;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Appends a {@link MonitorSnapshotFile} record of every monitor. Records are forced to disk every
+ * {@link MonitorSymbols#SNAPSHOT_SYNC} snapshots rather than each time, a crash loses at most the ones since the
+ * last force. Once the file grows past {@link MonitorSymbols#SNAPSHOT_MAX_SIZE} it is replaced by one holding only
+ * the latest record; the replacement is written beside it and renamed over it so there is always a complete file.
+ * Invocations still in the recording buffers are flushed into the stats before each record, the last one is taken
+ * when the registry shuts down.
+ * <p/>
+ * The latest snapshot already in the file is handed to the {@link MonitorStatsSource} by {@link #restore()} as
+ * configured by {@link MonitorSymbols#SNAPSHOT_STARTUP}. A snapshot that can't be read is logged and skipped, it
+ * doesn't stop the application starting.
+ */
+public class MonitorSnapshotWriterImpl implements MonitorSnapshotWriter {
+    private final Logger logger;
+    private final File file;
+    private final int sync;
+    private final long maxSize;
+    private final String startup;
+    private final MonitorStatsSource monitorStatsSource;
+
+    // the rest is only touched while holding the lock on this
+    private FileChannel channel;
+    private int unsynced;
+    private boolean failing;
+
+    public MonitorSnapshotWriterImpl(
+            Logger logger,
+            @Symbol(MonitorSymbols.SNAPSHOT_PATH) String path,
+            @Symbol(MonitorSymbols.SNAPSHOT_SYNC) int sync,
+            @Symbol(MonitorSymbols.SNAPSHOT_MAX_SIZE) long maxSize,
+            @Symbol(MonitorSymbols.SNAPSHOT_STARTUP) String startup,
+            @Local MonitorStatsSource monitorStatsSource,
+            RegistryShutdownHub shutdownHub) {
+        if (sync <= 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive: %d",
+                    MonitorSymbols.SNAPSHOT_SYNC, sync));
+        }
+        this.logger = logger;
+        this.file = new File(path);
+        this.sync = sync;
+        this.maxSize = maxSize;
+        this.startup = startup;
+        this.monitorStatsSource = monitorStatsSource;
+
+        if (path.length() == 0) return;
+
+        shutdownHub.addRegistryShutdownListener(new Runnable() {
+            public void run() {
+                synchronized (MonitorSnapshotWriterImpl.this) {
+                    snapshot();
+                    close(true);
+                }
+            }
+        });
+    }
+
+    public synchronized void restore() {
+        if (file.getPath().length() == 0) return;
+
+        final boolean histograms;
+        if (MonitorSymbols.SNAPSHOT_STARTUP_RESTORE.equals(startup)) {
+            histograms = true;
+        } else if (MonitorSymbols.SNAPSHOT_STARTUP_BASELINE.equals(startup)) {
+            histograms = false;
+        } else if (MonitorSymbols.SNAPSHOT_STARTUP_IGNORE.equals(startup)) {
+            return;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown %s '%s', expected '%s', '%s' or '%s'",
+                    MonitorSymbols.SNAPSHOT_STARTUP, startup, MonitorSymbols.SNAPSHOT_STARTUP_BASELINE,
+                    MonitorSymbols.SNAPSHOT_STARTUP_RESTORE, MonitorSymbols.SNAPSHOT_STARTUP_IGNORE));
+        }
+
+        final Map<String, StatsSnapshot> snapshots;
+        try {
+            snapshots = MonitorSnapshotFile.readLatest(file);
+        } catch (IOException e) {
+            logger.warn("Unable to read monitor snapshot " + file, e);
+            return;
+        }
+        if (snapshots.isEmpty()) return;
+
+        logger.info("Restoring {} monitors from {}", snapshots.size(), file);
+        monitorStatsSource.restore(snapshots, histograms);
+    }
+
+    public synchronized void snapshot() {
+        if (file.getPath().length() == 0 || !open()) return;
+        monitorStatsSource.flush();
+
+        try {
+            final Collection<MonitorStats> stats = new ArrayList<MonitorStats>(monitorStatsSource.getAllStats());
+            final ByteBuffer record = MonitorSnapshotFile.encode(stats, System.currentTimeMillis());
+            MonitorSnapshotFile.append(channel, record);
+
+            if (++unsynced >= sync) {
+                channel.force(false);
+                unsynced = 0;
+            }
+            if (channel.size() > maxSize) compact(record);
+            failing = false;
+        } catch (IOException e) {
+            if (!failing) logger.warn("Unable to write monitor snapshot " + file, e);
+            failing = true;
+            close(false);
+        }
+    }
+
+    /**
+     * Replaces the file with one holding only the record just written.
+     */
+    private void compact(ByteBuffer record) throws IOException {
+        final File compacted = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(compacted);
+        try {
+            record.rewind();
+            MonitorSnapshotFile.append(out.getChannel(), record);
+            out.getChannel().force(false);
+        } finally {
+            out.close();
+        }
+
+        close(false);
+        if (!compacted.renameTo(file) && !(file.delete() && compacted.renameTo(file))) {
+            throw new IOException("Unable to replace " + file + " with " + compacted);
+        }
+        logger.debug("Compacted {}", file);
+    }
+
+    /**
+     * Opens the file for appending the first time a snapshot is taken, cutting off a record torn by a crash. A file
+     * that can't be opened is tried again on the next snapshot, the failure is logged once.
+     */
+    private boolean open() {
+        if (channel != null) return true;
+
+        try {
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create " + parent);
+            }
+            channel = new FileOutputStream(file, true).getChannel();
+
+            final long complete = MonitorSnapshotFile.completeLength(file);
+            if (channel.size() > complete) {
+                logger.warn("Dropping {} bytes of incomplete monitor snapshot from {}", channel.size() - complete,
+                        file);
+                channel.truncate(complete);
+            }
+        } catch (IOException e) {
+            close(false);
+            if (!failing) logger.warn("Unable to open monitor snapshot " + file, e);
+            failing = true;
+            return false;
+        }
+        return true;
+    }
+
+    private void close(boolean force) {
+        if (channel == null) return;
+        try {
+            if (force) channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Unable to close monitor snapshot " + file, e);
+        }
+        channel = null;
+        unsynced = 0;
+    }
+}
@@ -0,0 +1,454 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.CallTreeRecorder;
+import com.joshcanfield.tapestry5.monitor.ExceptionBreakdown;
+import com.joshcanfield.tapestry5.monitor.Histogram;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
+import com.joshcanfield.tapestry5.monitor.MonitorInterval;
+import com.joshcanfield.tapestry5.monitor.MonitorIntervals;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import com.joshcanfield.tapestry5.monitor.RollingWindow;
+import com.joshcanfield.tapestry5.monitor.SlowInvocationLog;
+import com.joshcanfield.tapestry5.monitor.StatsSnapshot;
+import org.apache.tapestry5.ioc.annotations.Inject;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.apache.tapestry5.ioc.services.SymbolSource;
+import org.apache.tapestry5.ioc.util.TimeInterval;
+import org.javasimon.SimonManager;
+import org.javasimon.Stopwatch;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the stats for each monitor name. The stopwatch is a javasimon stopwatch, or a {@link StripedStopwatch}
+ * when the striped recorder is configured. With a {@link MonitorSymbols#BUFFER_SIZE} above zero the
+ * stats record into per-thread {@link RecordingBuffers} first. Unless {@link MonitorSymbols#WINDOWS} is empty each
+ * monitor's stats get a {@link RollingWindow} big enough for the longest window, read with the default clock, the
+ * stats of segregated exceptions don't. Unless
+ * {@link MonitorSymbols#EXCEPTION_CLASSES} is zero an {@link ExceptionBreakdown}. The
+ * {@link CallTreeRecorder} is created here too when {@link MonitorSymbols#CALL_TREE} is enabled, as is the
+ * {@link SlowInvocationLog}. With {@link MonitorSymbols#INTERVALS} enabled every stats shares one
+ * {@link MonitorIntervals}.
+ * <p/>
+ * Snapshots handed to {@link #restore(Map, boolean)} are kept until the monitor they belong to is created.
+ * <p/>
+ * This is a separate service so that MonitorAdviser doesn't need the SymbolSource while it is building; the
+ * SymbolSource is itself advised by MonitorAdviser.
+ */
+public class MonitorStatsSourceImpl implements MonitorStatsSource {
+    private final boolean striped;
+    private final double[] percentiles;
+    private final RecordingBuffers buffers;
+    private final Map<String, Integer> windows;
+    private final long windowResolution;
+    private final int windowSize;
+    private final int exceptionClasses;
+    private final MonitorClock clock;
+    private final CallTreeRecorder callTreeRecorder;
+    private final SlowInvocationLog slowInvocationLog;
+    private final long slowThreshold;
+    private final MonitorIntervals intervals;
+    private final boolean active;
+    private final ConcurrentMap<String, MonitorStats> stats = new ConcurrentHashMap<String, MonitorStats>();
+    private final ConcurrentMap<String, StatsSnapshot> pending = new ConcurrentHashMap<String, StatsSnapshot>();
+    private volatile boolean restoreHistograms;
+
+    @Inject
+    public MonitorStatsSourceImpl(
+            SymbolSource symbolSource,
+            PerthreadManager perthreadManager,
+            MonitorClockSource monitorClockSource) {
+        this(Settings.fromSymbols(symbolSource), perthreadManager, monitorClockSource);
+    }
+
+    public MonitorStatsSourceImpl(
+            Settings settings,
+            PerthreadManager perthreadManager,
+            MonitorClockSource monitorClockSource) {
+        if (MonitorSymbols.RECORDER_STRIPED.equals(settings.recorder)) {
+            striped = true;
+        } else if (MonitorSymbols.RECORDER_SIMON.equals(settings.recorder)) {
+            striped = false;
+        } else {
+            throw new IllegalArgumentException(String.format("Unknown %s '%s', expected '%s' or '%s'",
+                    MonitorSymbols.RECORDER, settings.recorder, MonitorSymbols.RECORDER_SIMON,
+                    MonitorSymbols.RECORDER_STRIPED));
+        }
+        this.percentiles = parsePercentiles(settings.percentiles);
+        this.buffers = settings.bufferSize > 0 ? new RecordingBuffers(settings.bufferSize, perthreadManager) : null;
+
+        this.windowResolution = TimeUnit.MILLISECONDS.toNanos(
+                new TimeInterval(settings.windowResolution).milliseconds());
+        if (this.windowResolution <= 0) {
+            throw new IllegalArgumentException(String.format("%s must be positive: '%s'",
+                    MonitorSymbols.WINDOW_RESOLUTION, settings.windowResolution));
+        }
+        this.windows = parseWindows(settings.windows, this.windowResolution);
+        this.windowSize = this.windows.isEmpty() ? 0 : Collections.max(this.windows.values());
+        if (settings.exceptionClasses < 0) {
+            throw new IllegalArgumentException(String.format("%s can't be negative: %d",
+                    MonitorSymbols.EXCEPTION_CLASSES, settings.exceptionClasses));
+        }
+        this.exceptionClasses = settings.exceptionClasses;
+        this.clock = monitorClockSource.getClock(Monitor.Clock.Default);
+        this.callTreeRecorder = settings.callTree
+                ? new CallTreeRecorder(clock, settings.callTreeSize, perthreadManager) : null;
+        this.slowInvocationLog = new SlowInvocationLog(settings.slowCapacity, settings.slowArguments,
+                settings.slowStack);
+        this.slowThreshold = parseSlowThreshold(settings.slowThreshold);
+        this.intervals = settings.intervals ? new MonitorIntervals() : null;
+        this.active = settings.active;
+    }
+
+    public MonitorStats getStats(String name) {
+        return getStats(name, true);
+    }
+
+    public MonitorStats getExceptionStats(String name) {
+        return getStats(name, false);
+    }
+
+    /**
+     * @param monitor false for the stats of segregated exceptions, which get no window and no count in flight
+     */
+    private MonitorStats getStats(String name, boolean monitor) {
+        MonitorStats monitorStats = stats.get(name);
+        if (monitorStats == null) {
+            final RollingWindow window = monitor && windowSize > 0
+                    ? new RollingWindow(clock, windowResolution, windowSize) : null;
+            final ExceptionBreakdown exceptions = exceptionClasses > 0
+                    ? new ExceptionBreakdown(exceptionClasses, percentiles) : null;
+            monitorStats = buffers == null
+                    ? new MonitorStats(createStopwatch(name), new Histogram(), window, exceptions, intervals,
+                    percentiles, monitor && active)
+                    : new BufferedMonitorStats(createStopwatch(name), new Histogram(), window, exceptions, intervals,
+                    percentiles, monitor && active, buffers);
+            final MonitorStats existing = stats.putIfAbsent(name, monitorStats);
+            if (existing != null) return existing;
+
+            final StatsSnapshot snapshot = pending.remove(name);
+            if (snapshot != null) restore(monitorStats, snapshot);
+        }
+        return monitorStats;
+    }
+
+    public void restore(Map<String, StatsSnapshot> snapshots, boolean histograms) {
+        restoreHistograms = histograms;
+        pending.putAll(snapshots);
+
+        // monitors created before the snapshots arrived
+        for (MonitorStats monitorStats : stats.values()) {
+            final StatsSnapshot snapshot = pending.remove(monitorStats.getName());
+            if (snapshot != null) restore(monitorStats, snapshot);
+        }
+    }
+
+    private void restore(MonitorStats monitorStats, StatsSnapshot snapshot) {
+        monitorStats.setBaseline(snapshot);
+
+        final Histogram saved = snapshot.getHistogram();
+        if (restoreHistograms && saved.getSubBucketBits() == monitorStats.getHistogram().getSubBucketBits()) {
+            monitorStats.getHistogram().add(saved);
+        }
+    }
+
+    public Collection<MonitorStats> getAllStats() {
+        return Collections.unmodifiableCollection(stats.values());
+    }
+
+    public Map<String, Integer> getWindows() {
+        return windows;
+    }
+
+    public CallTreeRecorder getCallTreeRecorder() {
+        return callTreeRecorder;
+    }
+
+    public SlowInvocationLog getSlowInvocationLog() {
+        return slowInvocationLog;
+    }
+
+    public long getSlowThreshold() {
+        return slowThreshold;
+    }
+
+    public MonitorInterval snapshotAndReset() {
+        if (intervals == null) {
+            throw new IllegalStateException(String.format("Intervals aren't kept unless %s is enabled",
+                    MonitorSymbols.INTERVALS));
+        }
+        flush();
+        return intervals.snapshotAndReset(stats.values());
+    }
+
+    public void tickRates() {
+        final long now = System.nanoTime();
+        for (MonitorStats monitorStats : stats.values()) {
+            monitorStats.tickRates(now);
+        }
+    }
+
+    public void flush() {
+        if (buffers != null) buffers.flush();
+    }
+
+    private Stopwatch createStopwatch(String name) {
+        return striped ? new StripedStopwatch(name) : SimonManager.getStopwatch(name);
+    }
+
+    private static double[] parsePercentiles(String value) {
+        final String[] parts = value.split(",");
+        final double[] percentiles = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                percentiles[i] = Double.parseDouble(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        String.format("Invalid %s '%s'", MonitorSymbols.PERCENTILES, value), e);
+            }
+            if (percentiles[i] < 0 || percentiles[i] > 100) {
+                throw new IllegalArgumentException(String.format("%s must be between 0 and 100: '%s'",
+                        MonitorSymbols.PERCENTILES, value));
+            }
+        }
+        Arrays.sort(percentiles);
+        return percentiles;
+    }
+
+    /**
+     * "250 ms" to nanoseconds, "" to Long.MAX_VALUE which no invocation exceeds.
+     */
+    public static long parseSlowThreshold(String value) {
+        if (value.trim().length() == 0) return Long.MAX_VALUE;
+
+        final long threshold;
+        try {
+            threshold = TimeUnit.MILLISECONDS.toNanos(new TimeInterval(value).milliseconds());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid %s '%s'", MonitorSymbols.SLOW_THRESHOLD, value), e);
+        }
+        if (threshold < 0) {
+            throw new IllegalArgumentException(String.format("%s can't be negative: '%s'",
+                    MonitorSymbols.SLOW_THRESHOLD, value));
+        }
+        return threshold;
+    }
+
+    /**
+     * "1m, 5m" to {"1m": 4, "5m": 20} with 15 second buckets. A window that isn't a whole number of buckets is
+     * rounded up.
+     */
+    private static Map<String, Integer> parseWindows(String value, long resolution) {
+        final Map<String, Integer> windows = new LinkedHashMap<String, Integer>();
+        for (String part : value.split(",")) {
+            final String name = part.replaceAll("\\s", "");
+            if (name.length() == 0) continue;
+
+            final long duration;
+            try {
+                duration = TimeUnit.MILLISECONDS.toNanos(new TimeInterval(name).milliseconds());
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(String.format("Invalid %s '%s'", MonitorSymbols.WINDOWS, value), e);
+            }
+            if (duration <= 0) {
+                throw new IllegalArgumentException(String.format("%s must be positive: '%s'",
+                        MonitorSymbols.WINDOWS, value));
+            }
+            windows.put(name, (int) ((duration + resolution - 1) / resolution));
+        }
+        return Collections.unmodifiableMap(windows);
+    }
+
+    /**
+     * The symbols the stats are created from, see {@link #fromSymbols(SymbolSource)}. A new instance has the
+     * defaults MonitorModule contributes.
+     */
+    public static final class Settings {
+        private String recorder = MonitorSymbols.RECORDER_SIMON;
+        private String percentiles = "50,90,99,99.9";
+        private int bufferSize;
+        private String windows = "";
+        private String windowResolution = "15s";
+        private int exceptionClasses = 10;
+        private boolean callTree;
+        private int callTreeSize = 64;
+        private String slowThreshold = "";
+        private int slowCapacity = 100;
+        private boolean slowArguments;
+        private boolean slowStack;
+        private boolean intervals;
+        private boolean active = true;
+
+        /**
+         * @return the settings configured by the {@link MonitorSymbols}
+         */
+        public static Settings fromSymbols(SymbolSource symbols) {
+            return new Settings()
+                    .recorder(symbols.valueForSymbol(MonitorSymbols.RECORDER))
+                    .percentiles(symbols.valueForSymbol(MonitorSymbols.PERCENTILES))
+                    .bufferSize(intValue(symbols, MonitorSymbols.BUFFER_SIZE))
+                    .windows(symbols.valueForSymbol(MonitorSymbols.WINDOWS))
+                    .windowResolution(symbols.valueForSymbol(MonitorSymbols.WINDOW_RESOLUTION))
+                    .exceptionClasses(intValue(symbols, MonitorSymbols.EXCEPTION_CLASSES))
+                    .callTree(booleanValue(symbols, MonitorSymbols.CALL_TREE))
+                    .callTreeSize(intValue(symbols, MonitorSymbols.CALL_TREE_SIZE))
+                    .slowThreshold(symbols.valueForSymbol(MonitorSymbols.SLOW_THRESHOLD))
+                    .slowCapacity(intValue(symbols, MonitorSymbols.SLOW_CAPACITY))
+                    .slowArguments(booleanValue(symbols, MonitorSymbols.SLOW_ARGUMENTS))
+                    .slowStack(booleanValue(symbols, MonitorSymbols.SLOW_STACK))
+                    .intervals(booleanValue(symbols, MonitorSymbols.INTERVALS))
+                    .active(booleanValue(symbols, MonitorSymbols.ACTIVE));
+        }
+
+        private static int intValue(SymbolSource symbols, String symbol) {
+            final String value = symbols.valueForSymbol(symbol);
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("Invalid %s '%s'", symbol, value), e);
+            }
+        }
+
+        private static boolean booleanValue(SymbolSource symbols, String symbol) {
+            return Boolean.parseBoolean(symbols.valueForSymbol(symbol).trim());
+        }
+
+        /**
+         * @param recorder {@link MonitorSymbols#RECORDER_SIMON} or {@link MonitorSymbols#RECORDER_STRIPED}
+         */
+        public Settings recorder(String recorder) {
+            this.recorder = recorder;
+            return this;
+        }
+
+        /**
+         * @param percentiles reported by every monitor, such as "50,99"
+         */
+        public Settings percentiles(String percentiles) {
+            this.percentiles = percentiles;
+            return this;
+        }
+
+        /**
+         * @param bufferSize invocations each thread buffers before recording them, 0 records them directly
+         */
+        public Settings bufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param windows rolling windows such as "1m, 5m", "" for none
+         */
+        public Settings windows(String windows) {
+            this.windows = windows;
+            return this;
+        }
+
+        /**
+         * @param windowResolution length of a window's buckets, such as "15s"
+         */
+        public Settings windowResolution(String windowResolution) {
+            this.windowResolution = windowResolution;
+            return this;
+        }
+
+        /**
+         * @param exceptionClasses exception classes each monitor counts separately, 0 for none
+         */
+        public Settings exceptionClasses(int exceptionClasses) {
+            this.exceptionClasses = exceptionClasses;
+            return this;
+        }
+
+        /**
+         * @param callTree true to record each request's call tree
+         */
+        public Settings callTree(boolean callTree) {
+            this.callTree = callTree;
+            return this;
+        }
+
+        /**
+         * @param callTreeSize invocations a call tree keeps
+         */
+        public Settings callTreeSize(int callTreeSize) {
+            this.callTreeSize = callTreeSize;
+            return this;
+        }
+
+        /**
+         * @param slowThreshold such as "250 ms", "" captures no invocations
+         */
+        public Settings slowThreshold(String slowThreshold) {
+            this.slowThreshold = slowThreshold;
+            return this;
+        }
+
+        /**
+         * @param slowCapacity slow invocations the log keeps
+         */
+        public Settings slowCapacity(int slowCapacity) {
+            this.slowCapacity = slowCapacity;
+            return this;
+        }
+
+        /**
+         * @param slowArguments true to capture the arguments of slow invocations
+         */
+        public Settings slowArguments(boolean slowArguments) {
+            this.slowArguments = slowArguments;
+            return this;
+        }
+
+        /**
+         * @param slowStack true to capture the stack of slow invocations
+         */
+        public Settings slowStack(boolean slowStack) {
+            this.slowStack = slowStack;
+            return this;
+        }
+
+        /**
+         * @param intervals true to keep the stats of each interval between snapshots
+         */
+        public Settings intervals(boolean intervals) {
+            this.intervals = intervals;
+            return this;
+        }
+
+        /**
+         * @param active true when invocations are counted while they run
+         */
+        public Settings active(boolean active) {
+            this.active = active;
+            return this;
+        }
+    }
+}
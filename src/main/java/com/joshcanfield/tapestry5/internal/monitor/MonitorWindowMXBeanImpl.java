@@ -0,0 +1,71 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorWindowMXBean;
+import com.joshcanfield.tapestry5.monitor.RollingWindow;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads one window from the monitor's {@link RollingWindow}.
+ */
+public class MonitorWindowMXBeanImpl implements MonitorWindowMXBean {
+    private final MonitorStats stats;
+    private final int size;
+
+    /**
+     * @param stats the window belongs to
+     * @param size  of the window in buckets
+     */
+    public MonitorWindowMXBeanImpl(MonitorStats stats, int size) {
+        this.stats = stats;
+        this.size = size;
+    }
+
+    public long getDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(size * stats.getWindow().getResolution());
+    }
+
+    public long getSpan() {
+        return TimeUnit.NANOSECONDS.toMillis(snapshot().getSpan());
+    }
+
+    public long getInvocationCount() {
+        return snapshot().getCount() * stats.getSampleRate();
+    }
+
+    public double getRate() {
+        return snapshot().getRate() * stats.getSampleRate();
+    }
+
+    public double getMean() {
+        return snapshot().getMean();
+    }
+
+    public long getMax() {
+        return snapshot().getMax();
+    }
+
+    public Map<String, Long> getPercentiles() {
+        return stats.getWindowPercentiles(size);
+    }
+
+    private RollingWindow.Snapshot snapshot() {
+        return stats.getWindow().snapshot(size);
+    }
+}
@@ -0,0 +1,117 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.plastic.MethodInvocation;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Wraps the future returned by an async monitored method and records the invocation once, the first time the future
+ * is seen to be done: when get() returns or fails, or when isDone() answers true.
+ * <p/>
+ * A Future can't call back when it completes, so the time recorded runs until the caller finds out rather than until
+ * the work finished. Callers that wait in get() see the difference shrink to a wake up. The invocation is counted
+ * as soon as the future is handed back, see {@link com.joshcanfield.tapestry5.monitor.MonitorStats#futureHandedBack()},
+ * so a future that is never looked at again is counted but its time and outcome are never known. A failure is
+ * recorded as the cause of the ExecutionException, or as the CancellationException of a cancelled future.
+ */
+public class MonitoredFuture<T> implements Future<T> {
+    private final Future<T> future;
+    private final MonitorAdvice advice;
+    private final MethodInvocation invocation;
+    private final long start;
+    private final AtomicBoolean recorded = new AtomicBoolean();
+
+    /**
+     * @param future     returned by the invocation
+     * @param advice     records the invocation
+     * @param invocation that returned the future
+     * @param start      the clock's time when the invocation started
+     */
+    public MonitoredFuture(Future<T> future, MonitorAdvice advice, MethodInvocation invocation, long start) {
+        this.future = future;
+        this.advice = advice;
+        this.invocation = invocation;
+        this.start = start;
+    }
+
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return future.cancel(mayInterruptIfRunning);
+    }
+
+    public boolean isCancelled() {
+        return future.isCancelled();
+    }
+
+    public boolean isDone() {
+        final boolean done = future.isDone();
+        if (done && !recorded.get()) {
+            // get() doesn't block once the future is done, it's only called for the outcome
+            try {
+                get();
+            } catch (Exception ignored) {
+                // recorded by get()
+            }
+        }
+        return done;
+    }
+
+    public T get() throws InterruptedException, ExecutionException {
+        final T value;
+        try {
+            value = future.get();
+        } catch (ExecutionException e) {
+            complete(e);
+            throw e;
+        } catch (CancellationException e) {
+            complete(e);
+            throw e;
+        }
+        complete(null);
+        return value;
+    }
+
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        final T value;
+        try {
+            value = future.get(timeout, unit);
+        } catch (ExecutionException e) {
+            complete(e);
+            throw e;
+        } catch (CancellationException e) {
+            complete(e);
+            throw e;
+        }
+        complete(null);
+        return value;
+    }
+
+    private void complete(Exception failure) {
+        if (!recorded.compareAndSet(false, true)) return;
+
+        if (failure instanceof ExecutionException) {
+            final Throwable cause = failure.getCause();
+            // an Error or a missing cause is recorded as the ExecutionException itself
+            if (cause instanceof Exception) failure = (Exception) cause;
+        }
+        advice.complete(invocation, start, failure);
+    }
+}
@@ -0,0 +1,120 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorsMBean;
+import org.javasimon.Stopwatch;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.management.openmbean.TabularData;
+import javax.management.openmbean.TabularDataSupport;
+import javax.management.openmbean.TabularType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the table from the {@link MonitorStatsSource} on each read. The percentile columns are taken from the
+ * first monitor, every monitor reports the percentiles configured with
+ * {@link com.joshcanfield.tapestry5.monitor.MonitorSymbols#PERCENTILES}.
+ */
+public class MonitorsMBeanImpl implements MonitorsMBean {
+    private static final String[] NAMES = {"name", "objectName", "count", "total", "min", "max", "mean",
+            "sampleRate", "invocationCount", "invocationTotal", "active", "maxActive", "errors"};
+
+    private static final OpenType<?>[] TYPES = {SimpleType.STRING, SimpleType.STRING, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.DOUBLE, SimpleType.INTEGER, SimpleType.LONG,
+            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG};
+
+    private final MonitorStatsSource monitorStatsSource;
+
+    public MonitorsMBeanImpl(MonitorStatsSource monitorStatsSource) {
+        this.monitorStatsSource = monitorStatsSource;
+    }
+
+    public TabularData getMonitors() {
+        return monitors("");
+    }
+
+    public TabularData monitors(String prefix) {
+        final Collection<MonitorStats> all = monitorStatsSource.getAllStats();
+        final Iterator<MonitorStats> first = all.iterator();
+        try {
+            final CompositeType rowType = rowType(first.hasNext() ? first.next() : null);
+            final TabularDataSupport table = new TabularDataSupport(
+                    new TabularType("Monitors", "Every monitor's stats", rowType, new String[]{"name"}));
+
+            for (MonitorStats stats : all) {
+                if (prefix != null && !stats.getName().startsWith(prefix)) continue;
+                table.put(new CompositeDataSupport(rowType, row(stats)));
+            }
+            return table;
+        } catch (OpenDataException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static CompositeType rowType(MonitorStats stats) throws OpenDataException {
+        final List<String> names = new ArrayList<String>(Arrays.asList(NAMES));
+        final List<OpenType<?>> types = new ArrayList<OpenType<?>>(Arrays.asList(TYPES));
+        for (int i = 0; stats != null && i < stats.getPercentileCount(); i++) {
+            names.add(stats.getPercentileName(i));
+            types.add(SimpleType.LONG);
+        }
+
+        final String[] items = names.toArray(new String[names.size()]);
+        return new CompositeType("Monitor", "A monitor's stats", items, items,
+                types.toArray(new OpenType<?>[types.size()]));
+    }
+
+    private static Map<String, Object> row(MonitorStats stats) {
+        final Stopwatch stopwatch = stats.getStopwatch();
+        final long count = stopwatch.getCounter();
+        final ObjectName objectName = stats.getObjectName();
+
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("name", stats.getName());
+        values.put("objectName", objectName == null ? "" : objectName.getCanonicalName());
+        values.put("count", count);
+        values.put("total", stopwatch.getTotal());
+        values.put("min", count == 0 ? 0L : stopwatch.getMin());
+        values.put("max", stopwatch.getMax());
+        values.put("mean", stopwatch.getMean());
+        values.put("sampleRate", stats.getSampleRate());
+        values.put("invocationCount", stats.getInvocationCount());
+        values.put("invocationTotal", stats.getInvocationTotal());
+        values.put("active", stats.getActive());
+        values.put("maxActive", stats.getMaxActive());
+        values.put("errors", stats.getErrorCount());
+
+        final long[] percentiles = new long[stats.getPercentileCount()];
+        stats.getPercentileValues(percentiles);
+        for (int i = 0; i < percentiles.length; i++) {
+            values.put(stats.getPercentileName(i), percentiles[i]);
+        }
+        return values;
+    }
+}
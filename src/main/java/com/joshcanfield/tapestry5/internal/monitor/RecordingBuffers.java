@@ -0,0 +1,109 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.apache.tapestry5.ioc.services.ThreadCleanupListener;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Per-thread buffers that hold recorded invocations until they are flushed into the shared stats.
+ * <p/>
+ * Recording only writes to the current thread's buffer. A buffer is flushed when it fills up, when the
+ * {@link PerthreadManager} cleans up at the end of a request, and whenever {@link #flush()} is called, which
+ * {@link com.joshcanfield.tapestry5.monitor.MonitorModule} schedules on the
+ * {@link com.joshcanfield.tapestry5.monitor.MonitorSymbols#FLUSH_INTERVAL}. Each buffer is guarded by its own
+ * lock, which only the owning thread takes until a scheduled flush comes along.
+ */
+public class RecordingBuffers {
+    private final int capacity;
+    private final PerthreadManager perthreadManager;
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<Buffer>();
+
+    private final ThreadLocal<Buffer> current = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            final Buffer buffer = new Buffer();
+            buffers.add(buffer);
+            return buffer;
+        }
+    };
+
+    /**
+     * @param capacity         the number of invocations a thread holds before flushing
+     * @param perthreadManager notifies the buffers at the end of each request
+     */
+    public RecordingBuffers(int capacity, PerthreadManager perthreadManager) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        this.capacity = capacity;
+        this.perthreadManager = perthreadManager;
+    }
+
+    public void record(BufferedMonitorStats stats, long ns) {
+        current.get().add(stats, ns);
+    }
+
+    /**
+     * Flushes every thread's buffer and forgets the buffers of threads that have died.
+     */
+    public void flush() {
+        for (Iterator<Buffer> iterator = buffers.iterator(); iterator.hasNext(); ) {
+            final Buffer buffer = iterator.next();
+            buffer.flush();
+            if (!buffer.isOwnerAlive()) iterator.remove();
+        }
+    }
+
+    private final class Buffer implements ThreadCleanupListener {
+        private final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        private final BufferedMonitorStats[] stats = new BufferedMonitorStats[capacity];
+        private final long[] times = new long[capacity];
+        private int size;
+        private boolean listening;
+
+        synchronized void add(BufferedMonitorStats monitorStats, long ns) {
+            if (!listening) {
+                // cleanup listeners are dropped at the end of each request
+                perthreadManager.addThreadCleanupListener(this);
+                listening = true;
+            }
+
+            stats[size] = monitorStats;
+            times[size] = ns;
+            if (++size == capacity) flush();
+        }
+
+        synchronized void flush() {
+            for (int i = 0; i < size; i++) {
+                if (stats[i] != null) stats[i].flush(stats, times, i, size);
+            }
+            size = 0;
+        }
+
+        public synchronized void threadDidCleanup() {
+            listening = false;
+            flush();
+        }
+
+        boolean isOwnerAlive() {
+            final Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+}
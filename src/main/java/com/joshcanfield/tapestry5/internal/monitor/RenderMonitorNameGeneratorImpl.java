@@ -0,0 +1,54 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.DefaultMonitorNameGenerator;
+import com.joshcanfield.tapestry5.monitor.RenderMonitorNameGenerator;
+import org.apache.tapestry5.ioc.annotations.Autobuild;
+import org.apache.tapestry5.ioc.util.StrategyRegistry;
+
+import javax.management.ObjectName;
+import java.util.Map;
+
+/**
+ * Choose a render monitor name generator by the class of the component.
+ */
+public class RenderMonitorNameGeneratorImpl implements RenderMonitorNameGenerator {
+
+    private final StrategyRegistry<RenderMonitorNameGenerator> strategyRegistry;
+    private final DefaultMonitorNameGenerator defaultMonitorNameGenerator;
+
+    public RenderMonitorNameGeneratorImpl(
+            Map<Class, RenderMonitorNameGenerator> source,
+            @Autobuild
+            DefaultMonitorNameGenerator defaultMonitorNameGenerator
+    ) {
+        this.defaultMonitorNameGenerator = defaultMonitorNameGenerator;
+        strategyRegistry = StrategyRegistry.newInstance(RenderMonitorNameGenerator.class, source, true);
+    }
+
+    public String getRenderMonitorName(Class componentClass, String phase) {
+        return getNameGenerator(componentClass).getRenderMonitorName(componentClass, phase);
+    }
+
+    public ObjectName getRenderJmxObjectName(Class componentClass, String phase) {
+        return getNameGenerator(componentClass).getRenderJmxObjectName(componentClass, phase);
+    }
+
+    private RenderMonitorNameGenerator getNameGenerator(Class componentClass) {
+        RenderMonitorNameGenerator nameGenerator = strategyRegistry.get(componentClass);
+        if (nameGenerator == null) nameGenerator = defaultMonitorNameGenerator;
+        return nameGenerator;
+    }
+}
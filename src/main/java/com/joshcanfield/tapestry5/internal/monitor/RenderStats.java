@@ -0,0 +1,59 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The stats of one render monitor, such as "BeginRender", for each component class. A phase advised on a base class
+ * runs for every page or component extending it, so the stats are picked by the class of the component rendering
+ * and created the first time that class renders.
+ * <p/>
+ * Classes are held by name, so a reloaded component class carries on with the same stats and isn't kept from being
+ * collected.
+ */
+public abstract class RenderStats {
+    private final ConcurrentMap<String, MonitorStats> stats = new ConcurrentHashMap<String, MonitorStats>();
+
+    /**
+     * @param component being rendered
+     * @return the stats of the component's class
+     */
+    public MonitorStats get(Object component) {
+        final MonitorStats classStats = stats.get(component.getClass().getName());
+        return classStats != null ? classStats : create(component.getClass());
+    }
+
+    /**
+     * Creating the stats registers their MBean, so it is only done once for each class.
+     */
+    private synchronized MonitorStats create(Class<?> componentClass) {
+        MonitorStats classStats = stats.get(componentClass.getName());
+        if (classStats == null) {
+            classStats = createStats(componentClass);
+            stats.put(componentClass.getName(), classStats);
+        }
+        return classStats;
+    }
+
+    /**
+     * @param componentClass the first component of the class to render
+     * @return the stats for the class
+     */
+    protected abstract MonitorStats createStats(Class<?> componentClass);
+}
@@ -0,0 +1,123 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.apache.tapestry5.ioc.services.PerThreadValue;
+import org.apache.tapestry5.plastic.MethodAdvice;
+import org.apache.tapestry5.plastic.MethodInvocation;
+
+import java.util.Arrays;
+
+/**
+ * Times each component's whole render, from its SetupRender phase to its CleanupRender phase, so the time includes
+ * its template, its body and every component rendered inside it.
+ * <p/>
+ * The render is recorded in the {@link RenderStats} of the class of the component rendering, which for a page
+ * extending a monitored base class is the page's.
+ * <p/>
+ * Components render strictly nested on the request thread, so the start times are kept on a stack per thread: the
+ * {@link #setup(RenderStats) setup} advice pushes and the {@link #cleanup(RenderStats) cleanup} advice pops. A
+ * render cut short by an exception leaves its entries behind; the cleanup of an enclosing component skips past them
+ * and the {@link PerthreadManager} discards the rest at the end of the request.
+ */
+public class RenderTimer {
+    private final PerThreadValue<Frames> frames;
+    private final MonitorClockSource clockSource;
+
+    /**
+     * @param clockSource whose default clock times the renders, asked for when a component is advised
+     */
+    public RenderTimer(PerthreadManager perthreadManager, MonitorClockSource clockSource) {
+        this.frames = perthreadManager.createValue();
+        this.clockSource = clockSource;
+    }
+
+    /**
+     * @return advice for the component's SetupRender phase
+     */
+    public MethodAdvice setup(final RenderStats stats) {
+        final MonitorClock clock = clockSource.getClock(Monitor.Clock.Default);
+        return new MethodAdvice() {
+            public void advise(MethodInvocation invocation) {
+                frames().push(stats.get(invocation.getInstance()), clock.nanoTime());
+                invocation.proceed();
+            }
+        };
+    }
+
+    /**
+     * @return advice for the component's CleanupRender phase, which records the render into the stats
+     */
+    public MethodAdvice cleanup(final RenderStats stats) {
+        final MonitorClock clock = clockSource.getClock(Monitor.Clock.Default);
+        return new MethodAdvice() {
+            public void advise(MethodInvocation invocation) {
+                invocation.proceed();
+
+                final long end = clock.nanoTime();
+                final MonitorStats componentStats = stats.get(invocation.getInstance());
+                final long start = frames().pop(componentStats);
+                if (start != Frames.NONE) componentStats.record(end - start, end);
+            }
+        };
+    }
+
+    private Frames frames() {
+        Frames current = frames.get();
+        if (current == null) current = frames.set(new Frames());
+        return current;
+    }
+
+    /**
+     * The components being rendered on a thread, innermost last.
+     */
+    private static final class Frames {
+        static final long NONE = Long.MIN_VALUE;
+
+        private MonitorStats[] stats = new MonitorStats[16];
+        private long[] starts = new long[16];
+        private int size;
+
+        void push(MonitorStats monitorStats, long start) {
+            if (size == stats.length) {
+                stats = Arrays.copyOf(stats, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+            }
+            stats[size] = monitorStats;
+            starts[size++] = start;
+        }
+
+        /**
+         * Pops the innermost frame for the stats along with any left above it.
+         *
+         * @return when the render started, NONE if the stats have no frame
+         */
+        long pop(MonitorStats monitorStats) {
+            for (int i = size - 1; i >= 0; i--) {
+                if (stats[i] != monitorStats) continue;
+
+                Arrays.fill(stats, i, size, null);
+                size = i;
+                return starts[i];
+            }
+            return NONE;
+        }
+    }
+}
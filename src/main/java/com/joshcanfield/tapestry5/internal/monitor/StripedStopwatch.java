@@ -0,0 +1,366 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.javasimon.EnabledManager;
+import org.javasimon.Manager;
+import org.javasimon.Simon;
+import org.javasimon.SimonState;
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.javasimon.StopwatchSample;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link Stopwatch} that records into striped counters instead of synchronizing on every {@link #addTime(long)}.
+ * <p/>
+ * Each thread hashes onto one of a power-of-two number of stripes holding count, total, min, max and the sum of
+ * squares. Stripes are padded out to their own cache lines so threads on different cores don't write to the same
+ * line. Reads sum the stripes and hand back the same values a javasimon stopwatch would, so the MXBeans built by
+ * {@link org.javasimon.jmx.StopwatchMXBeanFactory} work unchanged. Reads taken while calls are being recorded
+ * may see a call in some of the totals and not yet in others.
+ * <p/>
+ * The name, hierarchy, state, note and attributes belong to a javasimon stopwatch of the same name, which also
+ * times the splits handed out by {@link #start()}. It lives in a manager of its own rather than in
+ * {@link org.javasimon.SimonManager}, where it would show none of the times recorded here; its counters are folded
+ * into the striped ones on every read and {@link #reset()} resets both.
+ */
+public class StripedStopwatch implements Stopwatch {
+
+    // slots within a stripe, padded to 16 longs (128 bytes) so that neighbouring stripes don't share a cache line
+    private static final int COUNT = 0;
+    private static final int TOTAL = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int SUM_OF_SQUARES = 4;
+    private static final int LAST = 5;
+    private static final int MIN_TIMESTAMP = 6;
+    private static final int MAX_TIMESTAMP = 7;
+    private static final int LAST_USAGE = 8;
+    private static final int STRIDE = 16;
+
+    /**
+     * Holds the javasimon side of striped stopwatches, out of sight of SimonManager.
+     */
+    private static final Manager MANAGER = new EnabledManager();
+
+    private final Stopwatch simon;
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    private volatile long firstUsage;
+    private volatile long lastReset;
+
+    public StripedStopwatch(String name) {
+        this(name, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public StripedStopwatch(String name, int concurrency) {
+        this.simon = MANAGER.getStopwatch(name);
+
+        int stripes = 1;
+        while (stripes < concurrency) stripes <<= 1;
+
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * STRIDE);
+        clear();
+    }
+
+    public Stopwatch addTime(long ns) {
+        final int base = stripe();
+
+        cells.incrementAndGet(base + COUNT);
+        cells.addAndGet(base + TOTAL, ns);
+        addSquare(base + SUM_OF_SQUARES, (double) ns * ns);
+        cells.lazySet(base + LAST, ns);
+
+        final long now = System.currentTimeMillis();
+        cells.lazySet(base + LAST_USAGE, now);
+        if (firstUsage == 0) firstUsage = now;
+
+        long min;
+        while (ns < (min = cells.get(base + MIN))) {
+            if (cells.compareAndSet(base + MIN, min, ns)) {
+                cells.lazySet(base + MIN_TIMESTAMP, now);
+                break;
+            }
+        }
+        long max;
+        while (ns > (max = cells.get(base + MAX))) {
+            if (cells.compareAndSet(base + MAX, max, ns)) {
+                cells.lazySet(base + MAX_TIMESTAMP, now);
+                break;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Threads keep to the same stripe for as long as they live.
+     */
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) * STRIDE;
+    }
+
+    private void addSquare(int index, double square) {
+        long current;
+        do {
+            current = cells.get(index);
+        } while (!cells.compareAndSet(index, current,
+                Double.doubleToRawLongBits(Double.longBitsToDouble(current) + square)));
+    }
+
+    private void clear() {
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            cells.set(base + COUNT, 0);
+            cells.set(base + TOTAL, 0);
+            cells.set(base + MIN, Long.MAX_VALUE);
+            cells.set(base + MAX, 0);
+            cells.set(base + SUM_OF_SQUARES, Double.doubleToRawLongBits(0));
+            cells.set(base + LAST, 0);
+            cells.set(base + MIN_TIMESTAMP, 0);
+            cells.set(base + MAX_TIMESTAMP, 0);
+            cells.set(base + LAST_USAGE, 0);
+        }
+    }
+
+    public Stopwatch reset() {
+        simon.reset();
+        clear();
+        firstUsage = 0;
+        lastReset = System.currentTimeMillis();
+        return this;
+    }
+
+    public long getCounter() {
+        return sum(COUNT) + simon.getCounter();
+    }
+
+    public long getTotal() {
+        return sum(TOTAL) + simon.getTotal();
+    }
+
+    private long sum(int slot) {
+        long sum = 0;
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            sum += cells.get(base + slot);
+        }
+        return sum;
+    }
+
+    private double sumOfSquares() {
+        final long counter = simon.getCounter();
+        final double mean = simon.getMean();
+        double sum = simon.getVarianceN() * counter + mean * mean * counter;
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            sum += Double.longBitsToDouble(cells.get(base + SUM_OF_SQUARES));
+        }
+        return sum;
+    }
+
+    public long getMin() {
+        return Math.min(cells.get(extreme(MIN) + MIN), simon.getMin());
+    }
+
+    public long getMinTimestamp() {
+        final int base = extreme(MIN);
+        return simon.getMin() < cells.get(base + MIN) ? simon.getMinTimestamp() : cells.get(base + MIN_TIMESTAMP);
+    }
+
+    public long getMax() {
+        return Math.max(cells.get(extreme(MAX) + MAX), simon.getMax());
+    }
+
+    public long getMaxTimestamp() {
+        final int base = extreme(MAX);
+        return simon.getMax() > cells.get(base + MAX) ? simon.getMaxTimestamp() : cells.get(base + MAX_TIMESTAMP);
+    }
+
+    /**
+     * The base of the stripe holding the smallest min or largest max.
+     */
+    private int extreme(int slot) {
+        int found = 0;
+        for (int base = STRIDE; base < cells.length(); base += STRIDE) {
+            final long value = cells.get(base + slot);
+            final long best = cells.get(found + slot);
+            if (slot == MIN ? value < best : value > best) found = base;
+        }
+        return found;
+    }
+
+    /**
+     * The last time recorded by the most recently used stripe, or by the last split.
+     */
+    public long getLast() {
+        final int base = extreme(LAST_USAGE);
+        return simon.getLastUsage() > cells.get(base + LAST_USAGE) ? simon.getLast() : cells.get(base + LAST);
+    }
+
+    public long getLastUsage() {
+        return Math.max(cells.get(extreme(LAST_USAGE) + LAST_USAGE), simon.getLastUsage());
+    }
+
+    public long getFirstUsage() {
+        final long simonUsage = simon.getFirstUsage();
+        if (firstUsage == 0) return simonUsage;
+        return simonUsage == 0 ? firstUsage : Math.min(firstUsage, simonUsage);
+    }
+
+    public long getLastReset() {
+        return lastReset;
+    }
+
+    public double getMean() {
+        final long counter = getCounter();
+        return counter == 0 ? 0 : (double) getTotal() / counter;
+    }
+
+    public double getVarianceN() {
+        return variance(0);
+    }
+
+    public double getVariance() {
+        return variance(1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVarianceN());
+    }
+
+    private double variance(int correction) {
+        final long counter = getCounter();
+        if (counter <= correction) return 0;
+
+        final double mean = (double) getTotal() / counter;
+        final double variance = (sumOfSquares() - counter * mean * mean) / (counter - correction);
+        return variance < 0 ? 0 : variance;
+    }
+
+    /**
+     * Only splits are counted as active, times added with {@link #addTime(long)} are already complete.
+     */
+    public long getActive() {
+        return simon.getActive();
+    }
+
+    public long getMaxActive() {
+        return simon.getMaxActive();
+    }
+
+    public long getMaxActiveTimestamp() {
+        return simon.getMaxActiveTimestamp();
+    }
+
+    public StopwatchSample sample() {
+        StopwatchSample sample = new StopwatchSample();
+        sample.setName(getName());
+        sample.setNote(getNote());
+        sample.setCounter(getCounter());
+        sample.setTotal(getTotal());
+        sample.setMin(getMin());
+        sample.setMinTimestamp(getMinTimestamp());
+        sample.setMax(getMax());
+        sample.setMaxTimestamp(getMaxTimestamp());
+        sample.setMean(getMean());
+        sample.setVariance(getVariance());
+        sample.setVarianceN(getVarianceN());
+        sample.setStandardDeviation(getStandardDeviation());
+        sample.setLast(getLast());
+        sample.setFirstUsage(getFirstUsage());
+        sample.setLastUsage(getLastUsage());
+        sample.setLastReset(getLastReset());
+        return sample;
+    }
+
+    public StopwatchSample sampleAndReset() {
+        StopwatchSample sample = sample();
+        reset();
+        return sample;
+    }
+
+    /**
+     * Splits are bound to javasimon's own stopwatch implementation, so they are timed by the javasimon stopwatch
+     * and read back through this one. They synchronize like any javasimon split, {@link #addTime(long)} doesn't.
+     */
+    public Split start() {
+        return simon.start();
+    }
+
+    public Stopwatch addSplit(Split split) {
+        simon.addSplit(split);
+        return this;
+    }
+
+    // Everything else belongs to the javasimon stopwatch
+
+    public String getName() {
+        return simon.getName();
+    }
+
+    public Simon getParent() {
+        return simon.getParent();
+    }
+
+    public List<Simon> getChildren() {
+        return simon.getChildren();
+    }
+
+    public SimonState getState() {
+        return simon.getState();
+    }
+
+    public void setState(SimonState state, boolean overrule) {
+        simon.setState(state, overrule);
+    }
+
+    public boolean isEnabled() {
+        return simon.isEnabled();
+    }
+
+    public String getNote() {
+        return simon.getNote();
+    }
+
+    public void setNote(String note) {
+        simon.setNote(note);
+    }
+
+    public void setAttribute(String name, Object value) {
+        simon.setAttribute(name, value);
+    }
+
+    public Object getAttribute(String name) {
+        return simon.getAttribute(name);
+    }
+
+    public void removeAttribute(String name) {
+        simon.removeAttribute(name);
+    }
+
+    public Iterator<String> getAttributeNames() {
+        return simon.getAttributeNames();
+    }
+
+    @Override
+    public String toString() {
+        return "StripedStopwatch '" + getName() + "' count=" + getCounter() + ", total=" + getTotal();
+    }
+}
@@ -0,0 +1,130 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Buffers characters so the response writer sees a few large writes, and formats numbers without creating strings.
+ * Used by the endpoints that are polled often enough for garbage to matter.
+ */
+public class TextOutput {
+    private final Writer writer;
+    private final char[] buffer = new char[8192];
+    private int size;
+
+    public TextOutput(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Writes a JSON name and number, opening the object for the first field.
+     */
+    public void field(String name, long value, boolean first) throws IOException {
+        if (first) {
+            write('{');
+        } else {
+            write(',');
+        }
+        string(name);
+        write(':');
+        number(value);
+    }
+
+    public void write(char c) throws IOException {
+        if (size == buffer.length) flushBuffer();
+        buffer[size++] = c;
+    }
+
+    public void write(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    /**
+     * Writes a quoted, escaped JSON string.
+     */
+    public void string(String s) throws IOException {
+        write('"');
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c < 0x20) {
+                write("\\u00");
+                write(Character.forDigit(c >> 4, 16));
+                write(Character.forDigit(c & 0xF, 16));
+            } else {
+                write(c);
+            }
+        }
+        write('"');
+    }
+
+    public void number(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            write("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+
+        if (buffer.length - size < 19) flushBuffer();
+        final int start = size;
+        do {
+            buffer[size++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+
+        // digits were written least significant first
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            final char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+    }
+
+    /**
+     * Writes nanoseconds as seconds with nine decimal places.
+     */
+    public void seconds(long ns) throws IOException {
+        if (ns < 0) {
+            write('-');
+            ns = -ns;
+        }
+        number(ns / 1000000000L);
+        write('.');
+
+        final long fraction = ns % 1000000000L;
+        for (long digit = 100000000L; digit > 0; digit /= 10) {
+            write((char) ('0' + fraction / digit % 10));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        writer.write(buffer, 0, size);
+        size = 0;
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        writer.flush();
+    }
+}
@@ -0,0 +1,121 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the invocations of a monitor in flight without a counter shared by every caller.
+ * <p/>
+ * Like {@link com.joshcanfield.tapestry5.internal.monitor.StripedStopwatch} each thread hashes onto one of a
+ * power-of-two number of stripes padded out to their own cache lines, and reads sum the stripes. A thread enters and
+ * exits on the same stripe, but the sum is right whichever stripe an invocation leaves from.
+ * <p/>
+ * The peak can't be kept exactly without the shared counter, so it is sampled: the first invocation to enter each
+ * stripe since the peak was reset and every 64th after it sum the stripes, as does every read. Sustained
+ * concurrency is sampled many times over, a burst shorter than 64 invocations on every stripe can be missed. The
+ * peak and its timestamp are updated together under a lock that only the samples take.
+ */
+final class ActiveGauge {
+
+    // slots within a stripe, padded to 16 longs (128 bytes) so that neighbouring stripes don't share a cache line
+    private static final int ACTIVE = 0;
+    private static final int ENTERED = 1;
+    private static final int STRIDE = 16;
+
+    private static final int SAMPLE_MASK = 63;
+
+    private final int mask;
+    private final AtomicLongArray cells;
+
+    private volatile long max;
+    private volatile long maxTimestamp;
+
+    ActiveGauge() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    ActiveGauge(int concurrency) {
+        int stripes = 1;
+        while (stripes < concurrency) stripes <<= 1;
+
+        mask = stripes - 1;
+        cells = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    void enter() {
+        final int base = stripe();
+        cells.incrementAndGet(base + ACTIVE);
+
+        // threads sharing a stripe can lose the odd count, which only moves the next sample
+        final long entered = cells.get(base + ENTERED) + 1;
+        cells.lazySet(base + ENTERED, entered);
+        if ((entered & SAMPLE_MASK) == 1) sample();
+    }
+
+    void exit() {
+        cells.decrementAndGet(stripe() + ACTIVE);
+    }
+
+    long getActive() {
+        long active = 0;
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            active += cells.get(base + ACTIVE);
+        }
+        return active;
+    }
+
+    long getMax() {
+        sample();
+        return max;
+    }
+
+    long getMaxTimestamp() {
+        sample();
+        return maxTimestamp;
+    }
+
+    /**
+     * Starts the peak again from the invocations in flight, the next invocation on each stripe samples it.
+     */
+    synchronized void resetMax() {
+        for (int base = 0; base < cells.length(); base += STRIDE) {
+            cells.lazySet(base + ENTERED, 0);
+        }
+        max = getActive();
+        maxTimestamp = System.currentTimeMillis();
+    }
+
+    private void sample() {
+        final long active = getActive();
+        if (active <= max) return;
+
+        synchronized (this) {
+            if (active > max) {
+                max = active;
+                maxTimestamp = System.currentTimeMillis();
+            }
+        }
+    }
+
+    /**
+     * Threads keep to the same stripe for as long as they live.
+     */
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & mask) * STRIDE;
+    }
+}
@@ -0,0 +1,221 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * The monitored invocations made while handling one request, nested the way they called each other.
+ * <p/>
+ * Nodes are kept in parallel arrays and numbered in the order they were first entered. Node {@link #ROOT} is the
+ * request itself, its children are the monitored invocations made directly by the request. Repeated invocations
+ * of the same monitor from the same parent share a node, so a loop calling a service a thousand times is one node
+ * with a count of a thousand. Once the tree is full further monitors aren't added, they are counted by
+ * {@link #getDropped()}.
+ * <p/>
+ * Each thread reuses its tree for every request, so a tree handed to a {@link CallTreeListener} must be copied if
+ * it is needed after the listener returns. Only the owning thread may call {@link #enter(MonitorStats)} and
+ * {@link #exit(int, long)}.
+ */
+public class CallTree {
+    public static final int ROOT = 0;
+
+    /**
+     * Returned by {@link #enter(MonitorStats)} when the tree is full, and by the navigation methods when there is
+     * no such node.
+     */
+    public static final int NONE = -1;
+
+    private final MonitorStats[] stats;
+    private final int[] parent;
+    private final int[] firstChild;
+    private final int[] lastChild;
+    private final int[] nextSibling;
+    private final long[] count;
+    private final long[] total;
+
+    private String name;
+    private long start;
+    private int size;
+    private int current;
+    private int dropped;
+    private boolean active;
+
+    /**
+     * @param capacity the most monitors recorded per request
+     */
+    public CallTree(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+
+        stats = new MonitorStats[capacity + 1];
+        parent = new int[capacity + 1];
+        firstChild = new int[capacity + 1];
+        lastChild = new int[capacity + 1];
+        nextSibling = new int[capacity + 1];
+        count = new long[capacity + 1];
+        total = new long[capacity + 1];
+    }
+
+    void begin(String name, long now) {
+        this.name = name;
+        start = now;
+        dropped = 0;
+        size = 1;
+        current = ROOT;
+        clear(ROOT, NONE);
+        count[ROOT] = 1;
+        active = true;
+    }
+
+    void end(long now) {
+        active = false;
+        total[ROOT] = now - start;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Starts an invocation of a monitor under the current node.
+     *
+     * @return the node to pass to {@link #exit(int, long)}, {@link #NONE} if the tree is full
+     */
+    public int enter(MonitorStats monitorStats) {
+        for (int child = firstChild[current]; child != NONE; child = nextSibling[child]) {
+            if (stats[child] == monitorStats) return current = child;
+        }
+        if (size == stats.length) {
+            dropped++;
+            return NONE;
+        }
+
+        final int node = size++;
+        clear(node, current);
+        stats[node] = monitorStats;
+        if (firstChild[current] == NONE) {
+            firstChild[current] = node;
+        } else {
+            nextSibling[lastChild[current]] = node;
+        }
+        lastChild[current] = node;
+        return current = node;
+    }
+
+    /**
+     * Ends an invocation, making its parent the current node again.
+     *
+     * @param node from {@link #enter(MonitorStats)}
+     * @param ns   the invocation took
+     */
+    public void exit(int node, long ns) {
+        if (node == NONE) return;
+        count[node]++;
+        total[node] += ns;
+        current = parent[node];
+    }
+
+    private void clear(int node, int parentNode) {
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        lastChild[node] = NONE;
+        nextSibling[node] = NONE;
+        count[node] = 0;
+        total[node] = 0;
+    }
+
+    /**
+     * @return the number of nodes including the root
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the monitor's name, or the request path for the root
+     */
+    public String getName(int node) {
+        return node == ROOT ? name : stats[node].getName();
+    }
+
+    /**
+     * @return the stats of the node's monitor, null for the root
+     */
+    public MonitorStats getStats(int node) {
+        return stats[node];
+    }
+
+    public int getParent(int node) {
+        return parent[node];
+    }
+
+    public int getFirstChild(int node) {
+        return firstChild[node];
+    }
+
+    public int getNextSibling(int node) {
+        return nextSibling[node];
+    }
+
+    /**
+     * @return the number of completed invocations
+     */
+    public long getCount(int node) {
+        return count[node];
+    }
+
+    /**
+     * @return the nanoseconds spent in the completed invocations
+     */
+    public long getTotal(int node) {
+        return total[node];
+    }
+
+    /**
+     * @return the monitored invocations that weren't recorded because the tree was full
+     */
+    public int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Writes the tree depth first as "depth name count milliseconds" entries separated by ';', for example
+     * "0 /index 1 12.500;1 pages.Index.onActivate 1 10.250;2 services.HelloService.monitoredMethod 3 2.000".
+     */
+    public void write(StringBuilder builder) {
+        write(builder, ROOT, 0);
+    }
+
+    private void write(StringBuilder builder, int node, int depth) {
+        if (node != ROOT) builder.append(';');
+        builder.append(depth).append(' ').append(getName(node)).append(' ').append(count[node]).append(' ');
+
+        final long micros = total[node] / 1000;
+        builder.append(micros / 1000).append('.');
+        final long fraction = micros % 1000;
+        if (fraction < 100) builder.append('0');
+        if (fraction < 10) builder.append('0');
+        builder.append(fraction);
+
+        for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+            write(builder, child, depth + 1);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        write(builder);
+        return builder.toString();
+    }
+}
@@ -0,0 +1,28 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * Told about each request's {@link CallTree} when the request is complete, on the request's thread. Listeners are
+ * contributed to the CallTreeListener service, which calls them in order, and only hear from requests when
+ * {@link MonitorSymbols#CALL_TREE} is enabled.
+ */
+public interface CallTreeListener {
+
+    /**
+     * @param tree of the request, reused once the listener returns
+     */
+    void requestComplete(CallTree tree);
+}
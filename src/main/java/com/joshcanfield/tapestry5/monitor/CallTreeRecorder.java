@@ -0,0 +1,86 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import org.apache.tapestry5.ioc.services.PerThreadValue;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+
+/**
+ * Keeps a {@link CallTree} for each thread. A tree only records between {@link #begin(String)} and {@link #end()},
+ * monitored invocations outside a request cost a per-thread lookup.
+ * <p/>
+ * The trees are held by the {@link PerthreadManager}, which drops them at the end of each request, so a pooled
+ * thread doesn't keep the monitors, and through them the application's class loader, alive after it is undeployed.
+ */
+public class CallTreeRecorder {
+    private final MonitorClock clock;
+    private final int capacity;
+    private final PerThreadValue<CallTree> trees;
+
+    /**
+     * @param clock            times the request
+     * @param capacity         the most monitors recorded per request
+     * @param perthreadManager holds each thread's tree until the end of the request
+     */
+    public CallTreeRecorder(MonitorClock clock, int capacity, PerthreadManager perthreadManager) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+        this.clock = clock;
+        this.capacity = capacity;
+        this.trees = perthreadManager.createValue();
+    }
+
+    private CallTree tree() {
+        CallTree tree = trees.get();
+        if (tree == null) {
+            tree = new CallTree(capacity);
+            trees.set(tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Starts recording the current thread's tree.
+     *
+     * @param name of the root, the request path
+     * @return the tree, or null if one is already being recorded
+     */
+    public CallTree begin(String name) {
+        final CallTree tree = tree();
+        if (tree.isActive()) return null;
+
+        tree.begin(name, clock.nanoTime());
+        return tree;
+    }
+
+    /**
+     * Stops recording the current thread's tree.
+     *
+     * @return the finished tree
+     */
+    public CallTree end() {
+        final CallTree tree = tree();
+        tree.end(clock.nanoTime());
+        return tree;
+    }
+
+    /**
+     * @return the tree being recorded on this thread, null outside a request
+     */
+    public CallTree current() {
+        // no tree is made here, threads outside a request never get one
+        final CallTree tree = trees.get();
+        return tree != null && tree.isActive() ? tree : null;
+    }
+}
@@ -12,7 +12,7 @@ import java.lang.reflect.Method;
 /**
  * Provide a service override to replace the default behavior.
  */
-public class DefaultMonitorNameGenerator implements MonitorNameGenerator {
+public class DefaultMonitorNameGenerator implements MonitorNameGenerator, RenderMonitorNameGenerator {
     private final String appPackage;
 
     public DefaultMonitorNameGenerator(
@@ -35,13 +35,7 @@ public class DefaultMonitorNameGenerator implements MonitorNameGenerator {
             return monitor.value();
         }
 
-        String mediumDescription = owningClass.getCanonicalName() + "." + getMediumDescription(method);
-        if (mediumDescription.startsWith(appPackage)) {
-            mediumDescription = mediumDescription.substring(appPackage.length() + 1);
-        }
-
-        // no spaces in the name
-        return mediumDescription.replaceAll("\\s", "").replace('.', '_');
+        return name(owningClass, getMediumDescription(method));
     }
 
     /**
@@ -59,6 +53,45 @@ public class DefaultMonitorNameGenerator implements MonitorNameGenerator {
      */
     // @Override - not until Java 6
     public ObjectName getJmxObjectName(Monitor monitor, Class owningClass, Method method) {
+        String desc;
+        if (monitor != null && !"".equals(monitor.value())) {
+            desc = monitor.value();
+        } else {
+            desc = getMediumDescription(method);
+        }
+        return objectName(owningClass, desc);
+    }
+
+    /**
+     * Names the phase like a method of the component.
+     *
+     * @return a name of the format "pages_Index_BeginRender"
+     */
+    // @Override - not until Java 6
+    public String getRenderMonitorName(Class componentClass, String phase) {
+        return name(componentClass, phase);
+    }
+
+    /**
+     * Names the phase like a method of the component:
+     * "org.example.tapestry:package=pages,name=Index,monitor="BeginRender",type=Monitor"
+     */
+    // @Override - not until Java 6
+    public ObjectName getRenderJmxObjectName(Class componentClass, String phase) {
+        return objectName(componentClass, phase);
+    }
+
+    private String name(Class owningClass, String desc) {
+        String mediumDescription = owningClass.getCanonicalName() + "." + desc;
+        if (mediumDescription.startsWith(appPackage)) {
+            mediumDescription = mediumDescription.substring(appPackage.length() + 1);
+        }
+
+        // no spaces in the name
+        return mediumDescription.replaceAll("\\s", "").replace('.', '_');
+    }
+
+    private ObjectName objectName(Class owningClass, String desc) {
         StringBuilder builder = new StringBuilder();
         String domain = owningClass.getPackage().getName();
         if (domain.startsWith(appPackage)) {
@@ -71,12 +104,6 @@ public class DefaultMonitorNameGenerator implements MonitorNameGenerator {
 
         builder.append("name=").append(owningClass.getSimpleName()).append(',');
 
-        String desc;
-        if (monitor != null && !"".equals(monitor.value())) {
-            desc = monitor.value();
-        } else {
-            desc = getMediumDescription(method);
-        }
         builder.append("monitor=").append(ObjectName.quote(desc)).append(',');
 
         builder.append("type=Monitor");
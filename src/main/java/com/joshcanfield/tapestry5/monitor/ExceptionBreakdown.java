@@ -0,0 +1,120 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Counts and times a monitor's failed invocations by the class of exception they threw, whatever the
+ * {@link com.joshcanfield.tapestry5.annotations.Monitor#exceptions()} filters do with them. A timeout and a
+ * validation failure show up with their own latencies instead of blending in with the successful calls.
+ * <p/>
+ * At most capacity classes are kept, the first ones seen. Later classes are counted together as "other" so a
+ * method throwing many kinds of exception can't grow the map without bound. Each class holds a 2.4KB histogram,
+ * created the first time it is thrown, and "other" holds one from the first class that doesn't fit.
+ * <p/>
+ * Classes are kept by name, so a breakdown doesn't hold on to the class loaders of the exceptions it has seen.
+ */
+public class ExceptionBreakdown {
+    public static final String OTHER = "other";
+
+    private final int capacity;
+    private final double[] percentiles;
+    private final String[] percentileNames;
+    private final ConcurrentMap<String, ExceptionStats> classes = new ConcurrentHashMap<String, ExceptionStats>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicReference<ExceptionStats> other = new AtomicReference<ExceptionStats>();
+
+    /**
+     * @param capacity    the most exception classes kept separately
+     * @param percentiles reported by each class, in ascending order
+     */
+    public ExceptionBreakdown(int capacity, double[] percentiles) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity can't be negative: " + capacity);
+
+        this.capacity = capacity;
+        this.percentiles = percentiles;
+        percentileNames = new String[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            percentileNames[i] = MonitorStats.percentileName(percentiles[i]);
+        }
+    }
+
+    /**
+     * @param exceptionClass thrown by the invocation
+     * @param ns             the invocation took
+     */
+    public void record(Class exceptionClass, long ns) {
+        get(exceptionClass).record(ns);
+    }
+
+    private ExceptionStats get(Class exceptionClass) {
+        final String name = exceptionClass.getName();
+        ExceptionStats stats = classes.get(name);
+        if (stats != null) return stats;
+
+        // reserve a place before adding so racing threads can't take the map past capacity
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return other();
+        }
+        stats = create(name);
+        final ExceptionStats existing = classes.putIfAbsent(name, stats);
+        if (existing != null) {
+            size.decrementAndGet();
+            return existing;
+        }
+        return stats;
+    }
+
+    private ExceptionStats other() {
+        final ExceptionStats other = this.other.get();
+        if (other != null) return other;
+
+        // racing threads each create one, the first set is kept
+        final ExceptionStats created = create(OTHER);
+        return this.other.compareAndSet(null, created) ? created : other();
+    }
+
+    private ExceptionStats create(String name) {
+        return new ExceptionStats(name, percentiles, percentileNames);
+    }
+
+    /**
+     * @return each class thrown so far, followed by "other" if any classes didn't fit
+     */
+    public List<ExceptionStats> getExceptions() {
+        final Collection<ExceptionStats> values = classes.values();
+        final List<ExceptionStats> exceptions = new ArrayList<ExceptionStats>(values.size() + 1);
+        for (ExceptionStats stats : values) {
+            if (stats.getCount() > 0) exceptions.add(stats);
+        }
+        final ExceptionStats other = this.other.get();
+        if (other != null && other.getCount() > 0) exceptions.add(other);
+        return exceptions;
+    }
+
+    public void reset() {
+        classes.clear();
+        size.set(0);
+        other.set(null);
+    }
+}
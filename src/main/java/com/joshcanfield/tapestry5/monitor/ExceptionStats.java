@@ -0,0 +1,96 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The count and timing of the invocations of a monitor that threw one class of exception, see
+ * {@link ExceptionBreakdown}.
+ */
+public class ExceptionStats {
+    private final String exception;
+    private final double[] percentiles;
+    private final String[] percentileNames;
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final Histogram histogram = new Histogram(RollingWindow.HISTOGRAM_BITS);
+
+    ExceptionStats(String exception, double[] percentiles, String[] percentileNames) {
+        this.exception = exception;
+        this.percentiles = percentiles;
+        this.percentileNames = percentileNames;
+    }
+
+    void record(long ns) {
+        histogram.record(ns);
+        total.addAndGet(ns);
+
+        long current;
+        while (ns > (current = max.get())) {
+            if (max.compareAndSet(current, ns)) break;
+        }
+    }
+
+    /**
+     * @return the exception's class name, or "other" for the classes past the breakdown's capacity
+     */
+    public String getException() {
+        return exception;
+    }
+
+    /**
+     * @return the number of timed invocations that threw the exception
+     */
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    /**
+     * @return the nanoseconds taken by the invocations that threw the exception
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) getTotal() / count;
+    }
+
+    /**
+     * @return the longest invocation, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The monitor's configured percentiles, accurate to about 12%.
+     *
+     * @return the value in nanoseconds at each percentile keyed by "p50", "p99"...
+     */
+    public Map<String, Long> getPercentiles() {
+        final long[] values = histogram.getValuesAtPercentiles(percentiles);
+
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < percentiles.length; i++) {
+            result.put(percentileNames[i], values[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of nanosecond durations.
+ * <p/>
+ * Values below 64 get their own bucket. Above that each power of two is split into 32 buckets, so a recorded value
+ * is reported within about 3% of what was recorded. Values up to 2^40ns (about 18 minutes) are tracked, anything
+ * longer is counted in the last bucket. A histogram takes a little over 9KB no matter how many values it holds.
+ * Histograms that are kept in large numbers can be built with fewer buckets, at 3 sub-bucket bits a histogram
+ * reports within about 12% and takes 2.4KB.
+ * <p/>
+ * Recording is a single atomic increment, it doesn't lock or allocate.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The largest value that gets a bucket of its own range.
+     */
+    public static final long HIGHEST_TRACKABLE_VALUE = (1L << 40) - 1;
+
+    private final int subBucketBits;
+    private final AtomicLongArray counts;
+
+    public Histogram() {
+        this(SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @param subBucketBits each power of two is split into 2^subBucketBits buckets, between 1 and 10
+     */
+    public Histogram(int subBucketBits) {
+        if (subBucketBits < 1 || subBucketBits > 10) {
+            throw new IllegalArgumentException("subBucketBits must be between 1 and 10: " + subBucketBits);
+        }
+        this.subBucketBits = subBucketBits;
+        counts = new AtomicLongArray(index(HIGHEST_TRACKABLE_VALUE, subBucketBits) + 1);
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        else if (value > HIGHEST_TRACKABLE_VALUE) value = HIGHEST_TRACKABLE_VALUE;
+
+        counts.incrementAndGet(index(value, subBucketBits));
+    }
+
+    /**
+     * Adds another histogram's counts to this one. Both must have the same number of sub-bucket bits.
+     */
+    public void add(Histogram other) {
+        if (other.subBucketBits != subBucketBits) {
+            throw new IllegalArgumentException("Can't add a histogram with " + other.subBucketBits
+                    + " sub-bucket bits to one with " + subBucketBits);
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count != 0) counts.addAndGet(i, count);
+        }
+    }
+
+    public int getSubBucketBits() {
+        return subBucketBits;
+    }
+
+    /**
+     * @return the number of buckets, for copying a histogram bucket by bucket
+     */
+    public int getBucketCount() {
+        return counts.length();
+    }
+
+    public long getCountAt(int bucket) {
+        return counts.get(bucket);
+    }
+
+    /**
+     * Adds to a bucket's count, for restoring a histogram copied with {@link #getCountAt(int)}.
+     */
+    public void addCountAt(int bucket, long count) {
+        counts.addAndGet(bucket, count);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * The value that the given percentage of recorded values are less than or equal to. The value returned is the
+     * largest value that shares a bucket with the percentile.
+     *
+     * @param percentile between 0 and 100
+     * @return the value at the percentile or 0 if nothing has been recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        return getValuesAtPercentiles(new double[]{percentile})[0];
+    }
+
+    /**
+     * Finds several percentiles with a single pass over the buckets.
+     *
+     * @param percentiles in ascending order, between 0 and 100
+     * @return the value at each percentile
+     */
+    public long[] getValuesAtPercentiles(double[] percentiles) {
+        final long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        final long[] values = new long[percentiles.length];
+        if (total == 0) return values;
+
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < snapshot.length && p < percentiles.length; i++) {
+            seen += snapshot[i];
+            while (p < percentiles.length && seen >= rank(percentiles[p], total)) {
+                values[p++] = highestEquivalentValue(i, subBucketBits);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Finds several percentiles without allocating. The buckets are read twice rather than copied, so values
+     * recorded in between can shift the result by a bucket.
+     *
+     * @param percentiles in ascending order, between 0 and 100
+     * @param values      receives the value at each percentile, 0 where it couldn't be found
+     */
+    public void getValuesAtPercentiles(double[] percentiles, long[] values) {
+        final long total = getCount();
+
+        int p = 0;
+        long seen = 0;
+        for (int i = 0; i < counts.length() && p < percentiles.length && total > 0; i++) {
+            seen += counts.get(i);
+            while (p < percentiles.length && seen >= rank(percentiles[p], total)) {
+                values[p++] = highestEquivalentValue(i, subBucketBits);
+            }
+        }
+        while (p < percentiles.length) {
+            values[p++] = 0;
+        }
+    }
+
+    private static long rank(double percentile, long total) {
+        final long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total);
+        return Math.max(rank, 1);
+    }
+
+    static int index(long value) {
+        return index(value, SUB_BUCKET_BITS);
+    }
+
+    static long highestEquivalentValue(int index) {
+        return highestEquivalentValue(index, SUB_BUCKET_BITS);
+    }
+
+    private static int index(long value, int subBucketBits) {
+        if (value < 2L << subBucketBits) return (int) value;
+
+        final int shift = (63 - Long.numberOfLeadingZeros(value)) - subBucketBits;
+        return (shift << subBucketBits) + (int) (value >>> shift);
+    }
+
+    private static long highestEquivalentValue(int index, int subBucketBits) {
+        if (index < 2 << subBucketBits) return index;
+
+        final int shift = (index >>> subBucketBits) - 1;
+        final long subBucket = index - (shift << subBucketBits);
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
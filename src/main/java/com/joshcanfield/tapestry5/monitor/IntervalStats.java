@@ -0,0 +1,56 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The invocations one monitor recorded during the current {@link MonitorIntervals interval}. The histogram has the
+ * same 3 sub-bucket bits as the {@link RollingWindow}'s, so interval percentiles are accurate to about 12%.
+ */
+public class IntervalStats {
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong();
+    private volatile Histogram histogram = new Histogram(RollingWindow.HISTOGRAM_BITS);
+
+    public void record(long ns) {
+        count.incrementAndGet();
+        total.addAndGet(ns);
+        histogram.record(ns);
+
+        long current;
+        while (ns < (current = min.get())) {
+            if (min.compareAndSet(current, ns)) break;
+        }
+        while (ns > (current = max.get())) {
+            if (max.compareAndSet(current, ns)) break;
+        }
+    }
+
+    /**
+     * Hands over what was recorded and starts again from zero. Only called once nothing is recording into these
+     * stats, so the values read belong together; the histogram is handed over rather than copied.
+     */
+    StatsSnapshot snapshotAndReset(String name, long timestamp) {
+        final long count = this.count.getAndSet(0);
+        final long min = this.min.getAndSet(Long.MAX_VALUE);
+        final StatsSnapshot snapshot = new StatsSnapshot(name, timestamp, count, total.getAndSet(0),
+                count == 0 ? 0 : min, max.getAndSet(0), histogram);
+        histogram = new Histogram(RollingWindow.HISTOGRAM_BITS);
+        return snapshot;
+    }
+}
@@ -15,6 +15,7 @@
 package com.joshcanfield.tapestry5.monitor;
 
 import org.apache.tapestry5.ioc.MethodAdviceReceiver;
+import org.apache.tapestry5.model.MutableComponentModel;
 import org.apache.tapestry5.plastic.PlasticClass;
 
 /**
@@ -25,4 +26,12 @@ public interface MonitorAdviser {
     void monitor(MethodAdviceReceiver receiver);
 
     void monitor(PlasticClass plasticClass);
+
+    /**
+     * Times the component's render phases when its package is one of {@link MonitorSymbols#RENDER_PACKAGES}.
+     *
+     * @param plasticClass the component, page or mixin being transformed
+     * @param model        of the component, after its render phase methods have been found
+     */
+    void monitorRender(PlasticClass plasticClass, MutableComponentModel model);
 }
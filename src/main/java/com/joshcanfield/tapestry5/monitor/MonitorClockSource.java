@@ -0,0 +1,30 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+
+/**
+ * Provides the clocks monitored invocations are timed with. The default clock is chosen with
+ * {@link MonitorSymbols#CLOCK}.
+ */
+public interface MonitorClockSource {
+
+    /**
+     * @param clock requested by the {@link Monitor}
+     * @return the clock, the configured default for {@link Monitor.Clock#Default}
+     */
+    MonitorClock getClock(Monitor.Clock clock);
+}
@@ -0,0 +1,306 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The memory-mapped file written by {@link MonitorFileExporter}, and a reader for it. Run this class with the path of
+ * the file to print every monitor:
+ * <pre>
+ * java -cp tapestry-monitoring.jar com.joshcanfield.tapestry5.monitor.MonitorFile /var/run/app.monitor
+ * </pre>
+ * The layout is fixed so other tools can read the file directly. All values are big-endian.
+ * <pre>
+ * header, {@link #HEADER_SIZE} bytes
+ *   0  int    magic, 0x544D4F4E ("TMON")
+ *   4  int    version, 1
+ *   8  long   sequence, odd while the exporter is writing
+ *   16 long   when last written, in milliseconds since the epoch
+ *   24 int    the number of entries the file has room for
+ *   28 int    the number of entries in use
+ *   32 int    the number of percentiles, at most {@link #MAX_PERCENTILES}
+ *   40 double the percentiles, such as 50.0 and 99.9
+ * entries, {@link #ENTRY_SIZE} bytes each
+ *   0  short  length of the monitor name in UTF-8 bytes, followed by the name
+ *   256 long  count, total, min, max, invocation count, invocation total, active, max active, errors and
+ *             one value per percentile, times in nanoseconds
+ * </pre>
+ * A reader copies the file and compares the sequence before and after; if it changed, or was odd, it copies again.
+ * The file is left behind when the application stops, holding the stats as they were last written.
+ */
+public class MonitorFile {
+    public static final int MAGIC = 0x544D4F4E;
+    public static final int VERSION = 1;
+    public static final int MAX_PERCENTILES = 8;
+
+    public static final int HEADER_SIZE = 128;
+    public static final int SEQUENCE = 8;
+    public static final int UPDATED = 16;
+    public static final int CAPACITY = 24;
+    public static final int SIZE = 28;
+    public static final int PERCENTILE_COUNT = 32;
+    public static final int PERCENTILES = 40;
+
+    public static final int NAME_SIZE = 256;
+    public static final int ENTRY_SIZE = NAME_SIZE + (9 + MAX_PERCENTILES) * 8;
+
+    // offsets of the values within an entry
+    public static final int COUNT = NAME_SIZE;
+    public static final int TOTAL = COUNT + 8;
+    public static final int MIN = TOTAL + 8;
+    public static final int MAX = MIN + 8;
+    public static final int INVOCATION_COUNT = MAX + 8;
+    public static final int INVOCATION_TOTAL = INVOCATION_COUNT + 8;
+    public static final int ACTIVE = INVOCATION_TOTAL + 8;
+    public static final int MAX_ACTIVE = ACTIVE + 8;
+    public static final int ERRORS = MAX_ACTIVE + 8;
+    public static final int PERCENTILE_VALUES = ERRORS + 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int ATTEMPTS = 100;
+
+    // written then read back by barrier(), see there
+    private static volatile long fence;
+
+    private final long updated;
+    private final double[] percentiles;
+    private final List<Entry> entries;
+
+    private MonitorFile(long updated, double[] percentiles, List<Entry> entries) {
+        this.updated = updated;
+        this.percentiles = percentiles;
+        this.entries = entries;
+    }
+
+    /**
+     * @param capacity the number of monitors the file has room for
+     * @return the size of a file with room for capacity monitors
+     */
+    public static int fileSize(int capacity) {
+        return HEADER_SIZE + capacity * ENTRY_SIZE;
+    }
+
+    /**
+     * Reads a consistent copy of the file.
+     *
+     * @throws IOException if the file can't be read, isn't a monitor file or stays busy
+     */
+    public static MonitorFile read(File file) throws IOException {
+        final RandomAccessFile access = new RandomAccessFile(file, "r");
+        try {
+            final MappedByteBuffer mapped = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, access.length());
+            if (mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC) {
+                throw new IOException(file + " isn't a monitor file");
+            }
+            if (mapped.getInt(4) != VERSION) {
+                throw new IOException(file + " is version " + mapped.getInt(4) + ", expected " + VERSION);
+            }
+
+            final ByteBuffer copy = ByteBuffer.allocate(mapped.capacity());
+            for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+                final long sequence = mapped.getLong(SEQUENCE);
+                if ((sequence & 1) == 0) {
+                    barrier();
+                    copy.clear();
+                    mapped.clear();
+                    copy.put(mapped);
+                    barrier();
+                    if (mapped.getLong(SEQUENCE) == sequence) return decode(copy);
+                }
+                Thread.yield();
+            }
+            throw new IOException(file + " was being written on every attempt to read it");
+        } finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Keeps the copy's loads between the two loads of the sequence, the reading side of the exporter's barrier. The
+     * volatile write keeps the loads before it above it, the read that follows keeps the loads after it below.
+     */
+    private static void barrier() {
+        fence = 0;
+        @SuppressWarnings("unused") final long read = fence;
+    }
+
+    private static MonitorFile decode(ByteBuffer buffer) {
+        final double[] percentiles = new double[Math.min(buffer.getInt(PERCENTILE_COUNT), MAX_PERCENTILES)];
+        for (int i = 0; i < percentiles.length; i++) {
+            percentiles[i] = buffer.getDouble(PERCENTILES + i * 8);
+        }
+
+        final int size = Math.min(buffer.getInt(SIZE), (buffer.capacity() - HEADER_SIZE) / ENTRY_SIZE);
+        final List<Entry> entries = new ArrayList<Entry>(size);
+        for (int i = 0; i < size; i++) {
+            final int base = HEADER_SIZE + i * ENTRY_SIZE;
+            final int length = Math.min(buffer.getShort(base), NAME_SIZE - 2);
+            final String name = new String(buffer.array(), base + 2, length, UTF8);
+
+            final long[] values = new long[percentiles.length];
+            for (int p = 0; p < values.length; p++) {
+                values[p] = buffer.getLong(base + PERCENTILE_VALUES + p * 8);
+            }
+            entries.add(new Entry(name, buffer.getLong(base + COUNT), buffer.getLong(base + TOTAL),
+                    buffer.getLong(base + MIN), buffer.getLong(base + MAX), buffer.getLong(base + INVOCATION_COUNT),
+                    buffer.getLong(base + INVOCATION_TOTAL), buffer.getLong(base + ACTIVE),
+                    buffer.getLong(base + MAX_ACTIVE), buffer.getLong(base + ERRORS), values));
+        }
+        return new MonitorFile(buffer.getLong(UPDATED), percentiles, Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * @return when the file was last written, in milliseconds since the epoch
+     */
+    public long getUpdated() {
+        return updated;
+    }
+
+    public double[] getPercentiles() {
+        return percentiles.clone();
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * One monitor's stats as they were last written. Times are in nanoseconds.
+     */
+    public static class Entry {
+        private final String name;
+        private final long count;
+        private final long total;
+        private final long min;
+        private final long max;
+        private final long invocationCount;
+        private final long invocationTotal;
+        private final long active;
+        private final long maxActive;
+        private final long errors;
+        private final long[] percentileValues;
+
+        Entry(String name, long count, long total, long min, long max, long invocationCount, long invocationTotal,
+              long active, long maxActive, long errors, long[] percentileValues) {
+            this.name = name;
+            this.count = count;
+            this.total = total;
+            this.min = min;
+            this.max = max;
+            this.invocationCount = invocationCount;
+            this.invocationTotal = invocationTotal;
+            this.active = active;
+            this.maxActive = maxActive;
+            this.errors = errors;
+            this.percentileValues = percentileValues;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getInvocationCount() {
+            return invocationCount;
+        }
+
+        public long getInvocationTotal() {
+            return invocationTotal;
+        }
+
+        public long getActive() {
+            return active;
+        }
+
+        public long getMaxActive() {
+            return maxActive;
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        /**
+         * @return the value at each of the file's {@link MonitorFile#getPercentiles() percentiles}
+         */
+        public long[] getPercentileValues() {
+            return percentileValues.clone();
+        }
+    }
+
+    /**
+     * Prints every monitor in the file, times in milliseconds.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java " + MonitorFile.class.getName() + " <monitor file>");
+            System.exit(2);
+        }
+
+        final MonitorFile file = read(new File(args[0]));
+        System.out.println("Written " + new Date(file.getUpdated()));
+
+        final StringBuilder header = new StringBuilder("count\tmean\tmax");
+        for (double percentile : file.getPercentiles()) {
+            header.append("\tp").append(MonitorStats.percentileName(percentile).substring(1));
+        }
+        System.out.println(header.append("\tactive\terrors\tname"));
+
+        for (Entry entry : file.getEntries()) {
+            final StringBuilder line = new StringBuilder();
+            line.append(entry.getInvocationCount());
+            line.append('\t').append(millis(entry.getCount() == 0 ? 0 : entry.getTotal() / entry.getCount()));
+            line.append('\t').append(millis(entry.getMax()));
+            for (long value : entry.getPercentileValues()) {
+                line.append('\t').append(millis(value));
+            }
+            line.append('\t').append(entry.getActive());
+            line.append('\t').append(entry.getErrors());
+            line.append('\t').append(entry.getName());
+            System.out.println(line);
+        }
+    }
+
+    private static String millis(long ns) {
+        return String.format("%.3f", ns / 1e6);
+    }
+}
@@ -0,0 +1,28 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * Keeps every monitor's stats in the memory-mapped {@link MonitorFile} at {@link MonitorSymbols#FILE_PATH}, where
+ * tools on the same machine can read them without JMX or HTTP. The file is written every
+ * {@link MonitorSymbols#FILE_INTERVAL}, scheduled by {@link MonitorModule}.
+ */
+public interface MonitorFileExporter {
+
+    /**
+     * Copies the current stats into the file, mapping it the first time.
+     */
+    void write();
+}
@@ -0,0 +1,54 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.Map;
+
+/**
+ * What every monitor recorded between two calls to {@link MonitorStatsSource#snapshotAndReset()}. The counts are
+ * of timed invocations, sampled monitors see one in {@link MonitorStats#getSampleRate()} of their calls.
+ */
+public class MonitorInterval {
+    private final long start;
+    private final long end;
+    private final Map<String, StatsSnapshot> stats;
+
+    public MonitorInterval(long start, long end, Map<String, StatsSnapshot> stats) {
+        this.start = start;
+        this.end = end;
+        this.stats = stats;
+    }
+
+    /**
+     * @return when the interval started, in milliseconds since the epoch
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return when the interval ended, in milliseconds since the epoch
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return each monitor's stats for the interval keyed by monitor name, in name order
+     */
+    public Map<String, StatsSnapshot> getStats() {
+        return stats;
+    }
+}
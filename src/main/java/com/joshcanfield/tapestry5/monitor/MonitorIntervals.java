@@ -0,0 +1,107 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Splits every monitor's invocations into intervals that are read and reset together. Each {@link MonitorStats}
+ * built with the same intervals records into one of two {@link IntervalStats}; {@link #snapshotAndReset(Collection)}
+ * moves every monitor to its other one in a single atomic flip, waits for invocations still recording into the
+ * old ones to finish and then reads and clears them. Every invocation lands in exactly one interval and the
+ * intervals of all monitors end at the same instant.
+ * <p/>
+ * Recording enters and leaves the current phase with an atomic add on counters shared by every monitor, the
+ * writer-reader phaser from HdrHistogram's Recorder. Under heavy concurrency those counters are contended, which
+ * is why intervals are only kept when {@link MonitorSymbols#INTERVALS} is enabled.
+ */
+public class MonitorIntervals {
+    private final AtomicLong startEpoch = new AtomicLong();
+    private final AtomicLong evenEndEpoch = new AtomicLong();
+    private final AtomicLong oddEndEpoch = new AtomicLong(Long.MIN_VALUE);
+
+    // guarded by this
+    private long start = System.currentTimeMillis();
+
+    /**
+     * Starts recording an invocation.
+     *
+     * @return the epoch to hand to {@link #exit(long)}, its {@link #index(long)} is the interval to record into
+     */
+    long enter() {
+        return startEpoch.getAndIncrement();
+    }
+
+    /**
+     * Finishes recording an invocation.
+     */
+    void exit(long epoch) {
+        (epoch < 0 ? oddEndEpoch : evenEndEpoch).getAndIncrement();
+    }
+
+    /**
+     * @return 0 or 1, the interval recorded into during the epoch's phase
+     */
+    static int index(long epoch) {
+        return epoch < 0 ? 1 : 0;
+    }
+
+    /**
+     * Ends the current interval for all of the monitors at once and starts the next one.
+     *
+     * @param stats built with these intervals, such as {@link MonitorStatsSource#getAllStats()}
+     * @return what each monitor recorded during the interval that ended
+     */
+    public synchronized MonitorInterval snapshotAndReset(Collection<MonitorStats> stats) {
+        final int ended = flip();
+        final long end = System.currentTimeMillis();
+
+        final Map<String, StatsSnapshot> snapshots = new TreeMap<String, StatsSnapshot>();
+        for (MonitorStats monitorStats : stats) {
+            final IntervalStats interval = monitorStats.getInterval(ended);
+            if (interval == null) continue;
+
+            final String name = monitorStats.getName();
+            snapshots.put(name, interval.snapshotAndReset(name, end));
+        }
+
+        final MonitorInterval interval = new MonitorInterval(start, end, Collections.unmodifiableMap(snapshots));
+        start = end;
+        return interval;
+    }
+
+    /**
+     * Moves new invocations to the other interval and waits for the ones still recording into the old interval.
+     *
+     * @return the index of the old interval
+     */
+    private int flip() {
+        final boolean nextPhaseIsEven = startEpoch.get() < 0;
+        final long initialStartValue = nextPhaseIsEven ? 0 : Long.MIN_VALUE;
+
+        (nextPhaseIsEven ? evenEndEpoch : oddEndEpoch).set(initialStartValue);
+        final long startValueAtFlip = startEpoch.getAndSet(initialStartValue);
+
+        final AtomicLong endEpoch = nextPhaseIsEven ? oddEndEpoch : evenEndEpoch;
+        while (endEpoch.get() != startValueAtFlip) {
+            Thread.yield();
+        }
+        return nextPhaseIsEven ? 1 : 0;
+    }
+}
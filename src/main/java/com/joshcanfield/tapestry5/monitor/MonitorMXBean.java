@@ -0,0 +1,128 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import org.javasimon.jmx.StopwatchMXBean;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The MXBean registered for each monitor. Adds latency percentiles to the javasimon stopwatch attributes.
+ */
+public interface MonitorMXBean extends StopwatchMXBean {
+
+    /**
+     * The percentiles configured with {@link MonitorSymbols#PERCENTILES}, in nanoseconds, keyed by "p50", "p99"...
+     */
+    Map<String, Long> getPercentiles();
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency in nanoseconds at the percentile
+     */
+    long valueAtPercentile(double percentile);
+
+    /**
+     * Only one in this many invocations is timed, see
+     * {@link com.joshcanfield.tapestry5.annotations.Monitor#sampleRate()}
+     */
+    int getSampleRate();
+
+    /**
+     * The number of invocations, estimated from the sampled invocations.
+     */
+    long getInvocationCount();
+
+    /**
+     * The total nanoseconds spent in the monitor, estimated from the sampled invocations.
+     */
+    long getInvocationTotal();
+
+    /**
+     * Exponentially weighted invocations per second keyed by "1m", "5m" and "15m", estimated from the sampled
+     * invocations. The rates are updated every {@link MonitorSymbols#RATE_INTERVAL}.
+     */
+    Map<String, Double> getRates();
+
+    /**
+     * Exponentially weighted invocations per second that ended in an exception, keyed like {@link #getRates()}.
+     */
+    Map<String, Double> getErrorRates();
+
+    /**
+     * The number of invocations, sampled or not, that ended in an exception.
+     */
+    long getErrorCount();
+
+    /**
+     * The timed invocations that threw, by exception class, whether or not the exception filters record them. Empty
+     * when {@link MonitorSymbols#EXCEPTION_CLASSES} is "0".
+     */
+    List<ExceptionStats> getExceptions();
+
+    /**
+     * The number of invocations in flight. Unlike the javasimon stopwatch's own active count this includes
+     * unsampled invocations.
+     */
+    long getActive();
+
+    /**
+     * The most invocations seen in flight at once since the last reset. The count is sampled rather than checked
+     * on every invocation, so a brief burst can be missed.
+     */
+    long getMaxActive();
+
+    /**
+     * When the peak was seen, in milliseconds since the epoch.
+     */
+    long getMaxActiveTimestamp();
+
+    /**
+     * Starts the peak again from the invocations in flight.
+     */
+    void resetMaxActive();
+
+    /**
+     * The number of timed invocations in the last snapshot taken before the restart, 0 without one. See
+     * {@link MonitorSymbols#SNAPSHOT_PATH}.
+     */
+    long getBaselineCount();
+
+    /**
+     * The mean nanoseconds of the invocations in the baseline.
+     */
+    double getBaselineMean();
+
+    /**
+     * The longest invocation in the baseline, in nanoseconds.
+     */
+    long getBaselineMax();
+
+    /**
+     * The configured percentiles of the baseline, keyed like {@link #getPercentiles()}.
+     */
+    Map<String, Long> getBaselinePercentiles();
+
+    /**
+     * When the baseline snapshot was taken, in milliseconds since the epoch.
+     */
+    long getBaselineTimestamp();
+
+    /**
+     * Clears just the histogram, reset() clears everything the monitor records.
+     */
+    void resetHistogram();
+}
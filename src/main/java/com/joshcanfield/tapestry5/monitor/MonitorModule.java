@@ -14,18 +14,45 @@
 package com.joshcanfield.tapestry5.monitor;
 
 import com.joshcanfield.tapestry5.internal.monitor.MonitorAdviserImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorAdviserSettings;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorAdviserSettingsImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorCallTreeFilter;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorClockSourceImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorFileExporterImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorSnapshotWriterImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorJsonFilter;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorPrometheusFilter;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorPushExporterImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorSlowInvocationsFilter;
 import com.joshcanfield.tapestry5.internal.monitor.MonitorNameGeneratorImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorStatsSourceImpl;
+import com.joshcanfield.tapestry5.internal.monitor.RenderMonitorNameGeneratorImpl;
+import com.joshcanfield.tapestry5.internal.monitor.MonitorsMBeanImpl;
+import org.apache.tapestry5.internal.InternalConstants;
+import org.apache.tapestry5.ioc.MappedConfiguration;
 import org.apache.tapestry5.ioc.MethodAdviceReceiver;
 import org.apache.tapestry5.ioc.OrderedConfiguration;
 import org.apache.tapestry5.ioc.ServiceBinder;
 import org.apache.tapestry5.ioc.annotations.*;
+import org.apache.tapestry5.ioc.services.ChainBuilder;
+import org.apache.tapestry5.ioc.services.cron.IntervalSchedule;
+import org.apache.tapestry5.ioc.services.cron.PeriodicExecutor;
+import org.apache.tapestry5.ioc.util.TimeInterval;
+import org.apache.tapestry5.jmx.MBeanSupport;
 import org.apache.tapestry5.jmx.JmxModule;
 import org.apache.tapestry5.model.MutableComponentModel;
 import org.apache.tapestry5.plastic.PlasticClass;
+import org.apache.tapestry5.services.HttpServletRequestFilter;
 import org.apache.tapestry5.services.TapestryModule;
 import org.apache.tapestry5.services.transform.ComponentClassTransformWorker2;
 import org.apache.tapestry5.services.transform.TransformationSupport;
 
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.util.List;
+
 /**
  * Module for javasimon (http://code.google.com/p/javasimon/)
  */
@@ -34,12 +61,209 @@ public class MonitorModule {
 
     public static void bind(ServiceBinder binder) {
         binder.bind(MonitorAdviser.class, MonitorAdviserImpl.class);
+        binder.bind(MonitorAdviserSettings.class, MonitorAdviserSettingsImpl.class);
         binder.bind(MonitorNameGenerator.class, MonitorNameGeneratorImpl.class);
+        binder.bind(RenderMonitorNameGenerator.class, RenderMonitorNameGeneratorImpl.class);
+        binder.bind(MonitorStatsSource.class, MonitorStatsSourceImpl.class);
+        binder.bind(MonitorClockSource.class, MonitorClockSourceImpl.class);
+        binder.bind(MonitorPushExporter.class, MonitorPushExporterImpl.class);
+        binder.bind(MonitorFileExporter.class, MonitorFileExporterImpl.class);
+        binder.bind(MonitorSnapshotWriter.class, MonitorSnapshotWriterImpl.class);
+    }
+
+    public static void contributeFactoryDefaults(MappedConfiguration<String, Object> configuration) {
+        configuration.add(MonitorSymbols.RECORDER, MonitorSymbols.RECORDER_SIMON);
+        configuration.add(MonitorSymbols.PERCENTILES, "50,90,99,99.9");
+        configuration.add(MonitorSymbols.WINDOWS, "");
+        configuration.add(MonitorSymbols.WINDOW_RESOLUTION, "15s");
+        configuration.add(MonitorSymbols.EXCEPTION_CLASSES, "10");
+        configuration.add(MonitorSymbols.BUFFER_SIZE, "0");
+        configuration.add(MonitorSymbols.FLUSH_INTERVAL, "1 s");
+        configuration.add(MonitorSymbols.RATE_INTERVAL, "5 s");
+        configuration.add(MonitorSymbols.CLOCK, MonitorSymbols.CLOCK_PRECISE);
+        configuration.add(MonitorSymbols.CLOCK_RESOLUTION, "1 ms");
+        configuration.add(MonitorSymbols.LAZY_REGISTRATION, "false");
+        configuration.add(MonitorSymbols.ACTIVE, "true");
+        configuration.add(MonitorSymbols.JSON_PATH, "");
+        configuration.add(MonitorSymbols.PROMETHEUS_PATH, "");
+        configuration.add(MonitorSymbols.PUSH_HOST, "");
+        configuration.add(MonitorSymbols.PUSH_PORT, "0");
+        configuration.add(MonitorSymbols.PUSH_FORMAT, MonitorSymbols.PUSH_FORMAT_STATSD);
+        configuration.add(MonitorSymbols.PUSH_INTERVAL, "10 s");
+        configuration.add(MonitorSymbols.PUSH_PREFIX, "tapestry");
+        configuration.add(MonitorSymbols.PUSH_PACKET_SIZE, "1432");
+        configuration.add(MonitorSymbols.FILE_PATH, "");
+        configuration.add(MonitorSymbols.FILE_INTERVAL, "1 s");
+        configuration.add(MonitorSymbols.FILE_CAPACITY, "1024");
+        configuration.add(MonitorSymbols.SNAPSHOT_PATH, "");
+        configuration.add(MonitorSymbols.SNAPSHOT_INTERVAL, "1 m");
+        configuration.add(MonitorSymbols.SNAPSHOT_SYNC, "5");
+        configuration.add(MonitorSymbols.SNAPSHOT_MAX_SIZE, "10000000");
+        configuration.add(MonitorSymbols.SNAPSHOT_STARTUP, MonitorSymbols.SNAPSHOT_STARTUP_BASELINE);
+        configuration.add(MonitorSymbols.INTERVALS, "false");
+        configuration.add(MonitorSymbols.RENDER_PACKAGES, "");
+        configuration.add(MonitorSymbols.CALL_TREE, "false");
+        configuration.add(MonitorSymbols.CALL_TREE_SIZE, "64");
+        configuration.add(MonitorSymbols.CALL_TREE_HEADER, "");
+        configuration.add(MonitorSymbols.SLOW_THRESHOLD, "");
+        configuration.add(MonitorSymbols.SLOW_CAPACITY, "100");
+        configuration.add(MonitorSymbols.SLOW_ARGUMENTS, "false");
+        configuration.add(MonitorSymbols.SLOW_STACK, "false");
+        configuration.add(MonitorSymbols.SLOW_JSON_PATH, "");
+    }
+
+    /**
+     * Calls each contributed listener in order.
+     */
+    public static CallTreeListener buildCallTreeListener(List<CallTreeListener> configuration,
+                                                         ChainBuilder chainBuilder) {
+        return chainBuilder.build(CallTreeListener.class, configuration);
+    }
+
+    /**
+     * Flushes buffered invocations from threads that aren't finishing requests, such as idle or background threads,
+     * updates the call and error rates, pushes the stats when a push host is configured and copies them into the
+     * monitor file when a file path is. The last snapshot is restored and new ones appended when a snapshot
+     * path is configured. The slow invocation log and the table of every monitor are registered with JMX.
+     */
+    public static void contributeRegistryStartup(
+            OrderedConfiguration<Runnable> configuration,
+            final PeriodicExecutor periodicExecutor,
+            @Local final MonitorStatsSource monitorStatsSource,
+            @Local final MonitorPushExporter monitorPushExporter,
+            @Local final MonitorFileExporter monitorFileExporter,
+            @Local final MonitorSnapshotWriter monitorSnapshotWriter,
+            final MBeanSupport mBeanSupport,
+            @Symbol(InternalConstants.TAPESTRY_APP_PACKAGE_PARAM) final String appPackage,
+            @Symbol(MonitorSymbols.BUFFER_SIZE) final int bufferSize,
+            @Symbol(MonitorSymbols.FLUSH_INTERVAL) final String flushInterval,
+            @Symbol(MonitorSymbols.RATE_INTERVAL) final String rateInterval,
+            @Symbol(MonitorSymbols.PUSH_HOST) final String pushHost,
+            @Symbol(MonitorSymbols.PUSH_INTERVAL) final String pushInterval,
+            @Symbol(MonitorSymbols.FILE_PATH) final String filePath,
+            @Symbol(MonitorSymbols.FILE_INTERVAL) final String fileInterval,
+            @Symbol(MonitorSymbols.SNAPSHOT_PATH) final String snapshotPath,
+            @Symbol(MonitorSymbols.SNAPSHOT_INTERVAL) final String snapshotInterval
+    ) {
+        configuration.add("MonitorBufferFlush", new Runnable() {
+            public void run() {
+                if (bufferSize <= 0) return;
+
+                final long interval = new TimeInterval(flushInterval).milliseconds();
+                periodicExecutor.addJob(new IntervalSchedule(interval), "Monitor buffer flush", new Runnable() {
+                    public void run() {
+                        monitorStatsSource.flush();
+                    }
+                });
+            }
+        });
+        configuration.add("MonitorRates", new Runnable() {
+            public void run() {
+                final long interval = new TimeInterval(rateInterval).milliseconds();
+                periodicExecutor.addJob(new IntervalSchedule(interval), "Monitor rates", new Runnable() {
+                    public void run() {
+                        monitorStatsSource.tickRates();
+                    }
+                });
+            }
+        });
+        configuration.add("MonitorPush", new Runnable() {
+            public void run() {
+                if (pushHost.length() == 0) return;
+
+                final long interval = new TimeInterval(pushInterval).milliseconds();
+                periodicExecutor.addJob(new IntervalSchedule(interval), "Monitor push", new Runnable() {
+                    public void run() {
+                        monitorPushExporter.push();
+                    }
+                });
+            }
+        });
+        configuration.add("MonitorFile", new Runnable() {
+            public void run() {
+                if (filePath.length() == 0) return;
+
+                final long interval = new TimeInterval(fileInterval).milliseconds();
+                periodicExecutor.addJob(new IntervalSchedule(interval), "Monitor file", new Runnable() {
+                    public void run() {
+                        monitorFileExporter.write();
+                    }
+                });
+            }
+        });
+        configuration.add("MonitorSnapshot", new Runnable() {
+            public void run() {
+                if (snapshotPath.length() == 0) return;
+
+                monitorSnapshotWriter.restore();
+                final long interval = new TimeInterval(snapshotInterval).milliseconds();
+                periodicExecutor.addJob(new IntervalSchedule(interval), "Monitor snapshot", new Runnable() {
+                    public void run() {
+                        monitorSnapshotWriter.snapshot();
+                    }
+                });
+            }
+        });
+        configuration.add("MonitorSlowInvocations", new Runnable() {
+            public void run() {
+                try {
+                    mBeanSupport.register(monitorStatsSource.getSlowInvocationLog(),
+                            new ObjectName(appPackage + ":type=SlowInvocations"));
+                } catch (MalformedObjectNameException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        configuration.add("MonitorMonitors", new Runnable() {
+            public void run() {
+                try {
+                    mBeanSupport.register(new StandardMBean(new MonitorsMBeanImpl(monitorStatsSource),
+                            MonitorsMBean.class), new ObjectName(appPackage + ":type=Monitors"));
+                } catch (MalformedObjectNameException e) {
+                    throw new RuntimeException(e);
+                } catch (NotCompliantMBeanException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Serves the stats as JSON or for Prometheus, and the slow invocations as JSON, ahead of Tapestry's own request
+     * processing when their paths are configured, and records each request's call tree when it is enabled.
+     */
+    public static void contributeHttpServletRequestHandler(
+            OrderedConfiguration<HttpServletRequestFilter> configuration,
+            @Local MonitorStatsSource monitorStatsSource,
+            @Local CallTreeListener callTreeListener,
+            @Symbol(MonitorSymbols.JSON_PATH) String jsonPath,
+            @Symbol(MonitorSymbols.PROMETHEUS_PATH) String prometheusPath,
+            @Symbol(MonitorSymbols.SLOW_JSON_PATH) String slowJsonPath,
+            @Symbol(MonitorSymbols.CALL_TREE_HEADER) String callTreeHeader
+    ) {
+        final CallTreeRecorder callTreeRecorder = monitorStatsSource.getCallTreeRecorder();
+        if (callTreeRecorder != null) {
+            configuration.add("MonitorCallTree",
+                    new MonitorCallTreeFilter(callTreeRecorder, callTreeHeader, callTreeListener), "before:*");
+        }
+        if (jsonPath.length() > 0) {
+            configuration.add("MonitorJson", new MonitorJsonFilter(jsonPath, monitorStatsSource), "before:*");
+        }
+        if (prometheusPath.length() > 0) {
+            configuration.add("MonitorPrometheus", new MonitorPrometheusFilter(prometheusPath, monitorStatsSource),
+                    "before:*");
+        }
+        if (slowJsonPath.length() > 0) {
+            configuration.add("MonitorSlowInvocations",
+                    new MonitorSlowInvocationsFilter(slowJsonPath, monitorStatsSource.getSlowInvocationLog()),
+                    "before:*");
+        }
     }
 
     /**
      * The @Local on MonitorAdviser prevents prevents it from going to the MasterObjectProvider and causing a
-     * recursive service dependency. The @Match criteria prevents MonitorAdviser from trying to advise itself.
+     * recursive service dependency. The @Match criteria prevents MonitorAdviser from trying to advise itself or
+     * MonitorAdviserSettings.
      *
      * @param receiver       -
      * @param monitorAdviser -
@@ -62,10 +286,30 @@ public class MonitorModule {
 
         configuration.add("monitored", new ComponentClassTransformWorker2() {
 
-            public void transform(PlasticClass plasticClass, TransformationSupport support, MutableComponentModel model) {
+            public void transform(PlasticClass plasticClass, TransformationSupport support,
+                                  MutableComponentModel model) {
                 monitorAdviser.monitor(plasticClass);
             }
         });
     }
 
+    /**
+     * Times render phases once Tapestry's RenderPhase worker has found the component's render phase methods.
+     */
+    @Contribute(ComponentClassTransformWorker2.class)
+    @Primary
+    public static void addRenderMonitorWorker(
+            OrderedConfiguration<ComponentClassTransformWorker2> configuration,
+            @Local final MonitorAdviser monitorAdviser
+    ) {
+
+        configuration.add("MonitorRender", new ComponentClassTransformWorker2() {
+
+            public void transform(PlasticClass plasticClass, TransformationSupport support,
+                                  MutableComponentModel model) {
+                monitorAdviser.monitorRender(plasticClass, model);
+            }
+        }, "after:RenderPhase");
+    }
+
 }
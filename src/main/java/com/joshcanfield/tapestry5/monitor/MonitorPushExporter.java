@@ -0,0 +1,29 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * Pushes every monitor's stats to a StatsD or Graphite collector, for environments that can't reach JMX or scrape
+ * an endpoint. The collector is configured with {@link MonitorSymbols#PUSH_HOST}, pushes are scheduled every
+ * {@link MonitorSymbols#PUSH_INTERVAL} by {@link MonitorModule}.
+ */
+public interface MonitorPushExporter {
+
+    /**
+     * Sends the current stats, packed into as few packets as possible. Never waits on the network; stats that the
+     * collector or the socket can't take right away are dropped.
+     */
+    void push();
+}
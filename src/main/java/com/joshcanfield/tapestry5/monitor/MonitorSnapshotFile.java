@@ -0,0 +1,217 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The append-only file of snapshots written by {@link MonitorSnapshotWriter}. Each snapshot is one record:
+ * <pre>
+ * int   magic, 0x544D5353 ("TMSS")
+ * int   length of the body
+ * body  long timestamp, int monitors, then for each monitor: name (modified UTF-8), long count, total, min and
+ *       max, byte histogram sub-bucket bits, int non-empty buckets, then an int index and long count for each
+ * long  CRC32 of the body
+ * </pre>
+ * A record cut short by a crash fails its length or checksum, it and anything after it are ignored so the last
+ * complete snapshot is still read. The writer cuts the file back to {@link #completeLength(File)} before appending
+ * to it again, so snapshots taken after the crash aren't hidden behind the torn record.
+ */
+public class MonitorSnapshotFile {
+    public static final int MAGIC = 0x544D5353;
+
+    /**
+     * Encodes the monitors as a snapshot record.
+     */
+    public static ByteBuffer encode(Collection<MonitorStats> stats, long timestamp) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+        out.writeLong(timestamp);
+        out.writeInt(stats.size());
+        for (MonitorStats monitorStats : stats) {
+            write(out, StatsSnapshot.of(monitorStats, timestamp));
+        }
+        out.flush();
+
+        final byte[] bytes = body.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        final ByteBuffer record = ByteBuffer.allocate(bytes.length + 16);
+        record.putInt(MAGIC).putInt(bytes.length).put(bytes).putLong(crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static void write(DataOutputStream out, StatsSnapshot snapshot) throws IOException {
+        out.writeUTF(snapshot.getName());
+        out.writeLong(snapshot.getCount());
+        out.writeLong(snapshot.getTotal());
+        out.writeLong(snapshot.getMin());
+        out.writeLong(snapshot.getMax());
+
+        final Histogram histogram = snapshot.getHistogram();
+        int buckets = 0;
+        for (int i = 0; i < histogram.getBucketCount(); i++) {
+            if (histogram.getCountAt(i) != 0) buckets++;
+        }
+        out.writeByte(histogram.getSubBucketBits());
+        out.writeInt(buckets);
+        for (int i = 0; i < histogram.getBucketCount() && buckets > 0; i++) {
+            final long count = histogram.getCountAt(i);
+            if (count == 0) continue;
+            out.writeInt(i);
+            out.writeLong(count);
+            buckets--;
+        }
+    }
+
+    /**
+     * Appends a record to the channel. The caller decides when to force it to disk.
+     */
+    public static void append(FileChannel channel, ByteBuffer record) throws IOException {
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+    }
+
+    /**
+     * Reads the last complete snapshot in the file. The earlier records are only checked, not decoded, so a file
+     * of many snapshots doesn't build a histogram for every monitor in each of them.
+     *
+     * @return each monitor's snapshot keyed by name, empty if the file doesn't exist or holds no complete snapshot
+     */
+    public static Map<String, StatsSnapshot> readLatest(File file) throws IOException {
+        if (!file.exists()) return Collections.emptyMap();
+
+        final Records records = new Records(file);
+        try {
+            boolean found = false;
+            while (records.next()) {
+                found = true;
+            }
+            return found ? decode(records.body, records.bodyLength) : Collections.<String, StatsSnapshot>emptyMap();
+        } finally {
+            records.close();
+        }
+    }
+
+    /**
+     * @return the length of the file's leading complete records, 0 if the file doesn't exist
+     */
+    public static long completeLength(File file) throws IOException {
+        if (!file.exists()) return 0;
+
+        final Records records = new Records(file);
+        try {
+            while (records.next()) {
+                // skip to the end of the complete records
+            }
+            return records.complete;
+        } finally {
+            records.close();
+        }
+    }
+
+    /**
+     * Reads the records from the start of the file. Each is read into the spare buffer and swapped with the body
+     * once its checksum matches, so the body is always the last complete record and no more than two buffers are
+     * allocated, however many records there are.
+     */
+    private static final class Records {
+        private final DataInputStream in;
+        private final long fileLength;
+        private long complete;
+        private byte[] body = new byte[0];
+        private int bodyLength;
+        private byte[] spare = new byte[0];
+
+        private Records(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            fileLength = file.length();
+        }
+
+        /**
+         * @return true when the next record is complete and is now the body, false at the end of the file or of its
+         *         complete records
+         */
+        private boolean next() throws IOException {
+            try {
+                if (in.readInt() != MAGIC) return false;
+
+                // a corrupt length mustn't allocate more than the file holds
+                final int length = in.readInt();
+                if (length < 0 || length > fileLength - complete - 16) return false;
+                if (spare.length < length) spare = new byte[length];
+                in.readFully(spare, 0, length);
+
+                final CRC32 crc = new CRC32();
+                crc.update(spare, 0, length);
+                if (in.readLong() != crc.getValue()) return false;
+
+                final byte[] read = spare;
+                spare = body;
+                body = read;
+                bodyLength = length;
+                complete += length + 16;
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        private void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static Map<String, StatsSnapshot> decode(byte[] body, int length) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, 0, length));
+        final long timestamp = in.readLong();
+        final int monitors = in.readInt();
+
+        final Map<String, StatsSnapshot> snapshots = new HashMap<String, StatsSnapshot>();
+        for (int m = 0; m < monitors; m++) {
+            final String name = in.readUTF();
+            final long count = in.readLong();
+            final long total = in.readLong();
+            final long min = in.readLong();
+            final long max = in.readLong();
+
+            final Histogram histogram = new Histogram(in.readByte());
+            final int buckets = in.readInt();
+            for (int b = 0; b < buckets; b++) {
+                histogram.addCountAt(in.readInt(), in.readLong());
+            }
+            snapshots.put(name, new StatsSnapshot(name, timestamp, count, total, min, max, histogram));
+        }
+        return snapshots;
+    }
+}
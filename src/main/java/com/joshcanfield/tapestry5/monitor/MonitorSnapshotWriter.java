@@ -0,0 +1,34 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * Appends every monitor's stopwatch totals and histogram to the {@link MonitorSnapshotFile} at
+ * {@link MonitorSymbols#SNAPSHOT_PATH}, so the stats outlive a restart. Snapshots are taken every
+ * {@link MonitorSymbols#SNAPSHOT_INTERVAL}, scheduled by {@link MonitorModule}, and once more at shutdown.
+ */
+public interface MonitorSnapshotWriter {
+
+    /**
+     * Appends a snapshot of the current stats.
+     */
+    void snapshot();
+
+    /**
+     * Reads the latest snapshot in the file and restores it as configured by
+     * {@link MonitorSymbols#SNAPSHOT_STARTUP}. Called once at startup, before the first snapshot is appended.
+     */
+    void restore();
+}
@@ -0,0 +1,410 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import org.javasimon.Stopwatch;
+
+import javax.management.ObjectName;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything recorded for one monitor name: the stopwatch, the latency histogram and, when configured, the
+ * {@link RollingWindow} of recent invocations and the {@link ExceptionBreakdown} of failed ones.
+ * <p/>
+ * Monitors with the same name share their stats.
+ * <p/>
+ * When the monitor is sampled the stopwatch and histogram only see the sampled invocations;
+ * {@link #getInvocationCount()} and {@link #getInvocationTotal()} scale them back up. The count also includes the
+ * futures handed back by async monitors, whether or not they are recorded here once they complete.
+ * <p/>
+ * Invocations in flight are counted with {@link #enter()} and {@link #exit()}, sampled or not, in the striped
+ * cells of an {@link ActiveGauge} so that callers don't contend for one counter. The peak is sampled. With
+ * {@link MonitorSymbols#ACTIVE} off there is no gauge and both counts read zero.
+ * <p/>
+ * The call and error {@link RateMeter}s are ticked in the background by {@link #tickRates(long)}, recording an
+ * invocation doesn't touch them.
+ * <p/>
+ * With {@link MonitorIntervals} the timed invocations are also recorded into the current interval, read and reset
+ * for every monitor at once by {@link MonitorIntervals#snapshotAndReset(java.util.Collection)}.
+ * <p/>
+ * The {@link #getBaseline() baseline} is the monitor's last {@link StatsSnapshot} from before the application
+ * restarted, when {@link MonitorSymbols#SNAPSHOT_PATH} is configured. Resetting the stats leaves it alone.
+ */
+public class MonitorStats {
+    private final Stopwatch stopwatch;
+    private final Histogram histogram;
+    private final RollingWindow window;
+    private final ExceptionBreakdown exceptions;
+    private final MonitorIntervals intervals;
+    private final IntervalStats[] intervalStats;
+    private final double[] percentiles;
+    private final String[] percentileNames;
+    private volatile int sampleRate = 1;
+    private volatile ObjectName objectName;
+    private final ActiveGauge active;
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong invocations = new AtomicLong();
+    private final RateMeter callRates = new RateMeter();
+    private final RateMeter errorRates = new RateMeter();
+    private volatile StatsSnapshot baseline;
+
+    /**
+     * The stats are normally built by the {@link MonitorStatsSource}, from the configured symbols.
+     *
+     * @param stopwatch   the monitor records into
+     * @param histogram   the monitor records into
+     * @param window      the monitor records into, or null
+     * @param exceptions  failed invocations are broken down into, or null
+     * @param intervals   the monitor records into, or null
+     * @param percentiles reported by {@link #getPercentiles()}, in ascending order
+     * @param active      true when invocations in flight are counted
+     */
+    public MonitorStats(Stopwatch stopwatch, Histogram histogram, RollingWindow window, ExceptionBreakdown exceptions,
+                        MonitorIntervals intervals, double[] percentiles, boolean active) {
+        this.stopwatch = stopwatch;
+        this.histogram = histogram;
+        this.window = window;
+        this.exceptions = exceptions;
+        this.intervals = intervals;
+        this.intervalStats = intervals == null ? null : new IntervalStats[]{new IntervalStats(), new IntervalStats()};
+        this.percentiles = percentiles;
+        this.active = active ? new ActiveGauge() : null;
+
+        percentileNames = new String[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            percentileNames[i] = percentileName(percentiles[i]);
+        }
+    }
+
+    /**
+     * Record a monitored invocation.
+     *
+     * @param ns the invocation took
+     */
+    public void record(long ns) {
+        invocations.incrementAndGet();
+        stopwatch.addTime(ns);
+        histogram.record(ns);
+        if (window != null) window.record(ns);
+        if (intervals != null) recordInterval(ns);
+    }
+
+    /**
+     * Record a monitored invocation whose end time has already been read, so the window doesn't read the clock again.
+     *
+     * @param ns  the invocation took
+     * @param now the time the invocation ended, from a {@link MonitorClock}
+     */
+    public void record(long ns, long now) {
+        invocations.incrementAndGet();
+        recordTime(ns, now);
+    }
+
+    /**
+     * Record a future handed back by a monitored invocation once it completes. It was counted when it was handed
+     * back, see {@link #futureHandedBack()}, so only its time is recorded.
+     *
+     * @param ns  from the invocation until the future completed
+     * @param now the time the future was seen to complete, from a {@link MonitorClock}
+     */
+    public void recordFuture(long ns, long now) {
+        recordTime(ns, now);
+    }
+
+    private void recordTime(long ns, long now) {
+        stopwatch.addTime(ns);
+        histogram.record(ns);
+        if (window != null) window.record(ns, now);
+        if (intervals != null) recordInterval(ns);
+    }
+
+    private void recordInterval(long ns) {
+        final long epoch = intervals.enter();
+        intervalStats[MonitorIntervals.index(epoch)].record(ns);
+        intervals.exit(epoch);
+    }
+
+    /**
+     * @param index 0 or 1, see {@link MonitorIntervals#index(long)}
+     * @return one of the two intervals, null when the stats weren't built with {@link MonitorIntervals}
+     */
+    IntervalStats getInterval(int index) {
+        return intervalStats == null ? null : intervalStats[index];
+    }
+
+    /**
+     * An invocation started.
+     */
+    public void enter() {
+        if (active != null) active.enter();
+    }
+
+    /**
+     * An invocation finished, every {@link #enter()} must be followed by one exit.
+     */
+    public void exit() {
+        if (active != null) active.exit();
+    }
+
+    /**
+     * @return the number of invocations in flight
+     */
+    public long getActive() {
+        return active == null ? 0 : active.getActive();
+    }
+
+    /**
+     * @return the most invocations seen in flight at once since the last reset, sampled as {@link ActiveGauge}
+     *         describes
+     */
+    public long getMaxActive() {
+        return active == null ? 0 : active.getMax();
+    }
+
+    /**
+     * @return when the peak was seen, in milliseconds since the epoch, 0 if there hasn't been an invocation
+     */
+    public long getMaxActiveTimestamp() {
+        return active == null ? 0 : active.getMaxTimestamp();
+    }
+
+    /**
+     * Starts the peak again from the invocations in flight.
+     */
+    public void resetMaxActive() {
+        if (active != null) active.resetMax();
+    }
+
+    /**
+     * Record a timed invocation that threw, by the class of exception. Whether it is also recorded in these or
+     * other stats is up to the monitor's exception filters.
+     *
+     * @param exceptionClass thrown by the invocation
+     * @param ns             the invocation took
+     */
+    public void recordException(Class exceptionClass, long ns) {
+        if (exceptions != null) exceptions.record(exceptionClass, ns);
+    }
+
+    /**
+     * @return the failed invocations by exception class, null unless {@link MonitorSymbols#EXCEPTION_CLASSES} is
+     *         above zero
+     */
+    public ExceptionBreakdown getExceptions() {
+        return exceptions;
+    }
+
+    /**
+     * An invocation ended in an exception, sampled or not.
+     */
+    public void error() {
+        errors.incrementAndGet();
+    }
+
+    /**
+     * @return the number of invocations that ended in an exception since the last reset
+     */
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    /**
+     * Folds the invocations and errors since the last tick into the rates.
+     *
+     * @param now the time in nanoseconds, on the same scale as {@link System#nanoTime()}
+     */
+    public void tickRates(long now) {
+        callRates.tick(getInvocationCount(), now);
+        errorRates.tick(errors.get(), now);
+    }
+
+    /**
+     * @return the invocations per second, estimated from the sampled invocations
+     */
+    public RateMeter getCallRates() {
+        return callRates;
+    }
+
+    /**
+     * @return the invocations per second that ended in an exception
+     */
+    public RateMeter getErrorRates() {
+        return errorRates;
+    }
+
+    public String getName() {
+        return stopwatch.getName();
+    }
+
+    public Stopwatch getStopwatch() {
+        return stopwatch;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return the recent invocations, null when no windows are configured
+     */
+    public RollingWindow getWindow() {
+        return window;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * @return the JMX name the monitor was registered under, null until it is registered
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Monitors sharing stats register under the first name.
+     */
+    public void setObjectName(ObjectName objectName) {
+        if (this.objectName == null) this.objectName = objectName;
+    }
+
+    /**
+     * A timed invocation handed back a future that will be recorded by {@link #recordFuture(long, long)} when it is
+     * seen to complete. It is counted by {@link #getInvocationCount()} from now on, so a future nobody looks at again
+     * is still counted.
+     */
+    public void futureHandedBack() {
+        invocations.incrementAndGet();
+    }
+
+    /**
+     * The count only grows until the stats are reset, as the {@link RateMeter}s expect. Invocations are counted as
+     * they are recorded and futures as they are handed back, so a future is counted once whether or not it is
+     * recorded here when it completes. Invocations still in a thread's buffer aren't counted yet.
+     *
+     * @return the estimated number of invocations, scaled by the sample rate
+     */
+    public long getInvocationCount() {
+        return invocations.get() * sampleRate;
+    }
+
+    /**
+     * @return the estimated total nanoseconds spent in the monitor, the recorded total scaled by the sample rate
+     */
+    public long getInvocationTotal() {
+        return stopwatch.getTotal() * sampleRate;
+    }
+
+    /**
+     * The configured percentiles keyed by name, "p50", "p99", "p99.9" and so on.
+     *
+     * @return the value in nanoseconds at each percentile
+     */
+    public Map<String, Long> getPercentiles() {
+        return percentiles(histogram);
+    }
+
+    /**
+     * The configured percentiles of the invocations in the last buckets of the {@link #getWindow() window}.
+     *
+     * @param size the number of buckets
+     * @return the value in nanoseconds at each percentile keyed by name
+     */
+    public Map<String, Long> getWindowPercentiles(int size) {
+        return percentiles(window.histogram(size));
+    }
+
+    private Map<String, Long> percentiles(Histogram histogram) {
+        final long[] values = histogram.getValuesAtPercentiles(percentiles);
+
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < percentiles.length; i++) {
+            result.put(percentileNames[i], values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the stats saved before the last restart, null if there were none
+     */
+    public StatsSnapshot getBaseline() {
+        return baseline;
+    }
+
+    public void setBaseline(StatsSnapshot baseline) {
+        this.baseline = baseline;
+    }
+
+    /**
+     * The configured percentiles of the {@link #getBaseline() baseline}, empty when there is none.
+     *
+     * @return the value in nanoseconds at each percentile keyed by name
+     */
+    public Map<String, Long> getBaselinePercentiles() {
+        final StatsSnapshot baseline = this.baseline;
+        return baseline == null ? Collections.<String, Long>emptyMap() : percentiles(baseline.getHistogram());
+    }
+
+    public int getPercentileCount() {
+        return percentiles.length;
+    }
+
+    /**
+     * @param index of the percentile, in ascending order
+     * @return the name of the percentile such as "p99.9"
+     */
+    public String getPercentileName(int index) {
+        return percentileNames[index];
+    }
+
+    /**
+     * Reads the configured percentiles without allocating, for reporters that poll often.
+     *
+     * @param values receives the value in nanoseconds at each percentile, at least {@link #getPercentileCount()} long
+     */
+    public void getPercentileValues(long[] values) {
+        histogram.getValuesAtPercentiles(percentiles, values);
+    }
+
+    /**
+     * Resets the stopwatch, the histogram, the window, the exception breakdown, the rates and the peak of
+     * invocations in flight.
+     */
+    public void reset() {
+        stopwatch.reset();
+        histogram.reset();
+        if (window != null) window.reset();
+        if (exceptions != null) exceptions.reset();
+        resetMaxActive();
+        errors.set(0);
+        invocations.set(0);
+        callRates.reset();
+        errorRates.reset();
+    }
+
+    static String percentileName(double percentile) {
+        final String name = Double.toString(percentile);
+        return "p" + (name.endsWith(".0") ? name.substring(0, name.length() - 2) : name);
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Provides the stats that monitored invocations are recorded into. The kind of stopwatch is chosen with
+ * {@link MonitorSymbols#RECORDER} and the reported percentiles with {@link MonitorSymbols#PERCENTILES}.
+ */
+public interface MonitorStatsSource {
+
+    /**
+     * Get the stats for a monitor, creating them if needed. Monitors with the same name share their stats.
+     *
+     * @param name of the monitor
+     * @return the stats
+     */
+    MonitorStats getStats(String name);
+
+    /**
+     * Get the stats an exception filter segregates failures into, creating them if needed. They are created without
+     * a {@link RollingWindow} or a count of invocations in flight.
+     *
+     * @param name of the monitor's stats followed by the filter's name
+     * @return the stats
+     */
+    MonitorStats getExceptionStats(String name);
+
+    /**
+     * @return a live view of the stats created so far, safe to iterate while monitors are being added
+     */
+    Collection<MonitorStats> getAllStats();
+
+    /**
+     * The windows configured with {@link MonitorSymbols#WINDOWS}, in the order they were given.
+     *
+     * @return the number of {@link RollingWindow} buckets each window covers, keyed by its name such as "5m"
+     */
+    Map<String, Integer> getWindows();
+
+    /**
+     * @return the recorder of per-request call trees, null unless {@link MonitorSymbols#CALL_TREE} is enabled
+     */
+    CallTreeRecorder getCallTreeRecorder();
+
+    /**
+     * @return the log of invocations slower than their threshold
+     */
+    SlowInvocationLog getSlowInvocationLog();
+
+    /**
+     * @return the nanoseconds set by {@link MonitorSymbols#SLOW_THRESHOLD}, Long.MAX_VALUE when it isn't set
+     */
+    long getSlowThreshold();
+
+    /**
+     * Hands each monitor its stats from before the restart as its {@link MonitorStats#getBaseline() baseline}.
+     * Monitors that haven't been created yet get theirs when they are.
+     *
+     * @param snapshots keyed by monitor name, see {@link MonitorSnapshotFile#readLatest(java.io.File)}
+     * @param histograms when true the saved histograms are also added to the live ones, so the percentiles carry on
+     *                   from before the restart
+     */
+    void restore(Map<String, StatsSnapshot> snapshots, boolean histograms);
+
+    /**
+     * Ends the current interval of every monitor at the same instant and starts the next one. Each timed invocation
+     * is counted in exactly one interval, however it races with the reset. Buffered invocations are flushed first
+     * and counted in the interval that ends.
+     *
+     * @return what each monitor recorded since the last call, or since it was created
+     * @throws IllegalStateException unless {@link MonitorSymbols#INTERVALS} is enabled
+     */
+    MonitorInterval snapshotAndReset();
+
+    /**
+     * Updates every monitor's call and error rates, see {@link MonitorStats#tickRates(long)}.
+     */
+    void tickRates();
+
+    /**
+     * Flushes invocations held in per-thread buffers into their stats. Does nothing unless
+     * {@link MonitorSymbols#BUFFER_SIZE} is configured.
+     */
+    void flush();
+}
@@ -0,0 +1,291 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * Configuration symbols for monitoring. Defaults are contributed by {@link MonitorModule} and can be overridden
+ * in the application's ApplicationDefaults.
+ */
+public class MonitorSymbols {
+
+    /**
+     * How monitored invocations are recorded.
+     * <ul>
+     * <li>"simon" (the default) records into javasimon stopwatches, visible through SimonManager</li>
+     * <li>"striped" records into lock-free striped counters that scale with the number of cores. The values are
+     * read through JMX or {@link MonitorStatsSource}, the stopwatches aren't registered with SimonManager.</li>
+     * </ul>
+     */
+    public static final String RECORDER = "tapestry.monitor.recorder";
+
+    public static final String RECORDER_SIMON = "simon";
+
+    public static final String RECORDER_STRIPED = "striped";
+
+    /**
+     * Comma separated list of the latency percentiles reported for each monitor. Defaults to "50,90,99,99.9".
+     */
+    public static final String PERCENTILES = "tapestry.monitor.percentiles";
+
+    /**
+     * Comma separated list of the windows of recent invocations reported for each monitor, such as "1m,5m,15m".
+     * Each window is registered as its own MBean, named after the monitor's with a "window" key added. Defaults to
+     * "", which leaves windows off; with the default resolution a busy monitor's "15m" window keeps about 146KB.
+     */
+    public static final String WINDOWS = "tapestry.monitor.windows";
+
+    /**
+     * The length of the buckets windows are made of, "15s" by default. Shorter buckets make windows more exact and
+     * take more memory, each monitor keeps one 2.4KB bucket per resolution in its longest window.
+     */
+    public static final String WINDOW_RESOLUTION = "tapestry.monitor.window-resolution";
+
+    /**
+     * The most exception classes each monitor times separately in its {@link ExceptionBreakdown}, "10" by default.
+     * Classes past the limit are counted together as "other". Set to "0" to leave the breakdown off.
+     */
+    public static final String EXCEPTION_CLASSES = "tapestry.monitor.exception-classes";
+
+    /**
+     * The number of invocations each thread buffers before merging them into the shared stats. Buffers are also
+     * flushed at the end of every request and on the {@link #FLUSH_INTERVAL}. Defaults to "0", which records
+     * straight into the shared stats.
+     */
+    public static final String BUFFER_SIZE = "tapestry.monitor.buffer-size";
+
+    /**
+     * How often buffered invocations are flushed when {@link #BUFFER_SIZE} is set, such as "1 s" (the default)
+     * or "500 ms".
+     */
+    public static final String FLUSH_INTERVAL = "tapestry.monitor.flush-interval";
+
+    /**
+     * How often each monitor's 1, 5 and 15 minute call and error rates are updated, "5 s" by default.
+     */
+    public static final String RATE_INTERVAL = "tapestry.monitor.rate-interval";
+
+    /**
+     * The clock monitors use unless they choose one with
+     * {@link com.joshcanfield.tapestry5.annotations.Monitor#clock()}.
+     * <ul>
+     * <li>"precise" (the default) reads System.nanoTime() before and after each invocation</li>
+     * <li>"coarse" reads a tick updated by a background thread every {@link #CLOCK_RESOLUTION}</li>
+     * </ul>
+     */
+    public static final String CLOCK = "tapestry.monitor.clock";
+
+    public static final String CLOCK_PRECISE = "precise";
+
+    public static final String CLOCK_COARSE = "coarse";
+
+    /**
+     * How often the coarse clock ticks, "1 ms" by default.
+     */
+    public static final String CLOCK_RESOLUTION = "tapestry.monitor.clock-resolution";
+
+    /**
+     * When "true" a monitor's stats and MBeans are created the first time the monitored method is called rather
+     * than when it is advised, so startup time and memory don't grow with monitored methods that are never used.
+     * Defaults to "false".
+     */
+    public static final String LAZY_REGISTRATION = "tapestry.monitor.lazy-registration";
+
+    /**
+     * When "false" invocations aren't counted while they run, so Active and MaxActive stay 0, each call is spared
+     * the two updates of the in-flight count and the stats don't allocate its striped counters. Defaults to "true".
+     */
+    public static final String ACTIVE = "tapestry.monitor.active";
+
+    /**
+     * Set to "false" to ignore the compile time index of @Monitor methods and search every service. Services are
+     * advised before symbols can be read, so this is read only as a JVM system property:
+     * -Dtapestry.monitor.index=false. Defaults to "true".
+     */
+    public static final String INDEX = "tapestry.monitor.index";
+
+    /**
+     * The path that serves every monitor's stats as JSON, such as "/monitor.json". Defaults to "", which leaves the
+     * endpoint off. The stats are visible to anyone who can reach the path.
+     */
+    public static final String JSON_PATH = "tapestry.monitor.json-path";
+
+    /**
+     * The path that serves every monitor in the Prometheus text format, such as "/metrics". Defaults to "", which
+     * leaves the endpoint off.
+     */
+    public static final String PROMETHEUS_PATH = "tapestry.monitor.prometheus-path";
+
+    /**
+     * The StatsD or Graphite host that {@link MonitorPushExporter} sends stats to. Defaults to "", which leaves
+     * pushing off.
+     */
+    public static final String PUSH_HOST = "tapestry.monitor.push-host";
+
+    /**
+     * The collector's port. Defaults to "0", which is 8125 for StatsD and 2003 for Graphite.
+     */
+    public static final String PUSH_PORT = "tapestry.monitor.push-port";
+
+    /**
+     * How stats are pushed.
+     * <ul>
+     * <li>"statsd" (the default) sends StatsD counters and gauges over UDP</li>
+     * <li>"graphite" sends the Graphite plaintext protocol over TCP</li>
+     * </ul>
+     */
+    public static final String PUSH_FORMAT = "tapestry.monitor.push-format";
+
+    public static final String PUSH_FORMAT_STATSD = "statsd";
+
+    public static final String PUSH_FORMAT_GRAPHITE = "graphite";
+
+    /**
+     * How often stats are pushed, "10 s" by default.
+     */
+    public static final String PUSH_INTERVAL = "tapestry.monitor.push-interval";
+
+    /**
+     * Put in front of every pushed metric name, "tapestry" by default.
+     */
+    public static final String PUSH_PREFIX = "tapestry.monitor.push-prefix";
+
+    /**
+     * The most bytes sent in one packet. The default of "1432" fits a UDP datagram in an Ethernet frame.
+     */
+    public static final String PUSH_PACKET_SIZE = "tapestry.monitor.push-packet-size";
+
+    /**
+     * The memory-mapped file {@link MonitorFileExporter} keeps every monitor's stats in, such as
+     * "/var/run/app.monitor". Defaults to "", which leaves the file off. Anyone who can read the file can read the
+     * stats.
+     */
+    public static final String FILE_PATH = "tapestry.monitor.file-path";
+
+    /**
+     * How often the stats are copied into the file, "1 s" by default.
+     */
+    public static final String FILE_INTERVAL = "tapestry.monitor.file-interval";
+
+    /**
+     * The most monitors the file has room for, "1024" by default. Each takes 392 bytes.
+     */
+    public static final String FILE_CAPACITY = "tapestry.monitor.file-capacity";
+
+    /**
+     * The file {@link MonitorSnapshotWriter} appends snapshots of every monitor to, such as
+     * "/var/lib/app/monitor.snapshots". Defaults to "", which takes no snapshots.
+     */
+    public static final String SNAPSHOT_PATH = "tapestry.monitor.snapshot-path";
+
+    /**
+     * How often a snapshot is taken, "1 m" by default.
+     */
+    public static final String SNAPSHOT_INTERVAL = "tapestry.monitor.snapshot-interval";
+
+    /**
+     * The number of snapshots written between forcing the file to disk, "5" by default.
+     */
+    public static final String SNAPSHOT_SYNC = "tapestry.monitor.snapshot-sync";
+
+    /**
+     * The size in bytes the snapshot file can grow to before it is cut back to the latest snapshot, "10000000" by
+     * default.
+     */
+    public static final String SNAPSHOT_MAX_SIZE = "tapestry.monitor.snapshot-max-size";
+
+    /**
+     * What is done with the latest snapshot at startup: {@link #SNAPSHOT_STARTUP_BASELINE} by default,
+     * {@link #SNAPSHOT_STARTUP_RESTORE} or {@link #SNAPSHOT_STARTUP_IGNORE}.
+     */
+    public static final String SNAPSHOT_STARTUP = "tapestry.monitor.snapshot-startup";
+
+    /**
+     * Each monitor keeps its saved stats as its {@link MonitorStats#getBaseline() baseline} and starts counting
+     * from zero.
+     */
+    public static final String SNAPSHOT_STARTUP_BASELINE = "baseline";
+
+    /**
+     * As {@link #SNAPSHOT_STARTUP_BASELINE}, and the saved histograms are added to the live ones so the
+     * percentiles carry on from before the restart.
+     */
+    public static final String SNAPSHOT_STARTUP_RESTORE = "restore";
+
+    /**
+     * The saved snapshot isn't read.
+     */
+    public static final String SNAPSHOT_STARTUP_IGNORE = "ignore";
+
+    /**
+     * When "true" every timed invocation is also recorded into the current interval, which
+     * {@link MonitorStatsSource#snapshotAndReset()} reads and resets for all monitors at once. Defaults to "false";
+     * keeping intervals adds two atomic updates shared by every monitor to each invocation.
+     */
+    public static final String INTERVALS = "tapestry.monitor.intervals";
+
+    /**
+     * The packages whose pages, components and mixins have their render phases timed without @Monitor, such as
+     * "com.example.pages,com.example.components", or "*" for every component including Tapestry's own. Defaults to
+     * "", which times none.
+     */
+    public static final String RENDER_PACKAGES = "tapestry.monitor.render-packages";
+
+    /**
+     * When "true" the monitored invocations made by each request are recorded as a {@link CallTree} and handed to
+     * the {@link CallTreeListener} service at the end of the request. Defaults to "false".
+     */
+    public static final String CALL_TREE = "tapestry.monitor.call-tree";
+
+    /**
+     * The most monitors recorded in one request's call tree, "64" by default. Repeated invocations of a monitor from
+     * the same caller count once.
+     */
+    public static final String CALL_TREE_SIZE = "tapestry.monitor.call-tree-size";
+
+    /**
+     * The response header that carries the request's call tree, such as "X-Monitor-Calls". Defaults to "", which
+     * sends no header. The header shows anyone who can make a request how the application is put together.
+     */
+    public static final String CALL_TREE_HEADER = "tapestry.monitor.call-tree-header";
+
+    /**
+     * Invocations taking longer than this, such as "250 ms", are captured in the {@link SlowInvocationLog} unless
+     * their monitor sets its own {@link com.joshcanfield.tapestry5.annotations.Monitor#slowThreshold()}. Defaults
+     * to "", which captures nothing.
+     */
+    public static final String SLOW_THRESHOLD = "tapestry.monitor.slow-threshold";
+
+    /**
+     * The number of slow invocations held, "100" by default. The newest replaces the oldest.
+     */
+    public static final String SLOW_CAPACITY = "tapestry.monitor.slow-capacity";
+
+    /**
+     * When "true" slow invocations keep a summary of each argument. Defaults to "false"; arguments can hold data
+     * that shouldn't be shown to whoever reads the log.
+     */
+    public static final String SLOW_ARGUMENTS = "tapestry.monitor.slow-arguments";
+
+    /**
+     * When "true" slow invocations keep the stack they returned to. Defaults to "false".
+     */
+    public static final String SLOW_STACK = "tapestry.monitor.slow-stack";
+
+    /**
+     * The path that serves the slow invocations as JSON, such as "/monitor-slow.json". Defaults to "", which leaves
+     * the endpoint off.
+     */
+    public static final String SLOW_JSON_PATH = "tapestry.monitor.slow-json-path";
+}
@@ -0,0 +1,60 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.Map;
+
+/**
+ * The MXBean registered for each of a monitor's windows, see {@link MonitorSymbols#WINDOWS}. Every attribute is
+ * read from the window as it is when asked for.
+ */
+public interface MonitorWindowMXBean {
+
+    /**
+     * The length of the window in milliseconds, a whole number of buckets.
+     */
+    long getDuration();
+
+    /**
+     * The milliseconds actually covered, which is up to one bucket less than the duration.
+     */
+    long getSpan();
+
+    /**
+     * The number of invocations in the window, estimated from the sampled invocations.
+     */
+    long getInvocationCount();
+
+    /**
+     * Invocations per second over the span, estimated from the sampled invocations.
+     */
+    double getRate();
+
+    /**
+     * The mean nanoseconds of the invocations in the window.
+     */
+    double getMean();
+
+    /**
+     * The longest invocation in the window, in nanoseconds.
+     */
+    long getMax();
+
+    /**
+     * The percentiles configured with {@link MonitorSymbols#PERCENTILES} of the invocations in the window, in
+     * nanoseconds, keyed by "p50", "p99"...
+     */
+    Map<String, Long> getPercentiles();
+}
@@ -0,0 +1,40 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import javax.management.openmbean.TabularData;
+
+/**
+ * Every monitor's stats in one table, registered as "&lt;app package&gt;:type=Monitors", so a collector can read
+ * them all with one JMX call rather than an attribute at a time from each monitor's MBean. It is a standard MBean
+ * rather than an MXBean so the table reaches the client as the TabularData it is built as.
+ * <p/>
+ * Each row is one monitor, indexed by its name: objectName, count, total, min, max, mean, sampleRate,
+ * invocationCount, invocationTotal, active, maxActive and errors, then one column per configured percentile named
+ * "p50", "p99" and so on. Times are in nanoseconds.
+ */
+public interface MonitorsMBean {
+
+    /**
+     * @return a row for every monitor
+     */
+    TabularData getMonitors();
+
+    /**
+     * @param prefix the monitor names start with, such as "com.example.services"
+     * @return a row for every monitor whose name starts with the prefix
+     */
+    TabularData monitors(String prefix);
+}
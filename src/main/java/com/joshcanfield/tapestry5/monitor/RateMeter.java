@@ -0,0 +1,103 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponentially weighted 1, 5 and 15 minute rates of a growing count, in events per second.
+ * <p/>
+ * The meter doesn't count anything itself. Each {@link #tick(long, long)} is handed the count as it stands and
+ * folds the events since the previous tick into the rates, weighting them by how long ago the previous tick was,
+ * so a late tick doesn't skew the rates. The first tick only sets the starting count and the second sets every rate
+ * to the rate since the first, rather than having the 15 minute rate climb from zero for the best part of an hour.
+ * A count that drops, because it was reset, starts again from zero.
+ * <p/>
+ * Ticks are expected from one background thread, reads can come from any.
+ */
+public class RateMeter {
+    private static final long[] WINDOWS = {
+            TimeUnit.MINUTES.toNanos(1), TimeUnit.MINUTES.toNanos(5), TimeUnit.MINUTES.toNanos(15)
+    };
+    private static final String[] NAMES = {"1m", "5m", "15m"};
+
+    private final double[] rates = new double[WINDOWS.length];
+    private boolean started;
+    private boolean rated;
+    private long lastCount;
+    private long lastTick;
+
+    /**
+     * @param count the count as it stands
+     * @param now   the time in nanoseconds, on the same scale as {@link System#nanoTime()}
+     */
+    public synchronized void tick(long count, long now) {
+        if (!started) {
+            lastCount = count;
+            lastTick = now;
+            started = true;
+            return;
+        }
+
+        final long elapsed = now - lastTick;
+        if (elapsed <= 0) return;
+
+        final long events = count < lastCount ? count : count - lastCount;
+        final double rate = events * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+        for (int i = 0; i < rates.length; i++) {
+            final double alpha = rated ? 1 - Math.exp(-(double) elapsed / WINDOWS[i]) : 1;
+            rates[i] += alpha * (rate - rates[i]);
+        }
+        rated = true;
+        lastCount = count;
+        lastTick = now;
+    }
+
+    public synchronized double getOneMinuteRate() {
+        return rates[0];
+    }
+
+    public synchronized double getFiveMinuteRate() {
+        return rates[1];
+    }
+
+    public synchronized double getFifteenMinuteRate() {
+        return rates[2];
+    }
+
+    /**
+     * @return the rates per second keyed by "1m", "5m" and "15m"
+     */
+    public synchronized Map<String, Double> getRates() {
+        final Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (int i = 0; i < rates.length; i++) {
+            result.put(NAMES[i], rates[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Clears the rates, the next tick starts counting again.
+     */
+    public synchronized void reset() {
+        for (int i = 0; i < rates.length; i++) {
+            rates[i] = 0;
+        }
+        started = false;
+        rated = false;
+    }
+}
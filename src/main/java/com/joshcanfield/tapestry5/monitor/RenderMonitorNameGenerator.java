@@ -0,0 +1,42 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.joshcanfield.tapestry5.monitor;
+
+import javax.management.ObjectName;
+
+/**
+ * Provides the strategy for naming the monitors that time component render phases, see
+ * {@link MonitorSymbols#RENDER_PACKAGES}. Like {@link MonitorNameGenerator} it is a strategy chosen by class, here
+ * the component's. Components without a contributed strategy are named by {@link DefaultMonitorNameGenerator}.
+ */
+public interface RenderMonitorNameGenerator {
+
+    /**
+     * Name the monitor timing a render phase of a component.
+     *
+     * @param componentClass being rendered
+     * @param phase          the phase annotation's simple name, such as "BeginRender", or "Render" for the whole render
+     * @return the name of the render monitor
+     */
+    String getRenderMonitorName(Class componentClass, String phase);
+
+    /**
+     * Get the object name for a render phase of a component.
+     *
+     * @param componentClass being rendered
+     * @param phase          the phase annotation's simple name, such as "BeginRender", or "Render" for the whole render
+     * @return the object name
+     */
+    ObjectName getRenderJmxObjectName(Class componentClass, String phase);
+}
@@ -0,0 +1,197 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Invocations recorded into a ring of fixed-duration buckets so that recent behaviour can be read without resetting
+ * the cumulative stats.
+ * <p/>
+ * A window of n buckets covers the bucket being filled and the n - 1 before it, so it spans between n - 1 and n
+ * bucket durations depending on how far into the current bucket it is read. {@link Snapshot#getSpan()} is the span
+ * actually covered.
+ * <p/>
+ * Recording doesn't lock. When a bucket's time comes round again the first invocation to see it swaps in a new
+ * bucket, an invocation still recording into the old one at that moment is lost. Each bucket keeps a
+ * {@link Histogram} with 3 sub-bucket bits, about 2.4KB, and the count is read from that histogram rather than
+ * kept separately.
+ */
+public class RollingWindow {
+    static final int HISTOGRAM_BITS = 3;
+
+    private final MonitorClock clock;
+    private final long resolution;
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param clock      read by {@link #record(long)} and the snapshots
+     * @param resolution of each bucket in nanoseconds
+     * @param size       the number of buckets kept, the most any window can use
+     */
+    public RollingWindow(MonitorClock clock, long resolution, int size) {
+        if (resolution <= 0) throw new IllegalArgumentException("resolution must be positive: " + resolution);
+        if (size <= 0) throw new IllegalArgumentException("size must be positive: " + size);
+
+        this.clock = clock;
+        this.resolution = resolution;
+        this.buckets = new AtomicReferenceArray<Bucket>(size);
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public int getSize() {
+        return buckets.length();
+    }
+
+    public void record(long ns) {
+        record(ns, clock.nanoTime());
+    }
+
+    /**
+     * Records an invocation that ended at a time the caller has already read, saving a clock read.
+     *
+     * @param ns  the invocation took
+     * @param now the clock's time, or a time on the same scale as {@link System#nanoTime()}
+     */
+    public void record(long ns, long now) {
+        final long epoch = now / resolution;
+        // nanoTime can be negative
+        final int slot = (int) ((epoch % buckets.length() + buckets.length()) % buckets.length());
+
+        Bucket bucket = buckets.get(slot);
+        if (bucket == null || bucket.epoch < epoch) {
+            final Bucket fresh = new Bucket(epoch);
+            bucket = buckets.compareAndSet(slot, bucket, fresh) ? fresh : buckets.get(slot);
+        }
+        bucket.record(ns);
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    /**
+     * @param size the number of buckets to read, capped at {@link #getSize()}
+     * @return the invocations recorded in the last size buckets
+     */
+    public Snapshot snapshot(int size) {
+        final long now = clock.nanoTime();
+        final long oldest = now / resolution - Math.min(size, buckets.length()) + 1;
+
+        long count = 0;
+        long total = 0;
+        long max = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket == null || bucket.epoch < oldest) continue;
+
+            count += bucket.histogram.getCount();
+            total += bucket.total.get();
+            max = Math.max(max, bucket.max.get());
+        }
+        return new Snapshot(count, total, max, now - oldest * resolution);
+    }
+
+    /**
+     * @param size the number of buckets to read, capped at {@link #getSize()}
+     * @return a histogram holding the invocations recorded in the last size buckets
+     */
+    public Histogram histogram(int size) {
+        final long oldest = clock.nanoTime() / resolution - Math.min(size, buckets.length()) + 1;
+
+        final Histogram histogram = new Histogram(HISTOGRAM_BITS);
+        for (int i = 0; i < buckets.length(); i++) {
+            final Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.epoch >= oldest) histogram.add(bucket.histogram);
+        }
+        return histogram;
+    }
+
+    private static final class Bucket {
+        private final long epoch;
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final Histogram histogram = new Histogram(HISTOGRAM_BITS);
+
+        private Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+
+        private void record(long ns) {
+            total.addAndGet(ns);
+            long current;
+            while (ns > (current = max.get())) {
+                if (max.compareAndSet(current, ns)) break;
+            }
+            histogram.record(ns);
+        }
+    }
+
+    /**
+     * What a window held when it was read.
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final long total;
+        private final long max;
+        private final long span;
+
+        Snapshot(long count, long total, long max, long span) {
+            this.count = count;
+            this.total = total;
+            this.max = max;
+            this.span = span;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the nanoseconds spent in the recorded invocations
+         */
+        public long getTotal() {
+            return total;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return the nanoseconds the window covered
+         */
+        public long getSpan() {
+            return span;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) total / count;
+        }
+
+        /**
+         * @return invocations per second over the span
+         */
+        public double getRate() {
+            return span <= 0 ? 0 : count * 1e9 / span;
+        }
+    }
+}
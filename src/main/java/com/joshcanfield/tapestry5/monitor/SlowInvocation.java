@@ -0,0 +1,90 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+/**
+ * An invocation that took longer than its monitor's slow threshold, as captured by {@link SlowInvocationLog}.
+ */
+public class SlowInvocation {
+    final long sequence;
+    private final String monitor;
+    private final String method;
+    private final long duration;
+    private final String thread;
+    private final long timestamp;
+    private final String[] arguments;
+    private final String[] stack;
+
+    SlowInvocation(long sequence, String monitor, String method, long duration, String thread, long timestamp,
+                   String[] arguments, String[] stack) {
+        this.sequence = sequence;
+        this.monitor = monitor;
+        this.method = method;
+        this.duration = duration;
+        this.thread = thread;
+        this.timestamp = timestamp;
+        this.arguments = arguments;
+        this.stack = stack;
+    }
+
+    /**
+     * @return the name of the monitor
+     */
+    public String getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return the class and name of the invoked method, monitors sharing a name can cover several
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return nanoseconds the invocation took
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return the name of the thread that made the invocation
+     */
+    public String getThread() {
+        return thread;
+    }
+
+    /**
+     * @return when the invocation finished, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return a short description of each argument, null unless {@link MonitorSymbols#SLOW_ARGUMENTS} is enabled
+     */
+    public String[] getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return the stack the invocation returned to, null unless {@link MonitorSymbols#SLOW_STACK} is enabled
+     */
+    public String[] getStack() {
+        return stack;
+    }
+}
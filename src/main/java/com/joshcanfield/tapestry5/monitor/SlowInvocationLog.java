@@ -0,0 +1,122 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Holds the most recent slow invocations of every monitor in a fixed size ring.
+ * <p/>
+ * Adding takes a slot with a single atomic increment and doesn't lock, the newest invocation overwrites the oldest.
+ * Each capture carries its position in the sequence so readers skip slots that are overwritten while they read.
+ * Argument summaries and stacks are only built when configured, and only for slow invocations.
+ */
+public class SlowInvocationLog implements SlowInvocationsMXBean {
+    private static final int ARGUMENT_LENGTH = 100;
+    private static final int STACK_DEPTH = 50;
+
+    private final AtomicReferenceArray<SlowInvocation> slots;
+    private final AtomicLong next = new AtomicLong();
+    private final boolean captureArguments;
+    private final boolean captureStack;
+    private volatile long cleared;
+
+    /**
+     * @param capacity         the number of invocations held
+     * @param captureArguments whether to keep a summary of each argument
+     * @param captureStack     whether to keep the stack the invocation returned to
+     */
+    public SlowInvocationLog(int capacity, boolean captureArguments, boolean captureStack) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1: " + capacity);
+
+        this.slots = new AtomicReferenceArray<SlowInvocation>(capacity);
+        this.captureArguments = captureArguments;
+        this.captureStack = captureStack;
+    }
+
+    public boolean isCaptureArguments() {
+        return captureArguments;
+    }
+
+    /**
+     * Captures a slow invocation.
+     *
+     * @param monitor   name of the monitor
+     * @param method    that was invoked
+     * @param ns        the invocation took
+     * @param arguments of the invocation, only read when arguments are captured
+     */
+    public void add(String monitor, Method method, long ns, Object[] arguments) {
+        final long sequence = next.getAndIncrement();
+        final SlowInvocation invocation = new SlowInvocation(sequence, monitor,
+                method.getDeclaringClass().getName() + "." + method.getName(), ns, Thread.currentThread().getName(),
+                System.currentTimeMillis(), captureArguments ? summarize(arguments) : null,
+                captureStack ? stack() : null);
+        slots.set((int) (sequence % slots.length()), invocation);
+    }
+
+    public List<SlowInvocation> getInvocations() {
+        final long last = next.get() - 1;
+        final long first = Math.max(cleared, last - slots.length() + 1);
+
+        final List<SlowInvocation> invocations = new ArrayList<SlowInvocation>();
+        for (long sequence = last; sequence >= first; sequence--) {
+            final SlowInvocation invocation = slots.get((int) (sequence % slots.length()));
+            // a slot that is still being filled or has been taken by a newer invocation
+            if (invocation != null && invocation.sequence == sequence) invocations.add(invocation);
+        }
+        return invocations;
+    }
+
+    public long getCaptured() {
+        return next.get();
+    }
+
+    public void clear() {
+        cleared = next.get();
+    }
+
+    private static String[] summarize(Object[] arguments) {
+        if (arguments == null) return null;
+
+        final String[] summaries = new String[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            String summary;
+            try {
+                summary = String.valueOf(arguments[i]);
+            } catch (RuntimeException e) {
+                summary = arguments[i].getClass().getName();
+            }
+            summaries[i] = summary.length() > ARGUMENT_LENGTH ? summary.substring(0, ARGUMENT_LENGTH) + "..." : summary;
+        }
+        return summaries;
+    }
+
+    private static String[] stack() {
+        final StackTraceElement[] frames = new Throwable().getStackTrace();
+        int from = 0;
+        while (from < frames.length && frames[from].getClassName().equals(SlowInvocationLog.class.getName())) from++;
+
+        final String[] stack = new String[Math.min(frames.length - from, STACK_DEPTH)];
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = frames[from + i].toString();
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import java.util.List;
+
+/**
+ * The MXBean for the {@link SlowInvocationLog}, registered as "&lt;app package&gt;:type=SlowInvocations".
+ */
+public interface SlowInvocationsMXBean {
+
+    /**
+     * The captured invocations still held, newest first.
+     */
+    List<SlowInvocation> getInvocations();
+
+    /**
+     * The number of invocations captured since startup, including those pushed out of the log.
+     */
+    long getCaptured();
+
+    /**
+     * Drops the held invocations.
+     */
+    void clear();
+}
@@ -0,0 +1,89 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.joshcanfield.tapestry5.monitor;
+
+import org.javasimon.Stopwatch;
+
+/**
+ * One monitor's stopwatch totals and histogram at a point in time, as kept by {@link MonitorSnapshotFile}.
+ */
+public class StatsSnapshot {
+    private final String name;
+    private final long timestamp;
+    private final long count;
+    private final long total;
+    private final long min;
+    private final long max;
+    private final Histogram histogram;
+
+    public StatsSnapshot(String name, long timestamp, long count, long total, long min, long max,
+                         Histogram histogram) {
+        this.name = name;
+        this.timestamp = timestamp;
+        this.count = count;
+        this.total = total;
+        this.min = min;
+        this.max = max;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Copies the monitor's stats as they are now.
+     */
+    public static StatsSnapshot of(MonitorStats stats, long timestamp) {
+        final Stopwatch stopwatch = stats.getStopwatch();
+        final Histogram histogram = new Histogram(stats.getHistogram().getSubBucketBits());
+        histogram.add(stats.getHistogram());
+
+        final long count = stopwatch.getCounter();
+        return new StatsSnapshot(stats.getName(), timestamp, count, stopwatch.getTotal(),
+                count == 0 ? 0 : stopwatch.getMin(), stopwatch.getMax(), histogram);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public Histogram getHistogram() {
+        return histogram;
+    }
+}
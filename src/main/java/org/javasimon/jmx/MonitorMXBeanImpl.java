@@ -0,0 +1,151 @@
+// Copyright 2012 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package org.javasimon.jmx;
+
+import com.joshcanfield.tapestry5.monitor.ExceptionBreakdown;
+import com.joshcanfield.tapestry5.monitor.ExceptionStats;
+import com.joshcanfield.tapestry5.monitor.MonitorMXBean;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.StatsSnapshot;
+import org.javasimon.Stopwatch;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stopwatch MXBean with the monitor's latency histogram. Lives next to {@link StopwatchMXBeanFactory} for access
+ * to the StopwatchMXBeanImpl constructor.
+ * <p/>
+ * The inherited reset() and sampleAndReset() are final and reset the stopwatch they were given, so they are given
+ * one that resets the whole {@link MonitorStats} instead. Otherwise a reset from JMX would leave the histogram,
+ * windows and error counts disagreeing with the stopwatch.
+ */
+public class MonitorMXBeanImpl extends StopwatchMXBeanImpl implements MonitorMXBean {
+    private final MonitorStats stats;
+
+    protected MonitorMXBeanImpl(MonitorStats stats) {
+        super(resettingStats(stats));
+        this.stats = stats;
+    }
+
+    private static Stopwatch resettingStats(final MonitorStats stats) {
+        final Stopwatch stopwatch = stats.getStopwatch();
+        return (Stopwatch) Proxy.newProxyInstance(Stopwatch.class.getClassLoader(), new Class[]{Stopwatch.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("reset")) {
+                            stats.reset();
+                            return proxy;
+                        }
+                        if (method.getName().equals("sampleAndReset")) {
+                            final Object sample = stopwatch.sample();
+                            stats.reset();
+                            return sample;
+                        }
+                        try {
+                            return method.invoke(stopwatch, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    public Map<String, Long> getPercentiles() {
+        return stats.getPercentiles();
+    }
+
+    public long valueAtPercentile(double percentile) {
+        return stats.getHistogram().getValueAtPercentile(percentile);
+    }
+
+    public int getSampleRate() {
+        return stats.getSampleRate();
+    }
+
+    public long getInvocationCount() {
+        return stats.getInvocationCount();
+    }
+
+    public long getInvocationTotal() {
+        return stats.getInvocationTotal();
+    }
+
+    public Map<String, Double> getRates() {
+        return stats.getCallRates().getRates();
+    }
+
+    public Map<String, Double> getErrorRates() {
+        return stats.getErrorRates().getRates();
+    }
+
+    public long getErrorCount() {
+        return stats.getErrorCount();
+    }
+
+    public List<ExceptionStats> getExceptions() {
+        final ExceptionBreakdown exceptions = stats.getExceptions();
+        return exceptions == null ? Collections.<ExceptionStats>emptyList() : exceptions.getExceptions();
+    }
+
+    public long getActive() {
+        return stats.getActive();
+    }
+
+    public long getMaxActive() {
+        return stats.getMaxActive();
+    }
+
+    public long getMaxActiveTimestamp() {
+        return stats.getMaxActiveTimestamp();
+    }
+
+    public void resetMaxActive() {
+        stats.resetMaxActive();
+    }
+
+    public long getBaselineCount() {
+        final StatsSnapshot baseline = stats.getBaseline();
+        return baseline == null ? 0 : baseline.getCount();
+    }
+
+    public double getBaselineMean() {
+        final StatsSnapshot baseline = stats.getBaseline();
+        return baseline == null ? 0 : baseline.getMean();
+    }
+
+    public long getBaselineMax() {
+        final StatsSnapshot baseline = stats.getBaseline();
+        return baseline == null ? 0 : baseline.getMax();
+    }
+
+    public Map<String, Long> getBaselinePercentiles() {
+        return stats.getBaselinePercentiles();
+    }
+
+    public long getBaselineTimestamp() {
+        final StatsSnapshot baseline = stats.getBaseline();
+        return baseline == null ? 0 : baseline.getTimestamp();
+    }
+
+    public void resetHistogram() {
+        stats.getHistogram().reset();
+    }
+}
@@ -14,18 +14,24 @@
 
 package org.javasimon.jmx;
 
+import com.joshcanfield.tapestry5.monitor.MonitorMXBean;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
 import org.javasimon.Stopwatch;
 
 /**
  * Factory class for the Stopwatch MXBeans.
  * <p/>
- * While javasimon comes with a mxbean generating callback it does not offer the naming freedom that I'd like for tapestry.
- * The StopwatchMXBean implementation has a protected constructor so we need a class that lives in the same package
- * in order to build them. The javasimon dev has suggested that the next version will be more flexible.
+ * While javasimon comes with a mxbean generating callback it does not offer the naming freedom that I'd like for
+ * tapestry. The StopwatchMXBean implementation has a protected constructor so we need a class that lives in the same
+ * package in order to build them. The javasimon dev has suggested that the next version will be more flexible.
  */
 public class StopwatchMXBeanFactory {
 
     public static StopwatchMXBean create(Stopwatch stopwatch) {
         return new StopwatchMXBeanImpl(stopwatch);
     }
+
+    public static MonitorMXBean create(MonitorStats stats) {
+        return new MonitorMXBeanImpl(stats);
+    }
 }
@@ -0,0 +1,29 @@
+// Copyright 2011 The Apache Software Foundation
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.joshcanfield.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.example.testapp.pages;
+
+import com.example.testapp.base.BasePage;
+import org.apache.tapestry5.MarkupWriter;
+import org.apache.tapestry5.annotations.BeforeRenderTemplate;
+
+/**
+ * Page rendered through its base class's phases.
+ */
+public class Extended extends BasePage {
+
+    @BeforeRenderTemplate
+    void body(MarkupWriter writer) {
+        writer.write("extended");
+    }
+}
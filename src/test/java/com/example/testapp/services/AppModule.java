@@ -20,6 +20,7 @@ import com.example.testapp.services.impl.SubMonitoredImpl;
 import com.joshcanfield.tapestry5.annotations.Monitor;
 import com.joshcanfield.tapestry5.monitor.MonitorModule;
 import com.joshcanfield.tapestry5.monitor.MonitorNameGenerator;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
 import org.apache.tapestry5.ioc.MappedConfiguration;
 import org.apache.tapestry5.ioc.ServiceBinder;
 import org.apache.tapestry5.ioc.ServiceBuilder;
@@ -67,6 +68,11 @@ public class AppModule {
         };
     }
 
+    public static void contributeApplicationDefaults(MappedConfiguration<String, Object> configuration) {
+        configuration.add(MonitorSymbols.WINDOWS, "1m,5m,15m");
+        configuration.add(MonitorSymbols.RENDER_PACKAGES,
+                "com.example.testapp.pages,com.example.testapp.base,org.apache.tapestry5.corelib.components");
+    }
 
     @Contribute(MonitorNameGenerator.class)
     public static void provideRenamedMonitorNameGenerator(MappedConfiguration<Class, MonitorNameGenerator> configuration) {
@@ -111,7 +117,6 @@ public class AppModule {
                 throw new RuntimeException(e);
             }
         }
-
     }
 }
 
@@ -33,4 +33,7 @@ public interface HelloService {
 
     @Monitor
     void failsOnTrue(boolean fail);
+
+    @Monitor(sampleRate = 10)
+    void sampledMethod();
 }
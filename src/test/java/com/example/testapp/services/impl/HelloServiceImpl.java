@@ -52,4 +52,7 @@ public class HelloServiceImpl implements HelloService {
     public void failsOnTrue(boolean fail) {
         if (fail) throw new RuntimeException("Failed as requested");
     }
+
+    public void sampledMethod() {
+    }
 }
@@ -0,0 +1,30 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestCoarseClock {
+
+    @Test
+    public void ticks_while_running() throws InterruptedException {
+        final CoarseClock clock = new CoarseClock(TimeUnit.MILLISECONDS.toNanos(1));
+        final long created = clock.nanoTime();
+
+        Thread.sleep(20);
+        assertEquals(clock.nanoTime(), created, "not ticking until started");
+
+        clock.start();
+        try {
+            Thread.sleep(20);
+            final long ticked = clock.nanoTime();
+            assertTrue(ticked > created);
+            assertTrue(ticked <= System.nanoTime());
+        } finally {
+            clock.stop();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.apache.tapestry5.ioc.ObjectCreator;
+import org.apache.tapestry5.plastic.MethodAdvice;
+import org.apache.tapestry5.plastic.MethodInvocation;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.testng.annotations.Test;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+
+public class TestLazyMonitorAdvice {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void created_on_first_invocation() {
+        final IMocksControl control = EasyMock.createControl();
+        final ObjectCreator<MethodAdvice> creator = control.createMock(ObjectCreator.class);
+        final MethodAdvice advice = control.createMock(MethodAdvice.class);
+        final MethodInvocation invocation = control.createMock(MethodInvocation.class);
+
+        control.replay();
+        final LazyMonitorAdvice lazy = new LazyMonitorAdvice(creator);
+        control.verify();
+
+        control.reset();
+        expect(creator.createObject()).andReturn(advice).once();
+        advice.advise(invocation);
+        expectLastCall().times(2);
+        control.replay();
+
+        lazy.advise(invocation);
+        lazy.advise(invocation);
+
+        control.verify();
+    }
+}
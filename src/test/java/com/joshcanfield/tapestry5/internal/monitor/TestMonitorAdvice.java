@@ -1,15 +1,29 @@
 package com.joshcanfield.tapestry5.internal.monitor;
 
 import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.CallTree;
+import com.joshcanfield.tapestry5.monitor.CallTreeRecorder;
+import com.joshcanfield.tapestry5.monitor.ExceptionBreakdown;
+import com.joshcanfield.tapestry5.monitor.ExceptionStats;
+import com.joshcanfield.tapestry5.monitor.Histogram;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.SlowInvocation;
+import com.joshcanfield.tapestry5.monitor.SlowInvocationLog;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
 import org.apache.tapestry5.plastic.MethodInvocation;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.javasimon.Stopwatch;
+import org.slf4j.LoggerFactory;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.sql.SQLDataException;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
 
 import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter;
@@ -17,6 +31,7 @@ import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter.Str
 import static org.easymock.EasyMock.*;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 @Test(
         // Tests share mock objects so don't run them concurrently
@@ -27,26 +42,37 @@ public class TestMonitorAdvice {
     final Stopwatch stopwatch = control.createMock(Stopwatch.class);
     final Monitor monitor = control.createMock(Monitor.class);
     @SuppressWarnings("unchecked")
-    final Map<String, Stopwatch> exceptionMap = control.createMock(Map.class);
+    final Map<String, MonitorStats> exceptionMap = control.createMock(Map.class);
     final MethodInvocation invocation = control.createMock(MethodInvocation.class);
 
-    final MonitorAdvice monitorAdvice = new MonitorAdvice(stopwatch, monitor, exceptionMap);
-
     @BeforeMethod
     public void resetControl() {
         control.reset();
     }
 
+    /**
+     * The advice reads the filters when it is built so it has to be created after the mocks are replayed.
+     */
+    private MonitorAdvice replay() {
+        expect(monitor.sampleRate()).andStubReturn(1);
+        control.replay();
+        return new MonitorAdvice(stats(stopwatch), new PreciseClock(), monitor, exceptionMap,
+                new MonitorAdvice.Options());
+    }
+
+    private static MonitorStats stats(Stopwatch stopwatch) {
+        return new MonitorStats(stopwatch, new Histogram(), null, null, null, new double[]{50}, true);
+    }
+
     @Test
     public void normal_flow() {
 
         expect(invocation.proceed()).andReturn(invocation);
         expect(invocation.didThrowCheckedException()).andReturn(false);
         expect(stopwatch.addTime(anyLong())).andReturn(stopwatch);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
 
-        control.replay();
-
-        monitorAdvice.advise(invocation);
+        replay().advise(invocation);
 
         control.verify();
     }
@@ -57,14 +83,12 @@ public class TestMonitorAdvice {
 
         final Stopwatch exceptionStopwatch = control.createMock(Stopwatch.class);
         expect(filter.name()).andReturn("error");
-        expect(exceptionMap.get(eq("error"))).andReturn(exceptionStopwatch);
+        expect(exceptionMap.get(eq("error"))).andReturn(stats(exceptionStopwatch));
 
         expect(exceptionStopwatch.getName()).andReturn("test.stopwatch.name");
         expect(exceptionStopwatch.addTime(anyLong())).andReturn(exceptionStopwatch);
 
-        control.replay();
-
-        monitorAdvice.advise(invocation);
+        replay().advise(invocation);
 
         control.verify();
     }
@@ -77,9 +101,7 @@ public class TestMonitorAdvice {
         expect(stopwatch.addTime(anyLong())).andReturn(stopwatch);
         expect(stopwatch.getName()).andReturn("test.stopwatch.name");
 
-        control.replay();
-
-        monitorAdvice.advise(invocation);
+        replay().advise(invocation);
 
         control.verify();
     }
@@ -90,9 +112,7 @@ public class TestMonitorAdvice {
 
         expect(stopwatch.getName()).andReturn("test.stopwatch.name");
 
-        control.replay();
-
-        monitorAdvice.advise(invocation);
+        replay().advise(invocation);
 
         control.verify();
     }
@@ -103,7 +123,7 @@ public class TestMonitorAdvice {
 
         expect(stopwatch.getName()).andReturn("test.stopwatch.name");
 
-        control.replay();
+        final MonitorAdvice monitorAdvice = replay();
 
         boolean excepted = false;
         try {
@@ -124,7 +144,7 @@ public class TestMonitorAdvice {
         expect(stopwatch.addTime(anyLong())).andReturn(stopwatch);
         expect(stopwatch.getName()).andReturn("test.stopwatch.name");
 
-        control.replay();
+        final MonitorAdvice monitorAdvice = replay();
 
         boolean excepted = false;
         try {
@@ -146,9 +166,9 @@ public class TestMonitorAdvice {
         expect(filter.name()).andReturn("error");
         expect(exceptionStopwatch.addTime(anyLong())).andReturn(exceptionStopwatch);
         expect(exceptionStopwatch.getName()).andReturn("test.stopwatch.name");
-        expect(exceptionMap.get(eq("error"))).andReturn(exceptionStopwatch);
+        expect(exceptionMap.get(eq("error"))).andReturn(stats(exceptionStopwatch));
 
-        control.replay();
+        final MonitorAdvice monitorAdvice = replay();
 
         boolean excepted = false;
         try {
@@ -172,6 +192,8 @@ public class TestMonitorAdvice {
         expect(sqlExceptionFilter.strategy()).andReturn(Strategy.Segregate);
 
         ExceptionFilter exceptionFilter = control.createMock(ExceptionFilter.class);
+        expect(exceptionFilter.value()).andReturn(new Class[]{Exception.class});
+        expect(exceptionFilter.strategy()).andReturn(Strategy.Include);
         ExceptionFilter[] exceptions = new ExceptionFilter[]{sqlExceptionFilter, exceptionFilter};
 
         expect(monitor.exceptions()).andReturn(exceptions);
@@ -179,7 +201,7 @@ public class TestMonitorAdvice {
         final Stopwatch exceptionStopwatch = control.createMock(Stopwatch.class);
         expect(exceptionStopwatch.addTime(anyLong())).andReturn(exceptionStopwatch);
         expect(exceptionStopwatch.getName()).andReturn("test.stopwatch.name");
-        expect(exceptionMap.get(eq("sql_error"))).andReturn(exceptionStopwatch);
+        expect(exceptionMap.get(eq("sql_error"))).andReturn(stats(exceptionStopwatch));
 
         expect(invocation.proceed()).andReturn(invocation);
         expect(invocation.didThrowCheckedException()).andReturn(true);
@@ -187,14 +209,244 @@ public class TestMonitorAdvice {
         invocation.rethrow();
         expectLastCall();
 
+        replay().advise(invocation);
+
+        control.verify();
+    }
+
+    @Test
+    public void exception_filters_resolved_once_per_type() {
+        // filters are only read while building the advice
+        final ExceptionFilter filter = setupRuntimeExceptionTest(Strategy.Include);
+        expect(stopwatch.getName()).andReturn("test.stopwatch.name");
+        expect(stopwatch.addTime(anyLong())).andReturn(stopwatch).times(3);
+
+        // the second and third calls use the cached route
+        expect(invocation.proceed()).andThrow(new RuntimeException("TEST")).times(2);
+        expect(invocation.didThrowCheckedException()).andReturn(false).times(2);
+
+        final MonitorAdvice monitorAdvice = replay();
+
+        int excepted = 0;
+        for (int i = 0; i < 3; i++) {
+            try {
+                monitorAdvice.advise(invocation);
+            } catch (RuntimeException e) {
+                excepted++;
+            }
+        }
+
+        assertEquals(excepted, 3, "expecting exceptions");
+        control.verify();
+    }
+
+    @Test
+    public void sampled_invocations() {
+        expect(monitor.sampleRate()).andReturn(4);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+
+        // every call proceeds, only every fourth one is timed
+        expect(invocation.proceed()).andReturn(invocation).times(8);
+        expect(invocation.didThrowCheckedException()).andReturn(false).times(8);
+        expect(stopwatch.addTime(anyLong())).andReturn(stopwatch).times(2);
+
+        final MonitorAdvice monitorAdvice = replay();
+        for (int i = 0; i < 8; i++) {
+            monitorAdvice.advise(invocation);
+        }
+
+        control.verify();
+    }
+
+    @Test
+    public void timed_with_clock() {
+        final MonitorClock clock = control.createMock(MonitorClock.class);
+        expect(clock.nanoTime()).andReturn(100L).andReturn(350L);
+
+        expect(monitor.sampleRate()).andStubReturn(1);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andReturn(invocation);
+        expect(invocation.didThrowCheckedException()).andReturn(false);
+        expect(stopwatch.addTime(250L)).andReturn(stopwatch);
+
+        control.replay();
+        new MonitorAdvice(stats(stopwatch), clock, monitor, exceptionMap, new MonitorAdvice.Options())
+                .advise(invocation);
+
+        control.verify();
+    }
+
+    @Test
+    public void slow_invocation_captured() throws NoSuchMethodException {
+        final MonitorClock clock = control.createMock(MonitorClock.class);
+        expect(clock.nanoTime()).andReturn(0L).andReturn(100L).andReturn(1000L).andReturn(1500L);
+
+        expect(monitor.sampleRate()).andStubReturn(1);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andReturn(invocation).times(2);
+        expect(invocation.didThrowCheckedException()).andReturn(false).times(2);
+        expect(stopwatch.addTime(anyLong())).andReturn(stopwatch).times(2);
+        expect(stopwatch.getName()).andReturn("test.stopwatch.name");
+        expect(invocation.getMethod()).andReturn(String.class.getMethod("substring", int.class));
+        expect(invocation.getParameter(0)).andReturn(7);
+
+        control.replay();
+        final SlowInvocationLog log = new SlowInvocationLog(10, true, false);
+        final MonitorAdvice advice = new MonitorAdvice(stats(stopwatch), clock, monitor, exceptionMap,
+                new MonitorAdvice.Options().slowLog(log, 200));
+
+        // 100ns is under the threshold, 500ns is over it
+        advice.advise(invocation);
+        advice.advise(invocation);
+
+        final List<SlowInvocation> invocations = log.getInvocations();
+        assertEquals(invocations.size(), 1);
+        assertEquals(invocations.get(0).getDuration(), 500);
+        assertEquals(invocations.get(0).getMonitor(), "test.stopwatch.name");
+        assertEquals(invocations.get(0).getArguments(), new String[]{"7"});
+        control.verify();
+    }
+
+    @Test
+    public void active_while_in_flight() {
+        final MonitorStats stats = stats(stopwatch);
+        final long[] activeInside = new long[1];
+
+        expect(monitor.sampleRate()).andStubReturn(2);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andAnswer(new IAnswer<MethodInvocation>() {
+            public MethodInvocation answer() {
+                activeInside[0] = stats.getActive();
+                return invocation;
+            }
+        });
+        expect(invocation.proceed()).andThrow(new RuntimeException("TEST"));
+        expect(invocation.didThrowCheckedException()).andReturn(false).times(2);
+        expect(stopwatch.getName()).andStubReturn("test.stopwatch.name");
+
+        control.replay();
+        final MonitorAdvice advice = new MonitorAdvice(stats, new PreciseClock(), monitor, exceptionMap,
+                new MonitorAdvice.Options());
+
+        // the first call isn't sampled but is still counted
+        advice.advise(invocation);
+        assertEquals(activeInside[0], 1);
+        try {
+            advice.advise(invocation);
+        } catch (RuntimeException expected) {
+        }
+
+        assertEquals(stats.getActive(), 0);
+        assertEquals(stats.getMaxActive(), 1);
+        assertEquals(stats.getErrorCount(), 1);
+        assertTrue(stats.getMaxActiveTimestamp() > 0);
+        control.verify();
+    }
+
+    @Test
+    public void exceptions_broken_down_by_class() {
+        setupCheckedExceptionTest(Strategy.Ignore);
+        expect(stopwatch.getName()).andReturn("test.stopwatch.name");
+        expect(monitor.sampleRate()).andStubReturn(1);
+
         control.replay();
+        final MonitorStats stats = new MonitorStats(stopwatch, new Histogram(), null,
+                new ExceptionBreakdown(10, new double[]{50}), null, new double[]{50}, true);
+        new MonitorAdvice(stats, new PreciseClock(), monitor, exceptionMap, new MonitorAdvice.Options())
+                .advise(invocation);
+
+        // ignored by the filter but still in the breakdown
+        final List<ExceptionStats> exceptions = stats.getExceptions().getExceptions();
+        assertEquals(exceptions.size(), 1);
+        assertEquals(exceptions.get(0).getException(), Exception.class.getName());
+        assertEquals(exceptions.get(0).getCount(), 1);
+        control.verify();
+    }
+
+    @Test
+    public void unmatched_exception_not_recorded() {
+        setupCheckedExceptionTest(Strategy.Include, SQLException.class);
+
+        // Exception isn't a SQLException so neither stopwatch is touched
+        expect(stopwatch.getName()).andReturn("test.stopwatch.name");
 
-        monitorAdvice.advise(invocation);
+        replay().advise(invocation);
 
         control.verify();
     }
 
+    @Test
+    public void advice_without_active_count() {
+        final MonitorClock clock = control.createMock(MonitorClock.class);
+        expect(clock.nanoTime()).andReturn(100L).andReturn(350L);
+
+        expect(monitor.sampleRate()).andStubReturn(1);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andReturn(invocation);
+        expect(invocation.didThrowCheckedException()).andReturn(false);
+        expect(stopwatch.addTime(250L)).andReturn(stopwatch);
+
+        control.replay();
+        final MonitorStats stats = stats(stopwatch);
+        new MonitorAdvice(stats, clock, monitor, exceptionMap, new MonitorAdvice.Options().active(false))
+                .advise(invocation);
+
+        assertEquals(stats.getActive(), 0);
+        assertEquals(stats.getMaxActive(), 0);
+        control.verify();
+    }
+
+    @Test
+    public void sampled_advice_without_active_count() {
+        expect(monitor.sampleRate()).andStubReturn(2);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andReturn(invocation).times(2);
+        expect(invocation.didThrowCheckedException()).andReturn(false).times(2);
+        expect(stopwatch.addTime(anyLong())).andReturn(stopwatch);
+
+        control.replay();
+        final MonitorStats stats = stats(stopwatch);
+        final MonitorAdvice advice = new MonitorAdvice(stats, new PreciseClock(), monitor, exceptionMap,
+                new MonitorAdvice.Options().active(false));
+        advice.advise(invocation);
+        advice.advise(invocation);
+
+        assertEquals(stats.getMaxActive(), 0);
+        control.verify();
+    }
+
+    @Test
+    public void error_leaves_the_call_tree() {
+        expect(monitor.sampleRate()).andStubReturn(1);
+        expect(monitor.exceptions()).andReturn(new ExceptionFilter[0]);
+        expect(invocation.proceed()).andThrow(new StackOverflowError("TEST"));
+
+        control.replay();
+        final PerthreadManager perthreadManager =
+                new PerthreadManagerImpl(LoggerFactory.getLogger(TestMonitorAdvice.class));
+        final CallTreeRecorder recorder = new CallTreeRecorder(new PreciseClock(), 8, perthreadManager);
+        final CallTree tree = recorder.begin("/error");
+        final MonitorStats stats = stats(stopwatch);
+        try {
+            new MonitorAdvice(stats, new PreciseClock(), monitor, exceptionMap,
+                    new MonitorAdvice.Options().callTrees(recorder)).advise(invocation);
+            fail("expecting error");
+        } catch (StackOverflowError e) {
+            assertEquals(e.getMessage(), "TEST");
+        }
+
+        // the next call belongs to the request, not to the one that failed
+        assertEquals(tree.getParent(tree.enter(stats)), CallTree.ROOT);
+        recorder.end();
+        perthreadManager.cleanup();
+        control.verify();
+    }
+
     private ExceptionFilter setupCheckedExceptionTest(Strategy strategy) {
+        return setupCheckedExceptionTest(strategy, Exception.class);
+    }
+
+    private ExceptionFilter setupCheckedExceptionTest(Strategy strategy, Class<? extends Exception> filtered) {
         expect(invocation.proceed()).andReturn(invocation);
         expect(invocation.didThrowCheckedException()).andReturn(true);
         expect(invocation.getCheckedException(Exception.class)).andReturn(new Exception("Test Exception"));
@@ -205,7 +457,7 @@ public class TestMonitorAdvice {
         ExceptionFilter filter = control.createMock(ExceptionFilter.class);
         ExceptionFilter[] exceptions = new ExceptionFilter[]{filter};
         expect(monitor.exceptions()).andReturn(exceptions);
-        expect(filter.value()).andReturn(new Class[]{Exception.class});
+        expect(filter.value()).andReturn(new Class[]{filtered});
         expect(filter.strategy()).andReturn(strategy);
         return filter;
     }
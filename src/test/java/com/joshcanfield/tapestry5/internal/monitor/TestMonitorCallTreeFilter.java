@@ -0,0 +1,101 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.CallTree;
+import com.joshcanfield.tapestry5.monitor.CallTreeListener;
+import com.joshcanfield.tapestry5.monitor.CallTreeRecorder;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsFixture;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.apache.tapestry5.services.HttpServletRequestHandler;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.easymock.IMocksControl;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.same;
+import static org.easymock.EasyMock.startsWith;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorCallTreeFilter {
+    private final MonitorStats service = MonitorStatsFixture.stats("test.filter.service", 50);
+    private final PerthreadManager perthreadManager =
+            new PerthreadManagerImpl(LoggerFactory.getLogger(TestMonitorCallTreeFilter.class));
+
+    @AfterMethod
+    public void cleanup() {
+        perthreadManager.cleanup();
+    }
+
+    @Test
+    public void header_added_before_writing() throws Exception {
+        final IMocksControl control = EasyMock.createControl();
+        final HttpServletRequest request = control.createMock(HttpServletRequest.class);
+        final HttpServletResponse response = control.createMock(HttpServletResponse.class);
+        final HttpServletRequestHandler handler = control.createMock(HttpServletRequestHandler.class);
+        final CallTreeListener listener = control.createMock(CallTreeListener.class);
+        final CallTreeRecorder recorder = new CallTreeRecorder(new PreciseClock(), 8, perthreadManager);
+
+        expect(request.getServletPath()).andReturn("/index");
+        expect(request.getPathInfo()).andReturn(null);
+        expect(handler.service(same(request), isA(HttpServletResponse.class))).andAnswer(new IAnswer<Boolean>() {
+            public Boolean answer() throws Throwable {
+                final CallTree tree = recorder.current();
+                tree.exit(tree.enter(service), 2000000);
+
+                final HttpServletResponse wrapped = (HttpServletResponse) EasyMock.getCurrentArguments()[1];
+                wrapped.getWriter().write("body");
+                return true;
+            }
+        });
+        expect(response.isCommitted()).andReturn(false);
+        response.setHeader(EasyMock.eq("X-Monitor-Calls"),
+                startsWith("0 /index 1 0.000;1 test.filter.service 1 2.000"));
+        expect(response.getWriter()).andReturn(new PrintWriter(new StringWriter()));
+        listener.requestComplete(isA(CallTree.class));
+        control.replay();
+
+        assertTrue(new MonitorCallTreeFilter(recorder, "X-Monitor-Calls", listener)
+                .service(request, response, handler));
+        control.verify();
+        assertNull(recorder.current());
+    }
+
+    @Test
+    public void listener_without_header() throws Exception {
+        final IMocksControl control = EasyMock.createControl();
+        final HttpServletRequest request = control.createMock(HttpServletRequest.class);
+        final HttpServletResponse response = control.createMock(HttpServletResponse.class);
+        final HttpServletRequestHandler handler = control.createMock(HttpServletRequestHandler.class);
+        final CallTreeRecorder recorder = new CallTreeRecorder(new PreciseClock(), 8, perthreadManager);
+        final CallTree[] seen = new CallTree[1];
+
+        expect(request.getServletPath()).andReturn("/app");
+        expect(request.getPathInfo()).andReturn("/page");
+        expect(handler.service(request, response)).andThrow(new IllegalStateException("failed"));
+        control.replay();
+
+        try {
+            new MonitorCallTreeFilter(recorder, "", new CallTreeListener() {
+                public void requestComplete(CallTree tree) {
+                    seen[0] = tree;
+                }
+            }).service(request, response, handler);
+        } catch (IllegalStateException expected) {
+            // the tree is still finished and handed on
+        }
+        control.verify();
+        assertTrue(seen[0].toString().startsWith("0 /app/page 1 "), seen[0].toString());
+        assertNull(recorder.current());
+    }
+}
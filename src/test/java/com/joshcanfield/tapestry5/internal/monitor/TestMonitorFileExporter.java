@@ -0,0 +1,125 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorFile;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static com.joshcanfield.tapestry5.monitor.MonitorStatsFixture.stats;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorFileExporter {
+
+    private static MonitorFileExporterImpl exporter(File file, int capacity, Collection<MonitorStats> stats) {
+        final MonitorStatsSource source = EasyMock.createMock(MonitorStatsSource.class);
+        expect(source.getAllStats()).andStubReturn(stats);
+        source.flush();
+        expectLastCall().anyTimes();
+        EasyMock.replay(source);
+
+        return exporter(file, capacity, source);
+    }
+
+    private static MonitorFileExporterImpl exporter(File file, int capacity, MonitorStatsSource source) {
+        return new MonitorFileExporterImpl(LoggerFactory.getLogger(TestMonitorFileExporter.class), file.getPath(),
+                capacity, source, EasyMock.createNiceMock(RegistryShutdownHub.class));
+    }
+
+    @Test
+    public void written_and_read_back() throws Exception {
+        final File file = File.createTempFile("monitor", ".monitor");
+        file.deleteOnExit();
+
+        final MonitorStats service = stats("test.file.service", 50, 99.9);
+        service.record(1000000);
+        service.record(3000000);
+        service.enter();
+        service.error();
+        final MonitorStats page = stats("test.file.page", 50, 99.9);
+
+        final List<MonitorStats> all = new ArrayList<MonitorStats>(Arrays.asList(service, page));
+        final MonitorFileExporterImpl exporter = exporter(file, 10, all);
+        exporter.write();
+
+        MonitorFile read = MonitorFile.read(file);
+        assertTrue(read.getUpdated() > 0);
+        assertTrue(Arrays.equals(read.getPercentiles(), new double[]{50, 99.9}));
+        assertEquals(read.getEntries().size(), 2);
+
+        final MonitorFile.Entry entry = read.getEntries().get(0);
+        assertEquals(entry.getName(), "test.file.service");
+        assertEquals(entry.getCount(), 2);
+        assertEquals(entry.getTotal(), 4000000);
+        assertEquals(entry.getMin(), 1000000);
+        assertEquals(entry.getMax(), 3000000);
+        assertEquals(entry.getInvocationCount(), 2);
+        assertEquals(entry.getActive(), 1);
+        assertEquals(entry.getMaxActive(), 1);
+        assertEquals(entry.getErrors(), 1);
+        assertEquals(entry.getPercentileValues().length, 2);
+        assertTrue(entry.getPercentileValues()[1] >= 3000000);
+        assertEquals(read.getEntries().get(1).getCount(), 0);
+
+        // entries keep their place as the stats change
+        service.exit();
+        page.record(500);
+        exporter.write();
+
+        read = MonitorFile.read(file);
+        assertEquals(read.getEntries().get(0).getActive(), 0);
+        assertEquals(read.getEntries().get(1).getName(), "test.file.page");
+        assertEquals(read.getEntries().get(1).getMax(), 500);
+    }
+
+    @Test
+    public void monitors_past_capacity_left_out() throws Exception {
+        final File file = File.createTempFile("monitor", ".monitor");
+        file.deleteOnExit();
+
+        final MonitorFileExporterImpl exporter = exporter(file, 1,
+                Arrays.asList(stats("test.file.first", 50, 99.9), stats("test.file.second", 50, 99.9)));
+        exporter.write();
+
+        final MonitorFile read = MonitorFile.read(file);
+        assertEquals(read.getEntries().size(), 1);
+        assertEquals(read.getEntries().get(0).getName(), "test.file.first");
+        assertEquals(file.length(), MonitorFile.fileSize(1));
+    }
+
+    @Test
+    public void buffers_flushed_before_write() throws Exception {
+        final File file = File.createTempFile("monitor", ".monitor");
+        file.deleteOnExit();
+
+        // the invocation only reaches the stats when the buffers are flushed
+        final MonitorStats stats = stats("test.file.buffered", 50, 99.9);
+        final MonitorStatsSource source = EasyMock.createMock(MonitorStatsSource.class);
+        source.flush();
+        expectLastCall().andAnswer(new IAnswer<Object>() {
+            public Object answer() {
+                stats.record(1000000);
+                return null;
+            }
+        });
+        expect(source.getAllStats()).andStubReturn(Arrays.asList(stats));
+        EasyMock.replay(source);
+
+        exporter(file, 1, source).write();
+
+        EasyMock.verify(source);
+        assertEquals(MonitorFile.read(file).getEntries().get(0).getCount(), 1);
+    }
+}
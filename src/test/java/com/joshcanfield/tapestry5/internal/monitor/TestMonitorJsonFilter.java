@@ -0,0 +1,105 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsFixture;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import org.apache.tapestry5.json.JSONObject;
+import org.apache.tapestry5.services.HttpServletRequestHandler;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.easymock.EasyMock.expect;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestMonitorJsonFilter {
+    final IMocksControl control = EasyMock.createControl();
+    final HttpServletRequest request = control.createMock(HttpServletRequest.class);
+    final HttpServletResponse response = control.createMock(HttpServletResponse.class);
+    final HttpServletRequestHandler handler = control.createMock(HttpServletRequestHandler.class);
+    final MonitorStatsSource source = control.createMock(MonitorStatsSource.class);
+
+    @BeforeMethod
+    public void resetControl() {
+        control.reset();
+    }
+
+    private static MonitorStats stats(String name, long... times) {
+        final MonitorStats stats = MonitorStatsFixture.stats(name, 50, 99.9);
+        for (long ns : times) {
+            stats.record(ns);
+        }
+        return stats;
+    }
+
+    private JSONObject get(String prefix) throws IOException {
+        final StringWriter body = new StringWriter();
+        expect(request.getServletPath()).andReturn("/monitor.json");
+        expect(request.getPathInfo()).andReturn(null);
+        expect(request.getParameter("prefix")).andReturn(prefix);
+        response.setContentType("application/json;charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        expect(response.getWriter()).andReturn(new PrintWriter(body));
+        expect(source.getAllStats()).andReturn(Arrays.asList(
+                stats("test.json.first", 100, 300),
+                stats("test.json.empty"),
+                stats("other.json")));
+        control.replay();
+
+        assertTrue(new MonitorJsonFilter("/monitor.json", source).service(request, response, handler));
+        control.verify();
+        return new JSONObject(body.toString());
+    }
+
+    @Test
+    public void streams_stats() throws IOException {
+        final JSONObject json = get(null);
+
+        assertEquals(json.length(), 3);
+
+        final JSONObject first = json.getJSONObject("test.json.first");
+        assertEquals(first.getLong("count"), 2);
+        assertEquals(first.getLong("total"), 400);
+        assertEquals(first.getLong("min"), 100);
+        assertEquals(first.getLong("max"), 300);
+        assertEquals(first.getLong("mean"), 200);
+        assertEquals(first.getLong("invocationCount"), 2);
+        assertEquals(first.getJSONObject("percentiles").getLong("p50"), 101);
+        assertEquals(first.getJSONObject("percentiles").getLong("p99.9"), 303);
+
+        final JSONObject empty = json.getJSONObject("test.json.empty");
+        assertEquals(empty.getLong("count"), 0);
+        assertEquals(empty.getLong("min"), 0);
+        assertEquals(empty.getJSONObject("percentiles").getLong("p50"), 0);
+    }
+
+    @Test
+    public void filters_by_prefix() throws IOException {
+        final JSONObject json = get("test.");
+
+        assertEquals(json.length(), 2);
+        assertFalse(json.has("other.json"));
+    }
+
+    @Test
+    public void other_paths_pass_through() throws IOException {
+        expect(request.getServletPath()).andReturn("/index");
+        expect(request.getPathInfo()).andReturn(null);
+        expect(handler.service(request, response)).andReturn(false);
+        control.replay();
+
+        assertFalse(new MonitorJsonFilter("/monitor.json", source).service(request, response, handler));
+        control.verify();
+    }
+}
@@ -0,0 +1,229 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.example.testapp.services.HelloService;
+import com.example.testapp.services.NotMonitored;
+import com.example.testapp.services.Renamed;
+import com.example.testapp.services.SubMonitored;
+import org.apache.tapestry5.ioc.MethodAdviceReceiver;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import static org.easymock.EasyMock.expect;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorProcessor {
+    private static final String MONITOR = "@com.joshcanfield.tapestry5.annotations.Monitor ";
+
+    @Test
+    public void test_classes_indexed() throws NoSuchMethodException {
+        // the processor runs over the test sources when they are compiled
+        final MonitorIndex index = MonitorIndex.load(getClass().getClassLoader());
+        assertTrue(index.isAvailable());
+
+        assertTrue(index.isMonitored(HelloService.class));
+        assertTrue(index.isMonitored(HelloService.class,
+                HelloService.class.getMethod("monitoredMethod", String.class, String.class)));
+        assertFalse(index.isMonitored(HelloService.class, HelloService.class.getMethod("notMonitoredMethod")));
+
+        // annotated on the implementation
+        assertTrue(index.isMonitored(NotMonitored.class, NotMonitored.class.getMethod("methodOne")));
+
+        // SubMonitored inherits the monitor that Renamed declares
+        assertTrue(index.isMonitored(Renamed.class));
+        assertFalse(index.isMonitored(SubMonitored.class));
+        assertFalse(index.isMonitored(Map.class));
+    }
+
+    @Test
+    public void signatures_match_reflection() throws Exception {
+        final File dir = directory("signatures");
+        compile(dir, "Signatures", "public class Signatures {\n" +
+                "    public static class Nested {}\n" +
+                "    " + MONITOR + "public <T extends Number> void method(\n" +
+                "            int i, String[] s, Nested n, T t, java.util.List<String> l, long... v) {}\n" +
+                "}\n");
+
+        final ClassLoader loader = loader(dir);
+        final Class<?> type = loader.loadClass("Signatures");
+        final MonitorIndex index = MonitorIndex.load(loader);
+
+        for (Method method : type.getDeclaredMethods()) {
+            assertTrue(index.isMonitored(type, method), method.toString());
+        }
+    }
+
+    @Test
+    public void recompiling_replaces_lines() throws Exception {
+        final File dir = directory("recompile");
+        compile(dir, "Recompiled", "public class Recompiled { " + MONITOR + "public void first() {} }");
+        compile(dir, "Other", "public class Other { " + MONITOR + "public void other() {} }");
+        compile(dir, "Recompiled", "public class Recompiled { " + MONITOR + "public void second() {} }");
+
+        final ClassLoader loader = loader(dir);
+        final Class<?> recompiled = loader.loadClass("Recompiled");
+        final Class<?> other = loader.loadClass("Other");
+        final MonitorIndex index = MonitorIndex.load(loader);
+
+        assertTrue(index.isMonitored(recompiled, recompiled.getMethod("second")));
+        assertTrue(index.isMonitored(other, other.getMethod("other")));
+
+        final String written = new Scanner(new File(dir, MonitorIndex.RESOURCE), "UTF-8").useDelimiter("\\A").next();
+        assertFalse(written.contains("first()"), written);
+    }
+
+    @Test
+    public void classes_without_an_index_are_not_indexed() throws Exception {
+        final File indexed = directory("indexed");
+        compile(indexed, "Indexed", "public class Indexed { " + MONITOR + "public void method() {} }");
+        final File unindexed = directory("unindexed");
+        compile(unindexed, "Unindexed", "public class Unindexed { " + MONITOR + "public void method() {} }",
+                "-proc:none");
+
+        final ClassLoader loader = new URLClassLoader(new URL[]{indexed.toURI().toURL(), unindexed.toURI().toURL()},
+                TestMonitorProcessor.class.getClassLoader());
+        final MonitorIndex index = MonitorIndex.load(loader);
+
+        assertTrue(index.isIndexed(loader.loadClass("Indexed")));
+        // the index has never heard of Unindexed, that doesn't mean it has no monitors
+        final Class<?> type = loader.loadClass("Unindexed");
+        assertFalse(index.isIndexed(type));
+        assertFalse(index.isMonitored(type));
+        assertFalse(index.isIndexed(Map.class));
+    }
+
+    @Test
+    public void interfaces_without_an_index_are_searched() throws Exception {
+        final File api = directory("api");
+        compile(api, "Api", "public interface Api { void method(); }", "-proc:none");
+        final File implementation = directory("implementation");
+        compileAgainst(implementation, System.getProperty("java.class.path") + File.pathSeparator + api.getPath(),
+                "ApiImpl", "public class ApiImpl implements Api { " + MONITOR + "public void method() {} }");
+
+        final ClassLoader loader = new URLClassLoader(
+                new URL[]{api.toURI().toURL(), implementation.toURI().toURL()},
+                TestMonitorProcessor.class.getClassLoader());
+        final MonitorIndex index = MonitorIndex.load(loader);
+
+        // the implementation's index names Api, but another implementation may monitor it too
+        final Class<?> type = loader.loadClass("Api");
+        assertFalse(index.isIndexed(type));
+        assertTrue(index.isMonitored(type));
+        assertFalse(index.covers(type, type));
+
+        final Class<?> implementationType = loader.loadClass("ApiImpl");
+        assertTrue(index.covers(implementationType, implementationType));
+        assertFalse(index.covers(implementationType, type));
+    }
+
+    @Test
+    public void interface_services_without_monitors_are_not_searched() throws Exception {
+        final File dir = directory("unmonitored");
+        compile(dir, "Unmonitored", "public interface Unmonitored { void method(); }");
+
+        final ClassLoader loader = loader(dir);
+        final Class<?> type = loader.loadClass("Unmonitored");
+        final MonitorIndex index = MonitorIndex.load(loader);
+        assertTrue(index.covers(type, type));
+        assertFalse(index.isMonitored(type));
+
+        // the receiver fails the test if the adviser asks it for the annotation of any method
+        final IMocksControl control = EasyMock.createControl();
+        final MethodAdviceReceiver receiver = control.createMock(MethodAdviceReceiver.class);
+        expect(receiver.getInterface()).andReturn(type).anyTimes();
+        control.replay();
+
+        final Thread thread = Thread.currentThread();
+        final ClassLoader contextLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            new MonitorAdviserImpl(LoggerFactory.getLogger(MonitorAdviserImpl.class), null, null, null, null, null,
+                    null, new PerthreadManagerImpl(LoggerFactory.getLogger(TestMonitorProcessor.class)))
+                    .monitor(receiver);
+        } finally {
+            thread.setContextClassLoader(contextLoader);
+        }
+        control.verify();
+    }
+
+    @Test
+    public void services_bound_by_an_indexed_class_are_covered() throws Exception {
+        final File dir = directory("bound");
+        compile(dir, "Bound", "public class Bound { public void method() {} }");
+
+        final ClassLoader loader = loader(dir);
+        final Class<?> type = loader.loadClass("Bound");
+        final MonitorIndex index = MonitorIndex.load(loader);
+
+        assertTrue(index.covers(type, type));
+        assertFalse(index.isMonitored(type));
+    }
+
+    @Test
+    public void index_location_matches_code_source() throws Exception {
+        assertEquals(MonitorIndex.location(new URL("jar:file:/lib/app.jar!/" + MonitorIndex.RESOURCE)),
+                "file:/lib/app.jar");
+        assertEquals(MonitorIndex.location(new URL("file:/app/classes/" + MonitorIndex.RESOURCE)),
+                "file:/app/classes/");
+    }
+
+    private static File directory(String name) {
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "monitor-processor-" + name);
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        new File(dir, MonitorIndex.RESOURCE).delete();
+        dir.mkdirs();
+        return dir;
+    }
+
+    private static ClassLoader loader(File dir) throws IOException {
+        return new URLClassLoader(new URL[]{dir.toURI().toURL()}, TestMonitorProcessor.class.getClassLoader());
+    }
+
+    private static void compile(File dir, String name, String source, String... options) throws IOException {
+        compileAgainst(dir, System.getProperty("java.class.path"), name, source, options);
+    }
+
+    private static void compileAgainst(File dir, String classpath, String name, String source, String... options)
+            throws IOException {
+        final File file = new File(dir, name + ".java");
+        final FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final List<String> arguments = new ArrayList<String>(Arrays.asList(
+                "-classpath", classpath,
+                "-processor", MonitorProcessor.class.getName(),
+                "-d", dir.getPath()));
+        arguments.addAll(Arrays.asList(options));
+        arguments.add(file.getPath());
+        final int result = compiler.run(null, null, null, arguments.toArray(new String[arguments.size()]));
+        assertEquals(result, 0, "compiling " + name);
+    }
+}
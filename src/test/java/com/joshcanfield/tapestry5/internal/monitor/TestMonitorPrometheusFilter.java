@@ -0,0 +1,85 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsFixture;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import org.apache.tapestry5.services.HttpServletRequestHandler;
+import org.easymock.EasyMock;
+import org.easymock.IMocksControl;
+import org.testng.annotations.Test;
+
+import javax.management.ObjectName;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import static org.easymock.EasyMock.expect;
+import static org.testng.Assert.assertEquals;
+
+public class TestMonitorPrometheusFilter {
+
+    private static MonitorStats stats(String name, String objectName) throws Exception {
+        final MonitorStats stats = MonitorStatsFixture.stats(name, 50, 99.9);
+        if (objectName != null) stats.setObjectName(new ObjectName(objectName));
+        return stats;
+    }
+
+    @Test
+    public void labels_from_object_name() throws Exception {
+        assertEquals(MonitorPrometheusFilter.labels("pages_Index_onActivate",
+                new ObjectName("org.example:package=pages,name=Index,monitor=\"onActivate(EventContext)\","
+                        + "type=Monitor,exception=errors")),
+                "monitor=\"pages_Index_onActivate\",domain=\"org.example\",exception=\"errors\"," +
+                        "method=\"onActivate(EventContext)\",class=\"Index\",package=\"pages\"");
+
+        assertEquals(MonitorPrometheusFilter.labels("unregistered", null), "monitor=\"unregistered\"");
+        assertEquals(MonitorPrometheusFilter.labels("custom", new ObjectName("app:my-key=\"a \\\"b\\\"\"")),
+                "monitor=\"custom\",domain=\"app\",my_key=\"a \\\"b\\\"\"");
+    }
+
+    @Test
+    public void quantiles() {
+        assertEquals(MonitorPrometheusFilter.quantile("p50"), "0.5");
+        assertEquals(MonitorPrometheusFilter.quantile("p99.9"), "0.999");
+        assertEquals(MonitorPrometheusFilter.quantile("p100"), "1");
+    }
+
+    @Test
+    public void scrape() throws Exception {
+        final IMocksControl control = EasyMock.createControl();
+        final HttpServletRequest request = control.createMock(HttpServletRequest.class);
+        final HttpServletResponse response = control.createMock(HttpServletResponse.class);
+        final HttpServletRequestHandler handler = control.createMock(HttpServletRequestHandler.class);
+        final MonitorStatsSource source = control.createMock(MonitorStatsSource.class);
+
+        final MonitorStats stats = stats("test.prometheus.scrape", "app:name=Service,monitor=call");
+        stats.record(1500);
+        stats.record(2500);
+
+        final StringWriter body = new StringWriter();
+        expect(request.getServletPath()).andReturn("/metrics");
+        expect(request.getPathInfo()).andReturn(null);
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        response.setHeader("Cache-Control", "no-cache");
+        expect(response.getWriter()).andReturn(new PrintWriter(body));
+        expect(source.getAllStats()).andReturn(Arrays.asList(stats)).times(2);
+        control.replay();
+
+        new MonitorPrometheusFilter("/metrics", source).service(request, response, handler);
+        control.verify();
+
+        final String labels = "monitor=\"test.prometheus.scrape\",domain=\"app\",method=\"call\",class=\"Service\"";
+        assertEquals(body.toString(),
+                "# HELP tapestry_monitor_seconds Time spent in monitored methods.\n" +
+                        "# TYPE tapestry_monitor_seconds summary\n" +
+                        "tapestry_monitor_seconds{" + labels + ",quantile=\"0.5\"} 0.000001503\n" +
+                        "tapestry_monitor_seconds{" + labels + ",quantile=\"0.999\"} 0.000002559\n" +
+                        "tapestry_monitor_seconds_sum{" + labels + "} 0.000004000\n" +
+                        "tapestry_monitor_seconds_count{" + labels + "} 2\n" +
+                        "# HELP tapestry_monitor_max_seconds The longest invocation since the monitor was reset.\n" +
+                        "# TYPE tapestry_monitor_max_seconds gauge\n" +
+                        "tapestry_monitor_max_seconds{" + labels + "} 0.000002500\n");
+    }
+}
@@ -0,0 +1,137 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSymbols;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.easymock.EasyMock;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static com.joshcanfield.tapestry5.monitor.MonitorStatsFixture.stats;
+import static org.easymock.EasyMock.expect;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorPushExporter {
+
+    private static MonitorPushExporterImpl exporter(String format, int port, int packetSize,
+                                                    Collection<MonitorStats> stats) {
+        final MonitorStatsSource source = EasyMock.createMock(MonitorStatsSource.class);
+        expect(source.getAllStats()).andStubReturn(stats);
+        EasyMock.replay(source);
+
+        return new MonitorPushExporterImpl(LoggerFactory.getLogger(TestMonitorPushExporter.class), "127.0.0.1", port,
+                format, "app", packetSize, source, EasyMock.createNiceMock(RegistryShutdownHub.class));
+    }
+
+    private static String receive(DatagramSocket socket) throws Exception {
+        final DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+        socket.receive(packet);
+        return new String(packet.getData(), 0, packet.getLength(), "US-ASCII");
+    }
+
+    @Test
+    public void statsd() throws Exception {
+        final DatagramSocket collector = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        collector.setSoTimeout(5000);
+        try {
+            final MonitorStats stats = stats("test.push.statsd", 50, 99.9);
+            stats.record(1000000);
+            stats.record(3000000);
+
+            final MonitorPushExporterImpl exporter = exporter(MonitorSymbols.PUSH_FORMAT_STATSD,
+                    collector.getLocalPort(), 1432, Arrays.asList(stats));
+            exporter.push();
+
+            assertEquals(receive(collector),
+                    "app.test.push.statsd.count:2|c\n" +
+                            "app.test.push.statsd.mean:2.000|g\n" +
+                            "app.test.push.statsd.max:3.000|g\n" +
+                            "app.test.push.statsd.p50:1.015|g\n" +
+                            "app.test.push.statsd.p99_9:3.014|g\n");
+
+            // counts are sent as the invocations since the last push
+            stats.record(2000000);
+            exporter.push();
+            assertTrue(receive(collector).startsWith("app.test.push.statsd.count:1|c\n"));
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void packed_into_packets() throws Exception {
+        final DatagramSocket collector = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        collector.setSoTimeout(5000);
+        try {
+            final List<MonitorStats> all = new ArrayList<MonitorStats>();
+            for (int i = 0; i < 20; i++) {
+                all.add(stats("test.push.packed.monitor" + i, 50, 99.9));
+            }
+
+            exporter(MonitorSymbols.PUSH_FORMAT_STATSD, collector.getLocalPort(), 200, all).push();
+
+            // 5 lines a monitor, every line whole and every packet full enough that the next line didn't fit
+            int lines = 0;
+            while (lines < all.size() * 5) {
+                final String packet = receive(collector);
+                assertTrue(packet.length() <= 200, packet);
+                assertTrue(packet.endsWith("\n"), packet);
+                for (String line : packet.split("\n")) {
+                    assertTrue(line.matches("app\\.test\\.push\\.packed\\.monitor\\d+\\.\\w+:[0-9.]+\\|[cg]"), line);
+                    lines++;
+                }
+                if (lines < all.size() * 5) assertTrue(packet.length() > 200 - 50, packet);
+            }
+            assertEquals(lines, all.size() * 5);
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void graphite() throws Exception {
+        final ServerSocket collector = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        collector.setSoTimeout(5000);
+        try {
+            final MonitorStats stats = stats("test.push.graphite(method)", 50, 99.9);
+            stats.record(1500000);
+
+            final MonitorPushExporterImpl exporter = exporter(MonitorSymbols.PUSH_FORMAT_GRAPHITE,
+                    collector.getLocalPort(), 1432, Arrays.asList(stats));
+            exporter.push();
+            final Socket connection = collector.accept();
+            connection.setSoTimeout(5000);
+
+            // the first push may only have started connecting
+            exporter.push();
+
+            final BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), "US-ASCII"));
+            final String count = reader.readLine();
+            assertTrue(count.matches("app\\.test\\.push\\.graphite_method_\\.count 1 \\d+"), count);
+            assertTrue(reader.readLine().startsWith("app.test.push.graphite_method_.mean 1.500 "));
+            connection.close();
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void sanitized_names() {
+        assertEquals(MonitorPushExporterImpl.sanitize("a.b-c_d(e,f)@g:h|i j"), "a.b-c_d_e_f__g_h_i_j");
+    }
+}
@@ -0,0 +1,218 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorClockSource;
+import com.joshcanfield.tapestry5.monitor.MonitorSnapshotFile;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
+import com.joshcanfield.tapestry5.monitor.StatsSnapshot;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.apache.tapestry5.ioc.services.RegistryShutdownHub;
+import org.easymock.EasyMock;
+import org.javasimon.SimonManager;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorSnapshotWriter {
+
+    private static MonitorStatsSource source() {
+        final MonitorStatsSourceImpl.Settings settings = new MonitorStatsSourceImpl.Settings()
+                .percentiles("50,99")
+                .exceptionClasses(0)
+                .slowCapacity(10);
+        return new MonitorStatsSourceImpl(settings,
+                new PerthreadManagerImpl(LoggerFactory.getLogger(TestMonitorSnapshotWriter.class)),
+                new MonitorClockSource() {
+                    public MonitorClock getClock(Monitor.Clock clock) {
+                        return new PreciseClock();
+                    }
+                });
+    }
+
+    private static MonitorSnapshotWriterImpl writer(File file, long maxSize, String startup,
+                                                    MonitorStatsSource source) {
+        return new MonitorSnapshotWriterImpl(LoggerFactory.getLogger(TestMonitorSnapshotWriter.class), file.getPath(),
+                2, maxSize, startup, source, EasyMock.createNiceMock(RegistryShutdownHub.class));
+    }
+
+    private static MonitorStats stats(MonitorStatsSource source, String name) {
+        SimonManager.getStopwatch(name).reset();
+        return source.getStats(name);
+    }
+
+    private static File tempFile() throws Exception {
+        final File file = File.createTempFile("monitor", ".snapshots");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void latest_snapshot_read_back() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource source = source();
+        final MonitorStats stats = stats(source, "test.snapshot.read");
+        stats.record(1000000);
+
+        final MonitorSnapshotWriterImpl writer = writer(file, Long.MAX_VALUE, "baseline", source);
+        writer.snapshot();
+        stats.record(3000000);
+        writer.snapshot();
+
+        final StatsSnapshot snapshot = MonitorSnapshotFile.readLatest(file).get("test.snapshot.read");
+        assertEquals(snapshot.getCount(), 2);
+        assertEquals(snapshot.getTotal(), 4000000);
+        assertEquals(snapshot.getMin(), 1000000);
+        assertEquals(snapshot.getMax(), 3000000);
+        assertEquals(snapshot.getHistogram().getCount(), 2);
+        assertTrue(snapshot.getTimestamp() > 0);
+    }
+
+    @Test
+    public void torn_record_ignored() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource source = source();
+        final MonitorStats stats = stats(source, "test.snapshot.torn");
+        stats.record(1000);
+
+        final MonitorSnapshotWriterImpl writer = writer(file, Long.MAX_VALUE, "baseline", source);
+        writer.snapshot();
+        final long complete = file.length();
+        stats.record(2000);
+        writer.snapshot();
+
+        // a crash part way through the second record
+        final RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(complete + (file.length() - complete) / 2);
+        access.close();
+
+        assertEquals(MonitorSnapshotFile.readLatest(file).get("test.snapshot.torn").getCount(), 1);
+    }
+
+    @Test
+    public void torn_record_cut_before_appending() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource source = source();
+        final MonitorStats stats = stats(source, "test.snapshot.resumed");
+        stats.record(1000);
+
+        writer(file, Long.MAX_VALUE, "baseline", source).snapshot();
+        final long complete = file.length();
+        stats.record(2000);
+        writer(file, Long.MAX_VALUE, "baseline", source).snapshot();
+
+        // a crash part way through the second record, then a restart that takes another snapshot
+        final RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(complete + (file.length() - complete) / 2);
+        access.close();
+        stats.record(3000);
+        writer(file, Long.MAX_VALUE, "baseline", source).snapshot();
+
+        assertEquals(MonitorSnapshotFile.completeLength(file), file.length());
+        final MonitorStatsSource after = source();
+        writer(file, Long.MAX_VALUE, "restore", after).restore();
+        assertEquals(stats(after, "test.snapshot.resumed").getBaseline().getCount(), 3);
+    }
+
+    @Test
+    public void corrupt_length_ignored() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource source = source();
+        stats(source, "test.snapshot.length").record(1000);
+        writer(file, Long.MAX_VALUE, "baseline", source).snapshot();
+
+        final RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.seek(access.length());
+        access.writeInt(MonitorSnapshotFile.MAGIC);
+        access.writeInt(Integer.MAX_VALUE - 16);
+        access.close();
+
+        assertEquals(MonitorSnapshotFile.readLatest(file).get("test.snapshot.length").getCount(), 1);
+    }
+
+    @Test
+    public void missing_file_read_as_empty() throws Exception {
+        final File file = tempFile();
+        assertTrue(file.delete());
+
+        assertTrue(MonitorSnapshotFile.readLatest(file).isEmpty());
+    }
+
+    @Test
+    public void compacted_to_latest_snapshot() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource source = source();
+        final MonitorStats stats = stats(source, "test.snapshot.compact");
+
+        final MonitorSnapshotWriterImpl writer = writer(file, 1000, "baseline", source);
+        for (int i = 0; i < 10; i++) {
+            stats.record(1000 * (i + 1));
+            writer.snapshot();
+        }
+
+        assertTrue(file.length() <= 1000, "compacted file is " + file.length() + " bytes");
+        assertEquals(MonitorSnapshotFile.readLatest(file).get("test.snapshot.compact").getCount(), 10);
+    }
+
+    @Test
+    public void baseline_kept_after_restart() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource before = source();
+        final MonitorStats stats = stats(before, "test.snapshot.baseline");
+        stats.record(5000000);
+        writer(file, Long.MAX_VALUE, "baseline", before).snapshot();
+
+        final MonitorStatsSource after = source();
+        final MonitorStats existing = stats(after, "test.snapshot.baseline");
+        writer(file, Long.MAX_VALUE, "baseline", after).restore();
+
+        assertNotNull(existing.getBaseline());
+        assertEquals(existing.getBaseline().getCount(), 1);
+        assertEquals(existing.getBaseline().getMax(), 5000000);
+        assertTrue(existing.getBaselinePercentiles().get("p99") >= 5000000);
+        assertEquals(existing.getHistogram().getCount(), 0);
+    }
+
+    @Test
+    public void histograms_restored_to_monitors_created_later() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource before = source();
+        stats(before, "test.snapshot.restore").record(5000000);
+        writer(file, Long.MAX_VALUE, "baseline", before).snapshot();
+
+        final MonitorStatsSource after = source();
+        writer(file, Long.MAX_VALUE, "restore", after).restore();
+        final MonitorStats created = stats(after, "test.snapshot.restore");
+
+        assertEquals(created.getBaseline().getCount(), 1);
+        assertEquals(created.getHistogram().getCount(), 1);
+        assertTrue(created.getPercentiles().get("p50") >= 5000000);
+    }
+
+    @Test
+    public void ignored_snapshot_not_restored() throws Exception {
+        final File file = tempFile();
+        final MonitorStatsSource before = source();
+        stats(before, "test.snapshot.ignore").record(5000000);
+        writer(file, Long.MAX_VALUE, "baseline", before).snapshot();
+
+        final MonitorStatsSource after = source();
+        writer(file, Long.MAX_VALUE, "ignore", after).restore();
+
+        assertNull(stats(after, "test.snapshot.ignore").getBaseline());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void unknown_startup_rejected() throws Exception {
+        writer(tempFile(), Long.MAX_VALUE, "reload", source()).restore();
+    }
+}
@@ -0,0 +1,178 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.annotations.Monitor;
+import com.joshcanfield.tapestry5.monitor.MonitorClock;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import org.apache.tapestry5.plastic.MethodInvocation;
+import org.easymock.Capture;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter;
+import static com.joshcanfield.tapestry5.annotations.Monitor.ExceptionFilter.Strategy;
+import static com.joshcanfield.tapestry5.monitor.MonitorStatsFixture.stats;
+import static org.easymock.EasyMock.*;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestMonitoredFuture {
+
+    private static class TestClock implements MonitorClock {
+        long now;
+
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    private static Monitor monitor(ExceptionFilter... filters) {
+        final Monitor monitor = createMock(Monitor.class);
+        expect(monitor.sampleRate()).andStubReturn(1);
+        expect(monitor.exceptions()).andStubReturn(filters);
+        replay(monitor);
+        return monitor;
+    }
+
+    /**
+     * Advises an invocation returning the future and hands back what the caller would get.
+     */
+    @SuppressWarnings("unchecked")
+    private static MonitoredFuture<String> invoke(MonitorAdvice advice, FutureTask<String> task) {
+        final MethodInvocation invocation = createNiceMock(MethodInvocation.class);
+        final Capture<Object> returned = new Capture<Object>();
+        expect(invocation.getReturnValue()).andReturn(task);
+        expect(invocation.setReturnValue(capture(returned))).andReturn(invocation);
+        replay(invocation);
+
+        advice.advise(invocation);
+        return (MonitoredFuture<String>) returned.getValue();
+    }
+
+    private static FutureTask<String> task(final RuntimeException failure) {
+        return new FutureTask<String>(new Callable<String>() {
+            public String call() {
+                if (failure != null) throw failure;
+                return "done";
+            }
+        });
+    }
+
+    @Test
+    public void recorded_when_complete() throws Exception {
+        final TestClock clock = new TestClock();
+        final MonitorStats stats = stats("test.future.complete", 50);
+        final MonitorAdvice advice = new MonitorAdvice(stats, clock, monitor(),
+                Collections.<String, MonitorStats>emptyMap(), new MonitorAdvice.Options().async(true));
+
+        final FutureTask<String> task = task(null);
+        final MonitoredFuture<String> future = invoke(advice, task);
+        assertEquals(stats.getStopwatch().getCounter(), 0, "not recorded until the future completes");
+        assertEquals(stats.getInvocationCount(), 1, "counted when handed back");
+
+        try {
+            future.get(1, TimeUnit.MILLISECONDS);
+            fail("the task hasn't run");
+        } catch (TimeoutException expected) {
+        }
+        assertFalse(future.isDone());
+        assertEquals(stats.getStopwatch().getCounter(), 0);
+
+        clock.now = 5000;
+        task.run();
+        assertEquals(future.get(), "done");
+        assertTrue(future.isDone());
+
+        assertEquals(stats.getStopwatch().getCounter(), 1, "recorded once");
+        assertEquals(stats.getStopwatch().getTotal(), 5000);
+        assertEquals(stats.getInvocationCount(), 1);
+    }
+
+    @Test
+    public void counted_when_never_read() {
+        final MonitorStats stats = stats("test.future.unread", 50);
+        final MonitorAdvice advice = new MonitorAdvice(stats, new TestClock(), monitor(),
+                Collections.<String, MonitorStats>emptyMap(), new MonitorAdvice.Options().async(true));
+
+        // fire and forget, nobody calls get() or isDone()
+        final FutureTask<String> task = task(null);
+        invoke(advice, task);
+        task.run();
+
+        assertEquals(stats.getInvocationCount(), 1);
+        assertEquals(stats.getStopwatch().getCounter(), 0, "the time is never known");
+    }
+
+    @Test
+    public void failures_go_through_the_filters() throws Exception {
+        final TestClock clock = new TestClock();
+        final MonitorStats stats = stats("test.future.failure", 50);
+        final MonitorStats errors = stats("test.future.failure.errors", 50);
+
+        final ExceptionFilter filter = createMock(ExceptionFilter.class);
+        expect(filter.value()).andStubReturn(new Class[]{IllegalStateException.class});
+        expect(filter.strategy()).andStubReturn(Strategy.Segregate);
+        expect(filter.name()).andStubReturn("errors");
+        replay(filter);
+
+        final MonitorAdvice advice = new MonitorAdvice(stats, clock, monitor(filter),
+                Collections.singletonMap("errors", errors), new MonitorAdvice.Options().async(true));
+
+        final FutureTask<String> task = task(new IllegalStateException("TEST"));
+        final MonitoredFuture<String> future = invoke(advice, task);
+
+        clock.now = 700;
+        task.run();
+        // isDone() is enough to record it
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("expecting the task's failure");
+        } catch (ExecutionException e) {
+            assertEquals(e.getCause().getMessage(), "TEST");
+        }
+
+        assertEquals(stats.getStopwatch().getCounter(), 0);
+        assertEquals(stats.getInvocationCount(), 1, "still counted once routed to the segregated stats");
+        assertEquals(errors.getStopwatch().getCounter(), 1);
+        assertEquals(errors.getStopwatch().getTotal(), 700);
+        assertEquals(stats.getErrorCount(), 1);
+    }
+
+    @Test
+    public void segregated_failures_keep_the_rates_steady() throws Exception {
+        final MonitorStats stats = stats("test.future.rates", 50);
+        final MonitorStats errors = stats("test.future.rates.errors", 50);
+
+        final ExceptionFilter filter = createMock(ExceptionFilter.class);
+        expect(filter.value()).andStubReturn(new Class[]{IllegalStateException.class});
+        expect(filter.strategy()).andStubReturn(Strategy.Segregate);
+        expect(filter.name()).andStubReturn("errors");
+        replay(filter);
+
+        final MonitorAdvice advice = new MonitorAdvice(stats, new TestClock(), monitor(filter),
+                Collections.singletonMap("errors", errors), new MonitorAdvice.Options().async(true));
+
+        for (int i = 0; i < 100; i++) {
+            stats.record(10);
+        }
+        final FutureTask<String> task = task(new IllegalStateException("TEST"));
+        final MonitoredFuture<String> future = invoke(advice, task);
+        stats.tickRates(0);
+        assertEquals(stats.getInvocationCount(), 101);
+
+        task.run();
+        assertTrue(future.isDone());
+        assertEquals(stats.getInvocationCount(), 101, "the count doesn't drop when the failure is routed away");
+
+        stats.tickRates(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(stats.getCallRates().getOneMinuteRate(), 0.0, "no invocations since the last tick");
+    }
+}
@@ -0,0 +1,82 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import com.joshcanfield.tapestry5.monitor.Histogram;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsFixture;
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestRecordingBuffers {
+    final PerthreadManager perthreadManager =
+            new PerthreadManagerImpl(LoggerFactory.getLogger(TestRecordingBuffers.class));
+
+    private BufferedMonitorStats stats(String name, RecordingBuffers buffers) {
+        return new BufferedMonitorStats(MonitorStatsFixture.stopwatch(name), new Histogram(), null, null, null,
+                new double[]{50}, true, buffers);
+    }
+
+    @Test
+    public void flushed_at_request_end() {
+        final RecordingBuffers buffers = new RecordingBuffers(100, perthreadManager);
+        final BufferedMonitorStats stats = stats("test.buffers.request", buffers);
+
+        stats.record(10);
+        stats.record(30);
+        assertEquals(stats.getStopwatch().getCounter(), 0);
+
+        perthreadManager.cleanup();
+        assertEquals(stats.getStopwatch().getCounter(), 2);
+        assertEquals(stats.getStopwatch().getTotal(), 40);
+        assertEquals(stats.getHistogram().getCount(), 2);
+
+        // the next request registers for cleanup again
+        stats.record(5);
+        perthreadManager.cleanup();
+        assertEquals(stats.getStopwatch().getCounter(), 3);
+    }
+
+    @Test
+    public void flushed_when_full() {
+        final RecordingBuffers buffers = new RecordingBuffers(3, perthreadManager);
+        final BufferedMonitorStats first = stats("test.buffers.full.first", buffers);
+        final BufferedMonitorStats second = stats("test.buffers.full.second", buffers);
+
+        first.record(1);
+        second.record(2);
+        assertEquals(first.getStopwatch().getCounter(), 0);
+
+        first.record(3);
+        assertEquals(first.getStopwatch().getCounter(), 2);
+        assertEquals(second.getStopwatch().getCounter(), 1);
+
+        perthreadManager.cleanup();
+    }
+
+    @Test
+    public void flushes_other_threads() throws InterruptedException {
+        final RecordingBuffers buffers = new RecordingBuffers(100, perthreadManager);
+        final BufferedMonitorStats stats = stats("test.buffers.threads", buffers);
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    stats.record(i);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(stats.getStopwatch().getCounter(), 0);
+
+        buffers.flush();
+        assertEquals(stats.getStopwatch().getCounter(), 10);
+
+        // the dead thread's buffer was dropped
+        buffers.flush();
+        assertEquals(stats.getStopwatch().getCounter(), 10);
+    }
+}
@@ -0,0 +1,114 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.javasimon.SimonManager;
+import org.javasimon.Split;
+import org.javasimon.Stopwatch;
+import org.javasimon.StopwatchSample;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestStripedStopwatch {
+
+    @Test
+    public void matches_javasimon_values() {
+        final Stopwatch simon = SimonManager.getStopwatch("test.striped.matches");
+        simon.reset();
+        final StripedStopwatch striped = new StripedStopwatch("test.striped.matches", 4);
+
+        for (long ns : new long[]{10, 20, 30, 40, 1000}) {
+            simon.addTime(ns);
+            striped.addTime(ns);
+        }
+
+        assertEquals(striped.getCounter(), simon.getCounter());
+        assertEquals(striped.getTotal(), simon.getTotal());
+        assertEquals(striped.getMin(), simon.getMin());
+        assertEquals(striped.getMax(), simon.getMax());
+        assertEquals(striped.getLast(), simon.getLast());
+        assertEquals(striped.getMean(), simon.getMean(), 0.0001);
+        assertEquals(striped.getVariance(), simon.getVariance(), 0.0001);
+        assertEquals(striped.getVarianceN(), simon.getVarianceN(), 0.0001);
+        assertEquals(striped.getStandardDeviation(), simon.getStandardDeviation(), 0.0001);
+
+        final StopwatchSample sample = striped.sample();
+        assertEquals(sample.getCounter(), 5);
+        assertEquals(sample.getMax(), 1000);
+        assertEquals(striped.getName(), "test.striped.matches");
+    }
+
+    @Test
+    public void concurrent_recording() throws InterruptedException {
+        final StripedStopwatch striped = new StripedStopwatch("test.striped.concurrent", 8);
+        final int threads = 8;
+        final int calls = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final long ns = t + 1;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < calls; i++) {
+                        striped.addTime(ns);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+
+        assertEquals(striped.getCounter(), threads * calls);
+        // 1 + 2 + ... + 8 per call
+        assertEquals(striped.getTotal(), 36L * calls);
+        assertEquals(striped.getMin(), 1);
+        assertEquals(striped.getMax(), threads);
+    }
+
+    @Test
+    public void reset() {
+        final StripedStopwatch striped = new StripedStopwatch("test.striped.reset", 2);
+        striped.addTime(100);
+        striped.reset();
+
+        assertEquals(striped.getCounter(), 0);
+        assertEquals(striped.getTotal(), 0);
+        assertEquals(striped.getMax(), 0);
+        assertEquals(striped.getMin(), Long.MAX_VALUE);
+        assertEquals(striped.getMean(), 0.0);
+    }
+
+    @Test
+    public void splits_are_folded_into_reads() {
+        final StripedStopwatch striped = new StripedStopwatch("test.striped.splits", 2);
+        striped.reset();
+        striped.addTime(5);
+
+        final Split split = striped.start();
+        assertEquals(striped.getActive(), 1);
+        split.stop();
+
+        assertEquals(striped.getActive(), 0);
+        assertEquals(striped.getCounter(), 2);
+        assertEquals(striped.getTotal(), 5 + split.runningFor());
+        assertEquals(striped.getMin(), Math.min(5, split.runningFor()));
+        assertEquals(striped.getMax(), Math.max(5, split.runningFor()));
+
+        striped.reset();
+        assertEquals(striped.getCounter(), 0);
+        assertEquals(striped.getTotal(), 0);
+    }
+
+    @Test
+    public void not_registered_with_simon_manager() {
+        final StripedStopwatch striped = new StripedStopwatch("test.striped.unregistered", 2);
+        striped.addTime(10);
+
+        assertFalse(SimonManager.getSimonNames().contains("test.striped.unregistered"));
+        assertTrue(striped.isEnabled());
+    }
+}
@@ -0,0 +1,49 @@
+package com.joshcanfield.tapestry5.internal.monitor;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestTextOutput {
+
+    @Test
+    public void numbers() throws IOException {
+        final StringWriter body = new StringWriter();
+        final TextOutput out = new TextOutput(body);
+        for (long value : new long[]{0, 7, -42, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            out.number(value);
+            out.write(' ');
+        }
+        out.flush();
+
+        assertEquals(body.toString(), "0 7 -42 9223372036854775807 -9223372036854775808 ");
+    }
+
+    @Test
+    public void seconds() throws IOException {
+        final StringWriter body = new StringWriter();
+        final TextOutput out = new TextOutput(body);
+        for (long ns : new long[]{0, 1500, 2000000000L, 12345678901L}) {
+            out.seconds(ns);
+            out.write(' ');
+        }
+        out.flush();
+
+        assertEquals(body.toString(), "0.000000000 0.000001500 2.000000000 12.345678901 ");
+    }
+
+    @Test
+    public void larger_than_buffer() throws IOException {
+        final StringWriter body = new StringWriter();
+        final TextOutput out = new TextOutput(body);
+        for (int i = 0; i < 5000; i++) {
+            out.number(1234567890123L);
+        }
+        out.flush();
+
+        assertEquals(body.toString().length(), 5000 * 13);
+    }
+}
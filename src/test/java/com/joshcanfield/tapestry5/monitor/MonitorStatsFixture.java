@@ -0,0 +1,37 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.javasimon.EnabledManager;
+import org.javasimon.Stopwatch;
+
+/**
+ * Builds stats for the unit tests. Each stopwatch comes from a manager of its own rather than the global
+ * SimonManager, so tests start from zero and can't see each other's counts whatever names they use.
+ */
+public final class MonitorStatsFixture {
+
+    private MonitorStatsFixture() {
+    }
+
+    /**
+     * @return a stopwatch nothing else records into
+     */
+    public static Stopwatch stopwatch(String name) {
+        return new EnabledManager().getStopwatch(name);
+    }
+
+    /**
+     * @param percentiles reported by the stats, in ascending order
+     * @return stats with no window, exception breakdown or intervals, counting invocations in flight
+     */
+    public static MonitorStats stats(String name, double... percentiles) {
+        return stats(name, null, percentiles);
+    }
+
+    /**
+     * @param intervals   the stats record into, or null
+     * @param percentiles reported by the stats, in ascending order
+     */
+    public static MonitorStats stats(String name, MonitorIntervals intervals, double... percentiles) {
+        return new MonitorStats(stopwatch(name), new Histogram(), null, null, intervals, percentiles, true);
+    }
+}
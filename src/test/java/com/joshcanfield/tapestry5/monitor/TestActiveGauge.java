@@ -0,0 +1,94 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestActiveGauge {
+
+    @Test
+    public void first_enter_sets_the_peak() {
+        final ActiveGauge gauge = new ActiveGauge(4);
+        gauge.enter();
+        gauge.exit();
+
+        assertEquals(gauge.getActive(), 0);
+        assertEquals(gauge.getMax(), 1);
+        assertTrue(gauge.getMaxTimestamp() > 0);
+    }
+
+    @Test
+    public void sums_stripes() throws InterruptedException {
+        final ActiveGauge gauge = new ActiveGauge(8);
+        final int threads = 8;
+        final CountDownLatch entered = new CountDownLatch(threads);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    gauge.enter();
+                    entered.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    gauge.exit();
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        entered.await();
+        assertEquals(gauge.getActive(), threads);
+        // the read samples the peak
+        assertEquals(gauge.getMax(), threads);
+
+        release.countDown();
+        done.await();
+        assertEquals(gauge.getActive(), 0);
+        assertEquals(gauge.getMax(), threads);
+    }
+
+    @Test
+    public void exit_on_another_thread() throws InterruptedException {
+        final ActiveGauge gauge = new ActiveGauge(8);
+        gauge.enter();
+
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                gauge.exit();
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertEquals(gauge.getActive(), 0);
+    }
+
+    @Test
+    public void reset_max_starts_from_active() {
+        final ActiveGauge gauge = new ActiveGauge(2);
+        gauge.enter();
+        gauge.enter();
+        assertEquals(gauge.getMax(), 2);
+
+        gauge.exit();
+        gauge.resetMax();
+        assertEquals(gauge.getMax(), 1);
+        gauge.exit();
+
+        gauge.resetMax();
+        gauge.enter();
+        gauge.exit();
+        // sampled by the first enter after the reset, not only by reads
+        assertEquals(gauge.getMax(), 1);
+    }
+}
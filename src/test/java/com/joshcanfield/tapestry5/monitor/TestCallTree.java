@@ -0,0 +1,113 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.apache.tapestry5.ioc.internal.services.PerthreadManagerImpl;
+import org.apache.tapestry5.ioc.services.PerthreadManager;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+public class TestCallTree {
+
+    private static final MonitorStats PAGE = MonitorStatsFixture.stats("test.tree.page", 50);
+    private static final MonitorStats SERVICE = MonitorStatsFixture.stats("test.tree.service", 50);
+    private static final MonitorStats DAO = MonitorStatsFixture.stats("test.tree.dao", 50);
+
+    private final PerthreadManager perthreadManager =
+            new PerthreadManagerImpl(LoggerFactory.getLogger(TestCallTree.class));
+
+    @AfterMethod
+    public void cleanup() {
+        perthreadManager.cleanup();
+    }
+
+    private static class TestClock implements MonitorClock {
+        long now;
+
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void nested_and_merged() {
+        final TestClock clock = new TestClock();
+        final CallTreeRecorder recorder = new CallTreeRecorder(clock, 10, perthreadManager);
+
+        assertNull(recorder.current());
+        final CallTree tree = recorder.begin("/index");
+        assertNull(recorder.begin("/nested"), "only the outermost request records");
+
+        final int page = tree.enter(PAGE);
+        for (int i = 0; i < 3; i++) {
+            final int service = tree.enter(SERVICE);
+            tree.exit(tree.enter(DAO), 1000000);
+            tree.exit(service, 2000000);
+        }
+        tree.exit(page, 10250000);
+        tree.exit(tree.enter(SERVICE), 500000);
+
+        clock.now = 12500000;
+        assertEquals(recorder.end(), tree);
+        assertNull(recorder.current());
+
+        assertEquals(tree.getSize(), 5);
+        assertEquals(tree.getName(CallTree.ROOT), "/index");
+        assertEquals(tree.getTotal(CallTree.ROOT), 12500000);
+        assertEquals(tree.getFirstChild(CallTree.ROOT), page);
+        assertEquals(tree.getCount(tree.getFirstChild(page)), 3);
+        assertEquals(tree.getStats(tree.getNextSibling(page)), SERVICE);
+        assertEquals(tree.getParent(tree.getNextSibling(page)), CallTree.ROOT);
+        assertEquals(tree.toString(), "0 /index 1 12.500;" +
+                "1 test.tree.page 1 10.250;" +
+                "2 test.tree.service 3 6.000;" +
+                "3 test.tree.dao 3 3.000;" +
+                "1 test.tree.service 1 0.500");
+    }
+
+    @Test
+    public void full_tree_drops_monitors() {
+        final CallTreeRecorder recorder = new CallTreeRecorder(new TestClock(), 1, perthreadManager);
+        final CallTree tree = recorder.begin("/full");
+
+        final int page = tree.enter(PAGE);
+        final int service = tree.enter(SERVICE);
+        assertEquals(service, CallTree.NONE);
+        tree.exit(service, 100);
+        tree.exit(page, 200);
+        recorder.end();
+
+        assertEquals(tree.getSize(), 2);
+        assertEquals(tree.getDropped(), 1);
+        assertEquals(tree.getTotal(page), 200);
+    }
+
+    @Test
+    public void reused_within_a_request() {
+        final CallTreeRecorder recorder = new CallTreeRecorder(new TestClock(), 4, perthreadManager);
+        CallTree tree = recorder.begin("/first");
+        tree.exit(tree.enter(PAGE), 100);
+        recorder.end();
+
+        tree = recorder.begin("/second");
+        tree.exit(tree.enter(SERVICE), 100);
+        recorder.end();
+
+        assertEquals(tree.toString(), "0 /second 1 0.000;1 test.tree.service 1 0.000");
+    }
+
+    @Test
+    public void dropped_at_the_end_of_the_request() {
+        final CallTreeRecorder recorder = new CallTreeRecorder(new TestClock(), 4, perthreadManager);
+        final CallTree first = recorder.begin("/first");
+        recorder.end();
+        perthreadManager.cleanup();
+
+        assertNull(recorder.current());
+        assertNotSame(recorder.begin("/second"), first);
+        recorder.end();
+    }
+}
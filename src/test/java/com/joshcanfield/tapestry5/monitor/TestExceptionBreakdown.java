@@ -0,0 +1,62 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestExceptionBreakdown {
+
+    @Test
+    public void timed_by_class() {
+        final ExceptionBreakdown breakdown = new ExceptionBreakdown(10, new double[]{50, 99});
+        breakdown.record(IllegalArgumentException.class, 100);
+        breakdown.record(IllegalArgumentException.class, 300);
+        breakdown.record(IllegalStateException.class, 5000000);
+
+        final List<ExceptionStats> exceptions = breakdown.getExceptions();
+        assertEquals(exceptions.size(), 2);
+
+        final ExceptionStats validation = find(exceptions, IllegalArgumentException.class.getName());
+        assertEquals(validation.getCount(), 2);
+        assertEquals(validation.getTotal(), 400);
+        assertEquals(validation.getMean(), 200.0);
+        assertEquals(validation.getMax(), 300);
+        assertTrue(validation.getPercentiles().get("p99") >= 300);
+
+        final ExceptionStats timeout = find(exceptions, IllegalStateException.class.getName());
+        assertEquals(timeout.getCount(), 1);
+        assertEquals(timeout.getMax(), 5000000);
+    }
+
+    @Test
+    public void classes_past_capacity_are_other() {
+        final ExceptionBreakdown breakdown = new ExceptionBreakdown(1, new double[]{50});
+        breakdown.record(IllegalArgumentException.class, 100);
+        breakdown.record(IllegalStateException.class, 200);
+        breakdown.record(UnsupportedOperationException.class, 300);
+
+        final List<ExceptionStats> exceptions = breakdown.getExceptions();
+        assertEquals(exceptions.size(), 2);
+        assertEquals(exceptions.get(0).getException(), IllegalArgumentException.class.getName());
+        assertEquals(exceptions.get(1).getException(), ExceptionBreakdown.OTHER);
+        assertEquals(exceptions.get(1).getCount(), 2);
+
+        breakdown.reset();
+        assertTrue(breakdown.getExceptions().isEmpty());
+        breakdown.record(IllegalStateException.class, 200);
+        assertEquals(breakdown.getExceptions().get(0).getException(), IllegalStateException.class.getName());
+        breakdown.record(IllegalArgumentException.class, 100);
+        assertEquals(breakdown.getExceptions().get(1).getException(), ExceptionBreakdown.OTHER);
+        assertEquals(breakdown.getExceptions().get(1).getCount(), 1);
+    }
+
+    private static ExceptionStats find(List<ExceptionStats> exceptions, String name) {
+        for (ExceptionStats stats : exceptions) {
+            if (stats.getException().equals(name)) return stats;
+        }
+        throw new AssertionError("No stats for " + name);
+    }
+}
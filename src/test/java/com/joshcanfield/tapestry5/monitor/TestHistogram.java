@@ -0,0 +1,90 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHistogram {
+
+    @Test
+    public void small_values_are_exact() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(histogram.getCount(), 10);
+        assertEquals(histogram.getValueAtPercentile(50), 5);
+        assertEquals(histogram.getValueAtPercentile(90), 9);
+        assertEquals(histogram.getValueAtPercentile(100), 10);
+    }
+
+    @Test
+    public void buckets_are_contiguous() {
+        int last = -1;
+        for (long value = 0; value < 100000; value++) {
+            final int index = Histogram.index(value);
+            assertTrue(index == last || index == last + 1, "gap at " + value);
+            assertTrue(Histogram.highestEquivalentValue(index) >= value);
+            last = index;
+        }
+    }
+
+    @Test
+    public void large_values_within_precision() {
+        Histogram histogram = new Histogram();
+        final long[] values = {1000, 25000, 1000000, 3000000000L};
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        final long[] percentiles = histogram.getValuesAtPercentiles(new double[]{25, 50, 75, 100});
+        for (int i = 0; i < values.length; i++) {
+            assertTrue(percentiles[i] >= values[i]);
+            assertTrue(percentiles[i] <= values[i] * 1.04, percentiles[i] + " too far from " + values[i]);
+        }
+    }
+
+    @Test
+    public void tail_percentiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000);
+        }
+
+        assertEquals(histogram.getValueAtPercentile(50), Histogram.highestEquivalentValue(Histogram.index(100)));
+        assertEquals(histogram.getValueAtPercentile(99), Histogram.highestEquivalentValue(Histogram.index(100)));
+        assertEquals(histogram.getValueAtPercentile(99.9), Histogram.highestEquivalentValue(Histogram.index(50000)));
+
+        final double[] percentiles = {50, 99, 99.9};
+        final long[] values = new long[3];
+        histogram.getValuesAtPercentiles(percentiles, values);
+        assertTrue(Arrays.equals(values, histogram.getValuesAtPercentiles(percentiles)));
+    }
+
+    @Test
+    public void out_of_range_values_are_clamped() {
+        Histogram histogram = new Histogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(histogram.getValueAtPercentile(0), 0);
+        assertEquals(histogram.getValueAtPercentile(100), Histogram.HIGHEST_TRACKABLE_VALUE);
+    }
+
+    @Test
+    public void empty_and_reset() {
+        Histogram histogram = new Histogram();
+        assertEquals(histogram.getValueAtPercentile(99), 0);
+
+        histogram.record(42);
+        histogram.reset();
+        assertEquals(histogram.getCount(), 0);
+    }
+}
@@ -0,0 +1,94 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMonitorIntervals {
+
+    @Test
+    public void interval_read_and_reset() {
+        final MonitorIntervals intervals = new MonitorIntervals();
+        final MonitorStats first = MonitorStatsFixture.stats("test.intervals.first", intervals, 50, 99);
+        final MonitorStats second = MonitorStatsFixture.stats("test.intervals.second", intervals, 50, 99);
+        final List<MonitorStats> all = Arrays.asList(first, second);
+
+        first.record(1000);
+        first.record(3000);
+        MonitorInterval interval = intervals.snapshotAndReset(all);
+
+        StatsSnapshot snapshot = interval.getStats().get("test.intervals.first");
+        assertEquals(snapshot.getCount(), 2);
+        assertEquals(snapshot.getTotal(), 4000);
+        assertEquals(snapshot.getMin(), 1000);
+        assertEquals(snapshot.getMax(), 3000);
+        assertEquals(snapshot.getHistogram().getCount(), 2);
+        assertEquals(interval.getStats().get("test.intervals.second").getCount(), 0);
+        assertTrue(interval.getEnd() >= interval.getStart());
+
+        // the next interval starts from zero, the monitor's own stats don't
+        second.record(500);
+        final long end = interval.getEnd();
+        interval = intervals.snapshotAndReset(all);
+
+        assertEquals(interval.getStart(), end);
+        assertEquals(interval.getStats().get("test.intervals.first").getCount(), 0);
+        assertEquals(interval.getStats().get("test.intervals.first").getMin(), 0);
+        assertEquals(interval.getStats().get("test.intervals.second").getMax(), 500);
+        assertEquals(first.getStopwatch().getCounter(), 2);
+    }
+
+    @Test
+    public void stats_without_intervals_left_out() {
+        final MonitorStats stats = MonitorStatsFixture.stats("test.intervals.none", 50);
+        stats.record(1000);
+
+        assertTrue(new MonitorIntervals().snapshotAndReset(Arrays.asList(stats)).getStats().isEmpty());
+    }
+
+    @Test
+    public void no_invocation_lost_or_counted_twice() throws Exception {
+        final MonitorIntervals intervals = new MonitorIntervals();
+        final MonitorStats first = MonitorStatsFixture.stats("test.intervals.racing.first", intervals, 50, 99);
+        final MonitorStats second = MonitorStatsFixture.stats("test.intervals.racing.second", intervals, 50, 99);
+        final List<MonitorStats> all = Arrays.asList(first, second);
+
+        final int threads = 4;
+        final int invocations = 50000;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < invocations; i++) {
+                        first.record(100);
+                        second.record(100);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+
+        long firstCount = 0;
+        long secondCount = 0;
+        while (running.get()) {
+            if (done.getCount() == 0) running.set(false);
+
+            final MonitorInterval interval = intervals.snapshotAndReset(all);
+            final StatsSnapshot firstSnapshot = interval.getStats().get("test.intervals.racing.first");
+            firstCount += firstSnapshot.getCount();
+            secondCount += interval.getStats().get("test.intervals.racing.second").getCount();
+            assertEquals(firstSnapshot.getHistogram().getCount(), firstSnapshot.getCount());
+        }
+
+        assertEquals(firstCount, (long) threads * invocations);
+        assertEquals(secondCount, (long) threads * invocations);
+    }
+}
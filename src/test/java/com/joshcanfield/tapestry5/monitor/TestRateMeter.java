@@ -0,0 +1,67 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestRateMeter {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void starts_at_the_first_rate() {
+        final RateMeter meter = new RateMeter();
+        meter.tick(1000, 0);
+        assertEquals(meter.getOneMinuteRate(), 0.0, "the first tick only sets the count");
+
+        meter.tick(1050, 5 * SECOND);
+        assertEquals(meter.getOneMinuteRate(), 10.0, 0.0001);
+        assertEquals(meter.getFifteenMinuteRate(), 10.0, 0.0001);
+    }
+
+    @Test
+    public void decays_towards_the_current_rate() {
+        final RateMeter meter = new RateMeter();
+        meter.tick(0, 0);
+        meter.tick(50, 5 * SECOND);
+
+        // nothing more for a minute
+        meter.tick(50, 65 * SECOND);
+
+        // one e-fold for the one minute rate, a fifth of one for the five minute rate
+        assertEquals(meter.getOneMinuteRate(), 10 * Math.exp(-1), 0.0001);
+        assertEquals(meter.getFiveMinuteRate(), 10 * Math.exp(-0.2), 0.0001);
+        assertTrue(meter.getFiveMinuteRate() < meter.getFifteenMinuteRate());
+        assertEquals(meter.getRates().keySet().toString(), "[1m, 5m, 15m]");
+    }
+
+    @Test
+    public void late_ticks_are_weighted_by_time() {
+        final RateMeter regular = new RateMeter();
+        final RateMeter late = new RateMeter();
+        regular.tick(0, 0);
+        late.tick(0, 0);
+        regular.tick(10, SECOND);
+        late.tick(10, SECOND);
+
+        // the same 20 per second, ticked every 5 seconds or once after 10
+        regular.tick(110, 6 * SECOND);
+        regular.tick(210, 11 * SECOND);
+        late.tick(210, 11 * SECOND);
+
+        assertEquals(late.getOneMinuteRate(), regular.getOneMinuteRate(), 0.0001);
+    }
+
+    @Test
+    public void reset_count_starts_from_zero() {
+        final RateMeter meter = new RateMeter();
+        meter.tick(1000, 0);
+        meter.tick(20, 10 * SECOND);
+        assertEquals(meter.getOneMinuteRate(), 2.0, 0.0001);
+
+        meter.reset();
+        assertEquals(meter.getOneMinuteRate(), 0.0);
+    }
+}
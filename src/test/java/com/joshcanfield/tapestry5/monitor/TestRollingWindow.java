@@ -0,0 +1,110 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestRollingWindow {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static class TestClock implements MonitorClock {
+        long now = 1000 * SECOND;
+
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    @Test
+    public void windows_cover_recent_buckets() {
+        final TestClock clock = new TestClock();
+        // 10 second buckets, windows of up to 6 buckets
+        final RollingWindow window = new RollingWindow(clock, 10 * SECOND, 6);
+
+        window.record(500);
+        clock.now += 10 * SECOND;
+        window.record(100);
+        window.record(300);
+        clock.now += 5 * SECOND;
+
+        final RollingWindow.Snapshot current = window.snapshot(1);
+        assertEquals(current.getCount(), 2);
+        assertEquals(current.getTotal(), 400);
+        assertEquals(current.getMax(), 300);
+        assertEquals(current.getMean(), 200.0);
+        assertEquals(current.getSpan(), 5 * SECOND);
+        assertEquals(current.getRate(), 0.4);
+
+        final RollingWindow.Snapshot two = window.snapshot(2);
+        assertEquals(two.getCount(), 3);
+        assertEquals(two.getMax(), 500);
+        assertEquals(two.getSpan(), 15 * SECOND);
+
+        assertEquals(window.histogram(1).getCount(), 2);
+        assertEquals(window.histogram(2).getCount(), 3);
+        assertEquals(window.histogram(2).getValueAtPercentile(100), 511);
+    }
+
+    @Test
+    public void old_buckets_expire() {
+        final TestClock clock = new TestClock();
+        final RollingWindow window = new RollingWindow(clock, 10 * SECOND, 3);
+
+        window.record(1000);
+        clock.now += 30 * SECOND;
+        assertEquals(window.snapshot(3).getCount(), 0);
+        assertEquals(window.snapshot(3).getMax(), 0);
+
+        // the slot is reused for the new bucket
+        window.record(10);
+        assertEquals(window.snapshot(3).getCount(), 1);
+        assertEquals(window.snapshot(3).getMax(), 10);
+        assertEquals(window.histogram(3).getCount(), 1);
+    }
+
+    @Test
+    public void negative_clock() {
+        final TestClock clock = new TestClock();
+        clock.now = -25 * SECOND;
+        final RollingWindow window = new RollingWindow(clock, 10 * SECOND, 4);
+
+        window.record(1);
+        clock.now += 10 * SECOND;
+        window.record(2);
+
+        assertEquals(window.snapshot(4).getCount(), 2);
+    }
+
+    @Test
+    public void sizes_capped_and_reset() {
+        final TestClock clock = new TestClock();
+        final RollingWindow window = new RollingWindow(clock, 10 * SECOND, 2);
+
+        window.record(1);
+        clock.now += 10 * SECOND;
+        window.record(2);
+        assertEquals(window.snapshot(100).getCount(), 2);
+
+        window.reset();
+        assertEquals(window.snapshot(2).getCount(), 0);
+    }
+
+    @Test
+    public void monitor_stats_window() {
+        final TestClock clock = new TestClock();
+        final MonitorStats stats = new MonitorStats(MonitorStatsFixture.stopwatch("test.window.stats"),
+                new Histogram(), new RollingWindow(clock, 10 * SECOND, 2), null, null, new double[]{50}, true);
+        stats.reset();
+
+        stats.record(40);
+        stats.record(40);
+        assertEquals(stats.getWindow().snapshot(1).getCount(), 2);
+        // window histograms have coarser buckets, 40 shares one with 41 to 43
+        assertEquals(stats.getWindowPercentiles(1).get("p50"), Long.valueOf(43));
+
+        stats.reset();
+        assertEquals(stats.getWindow().snapshot(1).getCount(), 0);
+    }
+}
@@ -0,0 +1,70 @@
+package com.joshcanfield.tapestry5.monitor;
+
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestSlowInvocationLog {
+
+    private static Method method() throws NoSuchMethodException {
+        return String.class.getMethod("substring", int.class);
+    }
+
+    @Test
+    public void newest_first_and_bounded() throws Exception {
+        final SlowInvocationLog log = new SlowInvocationLog(3, false, false);
+        for (int i = 1; i <= 5; i++) {
+            log.add("test.slow", method(), i * 1000, new Object[]{i});
+        }
+
+        final List<SlowInvocation> invocations = log.getInvocations();
+        assertEquals(invocations.size(), 3);
+        assertEquals(invocations.get(0).getDuration(), 5000);
+        assertEquals(invocations.get(2).getDuration(), 3000);
+        assertEquals(log.getCaptured(), 5);
+
+        final SlowInvocation invocation = invocations.get(0);
+        assertEquals(invocation.getMonitor(), "test.slow");
+        assertEquals(invocation.getMethod(), "java.lang.String.substring");
+        assertEquals(invocation.getThread(), Thread.currentThread().getName());
+        assertTrue(invocation.getTimestamp() > 0);
+        assertNull(invocation.getArguments(), "arguments aren't captured");
+        assertNull(invocation.getStack(), "the stack isn't captured");
+    }
+
+    @Test
+    public void clear() throws Exception {
+        final SlowInvocationLog log = new SlowInvocationLog(3, false, false);
+        log.add("test.slow", method(), 1000, null);
+        log.add("test.slow", method(), 2000, null);
+        log.clear();
+        assertTrue(log.getInvocations().isEmpty());
+
+        log.add("test.slow", method(), 3000, null);
+        assertEquals(log.getInvocations().size(), 1);
+        assertEquals(log.getCaptured(), 3);
+    }
+
+    @Test
+    public void arguments_and_stack() throws Exception {
+        final SlowInvocationLog log = new SlowInvocationLog(3, true, true);
+        final StringBuilder longArgument = new StringBuilder();
+        for (int i = 0; i < 200; i++) longArgument.append('x');
+
+        log.add("test.slow", method(), 1000, new Object[]{null, 42, longArgument});
+
+        final SlowInvocation invocation = log.getInvocations().get(0);
+        final String[] arguments = invocation.getArguments();
+        assertEquals(arguments[0], "null");
+        assertEquals(arguments[1], "42");
+        assertEquals(arguments[2].length(), 103, "summaries are cut short");
+
+        final String[] stack = invocation.getStack();
+        assertTrue(stack[0].startsWith(getClass().getName() + ".arguments_and_stack"), stack[0]);
+    }
+}
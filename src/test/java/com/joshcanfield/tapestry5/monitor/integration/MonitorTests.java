@@ -18,6 +18,8 @@ import com.example.testapp.pages.Index;
 import com.example.testapp.services.impl.NotMonitoredImpl;
 import com.joshcanfield.tapestry5.annotations.Monitor;
 import com.joshcanfield.tapestry5.monitor.MonitorNameGenerator;
+import com.joshcanfield.tapestry5.monitor.MonitorStats;
+import com.joshcanfield.tapestry5.monitor.MonitorStatsSource;
 import org.apache.tapestry5.EventContext;
 import org.apache.tapestry5.dom.Document;
 import org.apache.tapestry5.dom.Element;
@@ -26,7 +28,6 @@ import com.example.testapp.services.HelloService;
 import com.example.testapp.services.NotMonitored;
 import com.example.testapp.services.Renamed;
 import com.example.testapp.services.SubMonitored;
-import org.javasimon.SimonManager;
 import org.javasimon.Stopwatch;
 import org.testng.Assert;
 import org.testng.annotations.BeforeClass;
@@ -35,9 +36,12 @@ import org.testng.annotations.Test;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
-import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 @Test
 public class MonitorTests extends Assert {
@@ -52,11 +56,10 @@ public class MonitorTests extends Assert {
     }
 
     @BeforeMethod
-    public void resetSimon() {
+    public void resetStats() {
         // Each test assumes we're starting at zero
-        Collection<String> strings = SimonManager.getSimonNames();
-        for (String string : strings) {
-            SimonManager.getSimon(string).reset();
+        for (MonitorStats stats : statsSource().getAllStats()) {
+            stats.reset();
         }
     }
 
@@ -116,13 +119,13 @@ public class MonitorTests extends Assert {
     public void monitor_not_profiled_service_methods() throws NoSuchMethodException {
         // make sure the page is rendered once so that all the services are loaded and monitoring is created
         tester.renderPage("index");
-        assertTrue(SimonManager.getSimonNames().size() > 0);
+        assertTrue(monitorNames().size() > 0);
 
         // Methods without the monitor annotation should not be monitored
         final Method method = HelloService.class.getMethod("notMonitoredMethod");
         Monitor monitor = method.getAnnotation(Monitor.class);
         String monitorName = monitorNameGenerator.getMonitorName(monitor, HelloService.class, method);
-        assertFalse(SimonManager.getSimonNames().contains(monitorName));
+        assertFalse(monitorNames().contains(monitorName));
 
     }
 
@@ -217,6 +220,149 @@ public class MonitorTests extends Assert {
         assertMonitorRegistered(monitor(getNamesMethod), mBeanServer, Index.class, getNamesMethod);
     }
 
+    @Test
+    public void monitor_sampled_method() throws NoSuchMethodException {
+        final Method method = HelloService.class.getMethod("sampledMethod");
+        final String name = monitorNameGenerator.getMonitorName(monitor(method), HelloService.class, method);
+        final MonitorStats stats = tester.getRegistry().getService(MonitorStatsSource.class).getStats(name);
+
+        HelloService service = tester.getRegistry().getService(HelloService.class);
+        for (int i = 0; i < 100; i++) {
+            service.sampledMethod();
+        }
+
+        assertEquals(stats.getStopwatch().getCounter(), 10);
+        assertEquals(stats.getInvocationCount(), 100);
+    }
+
+    @Test
+    public void monitor_jmx_percentiles() throws Exception {
+        final Method method = HelloService.class.getMethod("monitoredMethod");
+        HelloService service = tester.getRegistry().getService(HelloService.class);
+        service.monitoredMethod();
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = monitorNameGenerator.getJmxObjectName(monitor(method), HelloService.class, method);
+
+        final TabularData percentiles = (TabularData) mBeanServer.getAttribute(objectName, "Percentiles");
+        assertNotNull(percentiles.get(new Object[]{"p50"}));
+        assertNotNull(percentiles.get(new Object[]{"p99.9"}));
+
+        assertEquals(mBeanServer.getAttribute(objectName, "Active"), 0L);
+        assertTrue((Long) mBeanServer.getAttribute(objectName, "MaxActive") >= 1);
+        assertNotNull(((TabularData) mBeanServer.getAttribute(objectName, "Rates")).get(new Object[]{"15m"}));
+        assertEquals(((Object[]) mBeanServer.getAttribute(objectName, "Exceptions")).length, 0);
+    }
+
+    @Test
+    public void monitor_jmx_reset() throws Exception {
+        final Method method = HelloService.class.getMethod("monitoredMethod");
+        final MonitorStats stats = statsSource().getStats(
+                monitorNameGenerator.getMonitorName(monitor(method), HelloService.class, method));
+        tester.getRegistry().getService(HelloService.class).monitoredMethod();
+        assertEquals(stats.getHistogram().getCount(), 1);
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = monitorNameGenerator.getJmxObjectName(monitor(method), HelloService.class, method);
+        mBeanServer.invoke(objectName, "reset", new Object[0], new String[0]);
+
+        // the histogram goes with the stopwatch so the percentiles agree with the counts
+        assertEquals(stats.getStopwatch().getCounter(), 0);
+        assertEquals(stats.getHistogram().getCount(), 0);
+        assertEquals(mBeanServer.getAttribute(objectName, "InvocationCount"), 0L);
+    }
+
+    @Test
+    public void monitor_jmx_windows() throws Exception {
+        final Method method = HelloService.class.getMethod("monitoredMethod");
+        HelloService service = tester.getRegistry().getService(HelloService.class);
+        service.monitoredMethod();
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = monitorNameGenerator.getJmxObjectName(monitor(method), HelloService.class, method);
+
+        for (String window : new String[]{"1m", "5m", "15m"}) {
+            final ObjectName windowName = new ObjectName(objectName.getCanonicalName() + ",window=" + window);
+            assertTrue((Long) mBeanServer.getAttribute(windowName, "InvocationCount") >= 1, window);
+            assertNotNull(((TabularData) mBeanServer.getAttribute(windowName, "Percentiles")).get(new Object[]{"p50"}));
+        }
+        final ObjectName fiveMinutes = new ObjectName(objectName.getCanonicalName() + ",window=5m");
+        assertEquals(mBeanServer.getAttribute(fiveMinutes, "Duration"), 300000L);
+    }
+
+    @Test
+    public void monitor_jmx_slow_invocations() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("com.example.testapp:type=SlowInvocations");
+
+        // no threshold is configured so nothing is captured
+        tester.getRegistry().getService(HelloService.class).monitoredMethod();
+        assertEquals(mBeanServer.getAttribute(objectName, "Captured"), 0L);
+        assertEquals(((Object[]) mBeanServer.getAttribute(objectName, "Invocations")).length, 0);
+    }
+
+    @Test
+    public void monitor_jmx_all_monitors() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName objectName = new ObjectName("com.example.testapp:type=Monitors");
+        final Method method = HelloService.class.getMethod("monitoredMethod");
+        final String name = getStopwatch(monitor(method), HelloService.class, method).getName();
+
+        tester.getRegistry().getService(HelloService.class).monitoredMethod();
+
+        final TabularData all = (TabularData) mBeanServer.getAttribute(objectName, "Monitors");
+        final CompositeData row = all.get(new Object[]{name});
+        assertEquals(row.get("count"), 1L);
+        assertTrue(row.containsKey("p99"));
+        assertTrue(((String) row.get("objectName")).startsWith("com.example.testapp:"));
+
+        final TabularData filtered = (TabularData) mBeanServer.invoke(objectName, "monitors",
+                new Object[]{name}, new String[]{String.class.getName()});
+        assertTrue(filtered.containsKey(new Object[]{name}));
+        assertTrue(filtered.size() < all.size());
+    }
+
+    @Test
+    public void monitor_render_phases() throws Exception {
+        final MonitorStatsSource source = tester.getRegistry().getService(MonitorStatsSource.class);
+
+        tester.renderPage("index/one/two/three");
+
+        // the page has no render phase methods of its own, only the whole render is timed
+        final MonitorStats page = source.getStats("pages_Index_Render");
+        assertEquals(page.getInvocationCount(), 1);
+        assertTrue(monitorNames().contains("pages_Index_Render"));
+        assertFalse(monitorNames().contains("pages_Index_BeginRender"));
+
+        final String loop = "org_apache_tapestry5_corelib_components_Loop_";
+        final MonitorStats loopRender = source.getStats(loop + "Render");
+        assertEquals(loopRender.getInvocationCount(), 1);
+        assertTrue(loopRender.getInvocationTotal() <= page.getInvocationTotal());
+        // BeginRender runs once per item
+        assertEquals(source.getStats(loop + "BeginRender").getInvocationCount(), 3);
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(mBeanServer.isRegistered(
+                new ObjectName("com.example.testapp:package=pages,name=Index,monitor=\"Render\",type=Monitor")));
+        assertTrue(mBeanServer.isRegistered(new ObjectName(
+                "org.apache.tapestry5.corelib.components:name=Loop,monitor=\"BeginRender\",type=Monitor")));
+    }
+
+    @Test
+    public void monitor_render_subclass() throws Exception {
+        final MonitorStatsSource source = tester.getRegistry().getService(MonitorStatsSource.class);
+
+        tester.renderPage("extended");
+
+        // the base class's advice times the page's render and the phases it inherits as the page's
+        assertEquals(source.getStats("pages_Extended_Render").getInvocationCount(), 1);
+        assertEquals(source.getStats("pages_Extended_BeginRender").getInvocationCount(), 1);
+        assertEquals(source.getStats("pages_Extended_BeforeRenderTemplate").getInvocationCount(), 1);
+        assertFalse(monitorNames().contains("base_BasePage_Render"));
+        assertFalse(monitorNames().contains("base_BasePage_BeginRender"));
+        assertFalse(monitorNames().contains("pages_Extended_SetupRender"));
+    }
+
     private Monitor monitor(Method method) {
         return method.getAnnotation(Monitor.class);
     }
@@ -282,7 +428,22 @@ public class MonitorTests extends Assert {
     }
 
     private Stopwatch getStopwatch(Monitor monitor, Class<?> owningClass, Method method) {
-        return SimonManager.getStopwatch(monitorNameGenerator.getMonitorName(monitor, owningClass, method));
+        return statsSource().getStats(monitorNameGenerator.getMonitorName(monitor, owningClass, method)).getStopwatch();
+    }
+
+    private MonitorStatsSource statsSource() {
+        return tester.getRegistry().getService(MonitorStatsSource.class);
+    }
+
+    /**
+     * Read through the stats source, striped stopwatches aren't registered with SimonManager.
+     */
+    private Set<String> monitorNames() {
+        final Set<String> names = new HashSet<String>();
+        for (MonitorStats stats : statsSource().getAllStats()) {
+            names.add(stats.getName());
+        }
+        return names;
     }
 
 